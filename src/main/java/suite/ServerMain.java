@@ -129,7 +129,7 @@ public class ServerMain {
 				.<String, Handler> empty() //
 				.put("api", hhta.applyFilter("role", hh.serveText("in good shape"))) //
 				.put("hello", hh.serveText("hello world")) //
-				.put("html", hh.serveDir(Paths.get(FileUtil.suiteDir() + "/src/main/html"))) //
+				.put("html", hh.serveDir(Paths.get(FileUtil.suiteDir() + "/src/main/html"), 16 << 20)) //
 				.put("path", hh.serveDir(Tmp.root)) //
 				.put("site", hhsa.getHandler(authenticate, handlerDump)) //
 				.put("sse", handlerSse) //
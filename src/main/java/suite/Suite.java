@@ -26,6 +26,7 @@ import suite.lp.kb.DoubleIndexedRuleSet;
 import suite.lp.kb.Prototype;
 import suite.lp.kb.Rule;
 import suite.lp.kb.RuleSet;
+import suite.lp.kb.RuleSetImage;
 import suite.lp.search.ProverBuilder.Builder;
 import suite.node.Atom;
 import suite.node.Data;
@@ -39,6 +40,7 @@ public class Suite {
 
 	// compilation defaults
 	public static boolean isProverTrace = false;
+	public static boolean isRuleSetImage = Boolean.getBoolean("suite.rule-set-image");
 	public static boolean isInstructionDump = false;
 	public static int stackSize = 16384;
 
@@ -118,12 +120,14 @@ public class Suite {
 	}
 
 	public static RuleSet newRuleSet(List<String> toImports) {
-		return ex(() -> {
+		Source<RuleSet> source = () -> ex(() -> {
 			var rs = newRuleSet();
 			for (var toImport : toImports)
 				rs.importPath(toImport);
 			return rs;
 		});
+
+		return isRuleSetImage ? RuleSetImage.cached(toImports, source) : source.g();
 	}
 
 	public static RuleSet newRuleSet() {
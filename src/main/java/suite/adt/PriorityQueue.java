@@ -1,5 +1,6 @@
 package suite.adt;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 import primal.Verbs.New;
@@ -23,6 +24,8 @@ public class PriorityQueue<T> {
 
 	public int add(T t) {
 		int i, p;
+		if (size + 1 == ts.length)
+			ts = Arrays.copyOf(ts, ts.length * 2);
 		ts[++size] = t;
 		for (i = size; 1 < i && 0 < compare(ts[p = i / 2], ts[i]); i = p)
 			swap(p, i);
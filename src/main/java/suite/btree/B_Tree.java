@@ -10,8 +10,24 @@ import suite.fs.KeyValueMutator;
 
 public interface B_Tree<Key, Value> extends Closeable, KeyDataMutator<Key>, KeyValueMutator<Key, Value> {
 
+	/**
+	 * Walks the leaves in key order. Returns null when moved past either end.
+	 */
+	public interface Cursor<Key, Value> {
+		public void seek(Key key);
+
+		public Pair<Key, Value> next();
+
+		public Pair<Key, Value> prev();
+	}
+
 	public void create();
 
+	/**
+	 * @param nPrefetches number of leaf pages to load ahead when moving forward.
+	 */
+	public Cursor<Key, Value> cursor(int nPrefetches);
+
 	public void dump(PrintStream w);
 
 	public Streamlet<Pair<Key, Value>> range(Key start, Key end);
@@ -1,5 +1,6 @@
 package suite.btree.impl;
 
+import static java.lang.Math.max;
 import static primal.statics.Fail.fail;
 
 import java.io.IOException;
@@ -9,6 +10,7 @@ import java.util.Comparator;
 import primal.Verbs.DeleteFile;
 import primal.adt.FixieArray;
 import primal.adt.Pair;
+import primal.streamlet.Streamlet;
 import suite.btree.B_Tree;
 import suite.file.PageFile;
 import suite.file.impl.AllocatorImpl;
@@ -31,10 +33,20 @@ public class B_TreeBuilder<Key, Value> {
 	private static char PAYLOAD = 'P';
 	private static char TERMINAL = 'T';
 
+	// stored in the superblock; files of other versions cannot be read. Version 1
+	// keeps the allocation map as a bitmap, whose capacity is the number of map
+	// pages times the bits in a page; earlier files kept a byte per page.
+	private static int formatVersion = 1;
+
 	private int pageSize = PageFile.defaultPageSize;
 
 	private Serializer<Key> keySerializer;
 	private Serializer<Value> valueSerializer;
+	private int nCachedPages;
+	private int branchFactor;
+	private boolean isCompact;
+	private boolean isBytewiseKeys;
+	private boolean isConcurrent;
 
 	public static <Key> Pair<B_Tree<Key, Integer>, KeyDataStore<Key>> build( //
 			boolean isNew, //
@@ -58,52 +70,126 @@ public class B_TreeBuilder<Key, Value> {
 	}
 
 	public B_TreeBuilder(Serializer<Key> keySerializer, Serializer<Value> valueSerializer) {
+		this(keySerializer, valueSerializer, 0);
+	}
+
+	/**
+	 * @param nCachedPages number of decoded pages kept in memory; 0 to disable
+	 *                     caching.
+	 */
+	public B_TreeBuilder(Serializer<Key> keySerializer, Serializer<Value> valueSerializer, int nCachedPages) {
+		this(keySerializer, valueSerializer, nCachedPages, 16, false);
+	}
+
+	/**
+	 * @param branchFactor maximum number of entries in a page, which must fit in a
+	 *                     page.
+	 * @param isCompact    use the flat page layout with prefix-compressed keys,
+	 *                     which lookups search without decoding.
+	 */
+	public B_TreeBuilder( //
+			Serializer<Key> keySerializer, //
+			Serializer<Value> valueSerializer, //
+			int nCachedPages, //
+			int branchFactor, //
+			boolean isCompact) {
 		this.keySerializer = ser.nullable(keySerializer);
 		this.valueSerializer = valueSerializer;
+		this.nCachedPages = nCachedPages;
+		this.branchFactor = branchFactor;
+		this.isCompact = isCompact;
 	}
 
 	public B_Tree<Key, Value> build(PageFile f, int nPages, Comparator<Key> cmp) {
+		return build_(f, nPages, cmp);
+	}
+
+	/**
+	 * Builds a new B-tree from key-value pairs sorted in ascending key order,
+	 * filling each page up to the given fill factor.
+	 */
+	public B_Tree<Key, Value> bulkLoad( //
+			PageFile f, //
+			int nPages, //
+			Comparator<Key> cmp, //
+			Streamlet<Pair<Key, Value>> pairs, //
+			float fillFactor) {
+		var b_tree = build_(f, nPages, cmp);
+		b_tree.bulkLoad(pairs, fillFactor);
+		return b_tree;
+	}
+
+	private B_TreeImpl<Key, Value> build_(PageFile f, int nPages, Comparator<Key> cmp) {
+		if (isConcurrent && 0 < nCachedPages)
+			fail("cannot cache pages of concurrent B-trees");
+
 		var nSuperblockPages = 1;
-		var nAllocatorPages = nPages / pageSize;
+		var nAllocatorPages = max(1, nPages / pageSize);
 
+		// the page area may grow as far as the allocation bitmap could track
 		var p0 = 0;
 		var p1 = p0 + nAllocatorPages;
 		var p2 = p1 + nSuperblockPages;
-		var p3 = p2 + nPages;
+		var p3 = p2 + nAllocatorPages * pageSize * 8;
 		var pfs = FileFactory.subPageFiles(f, p0, p1, p2, p3);
 
 		return FixieArray.of(pfs).map((alf0, sbf0, pf0) -> {
-			var b_tree = new B_TreeImpl<Key, Value>(Comparator.nullsFirst(cmp));
+			var cmp1 = Comparator.nullsFirst(cmp);
+			var b_tree = new B_TreeImpl<Key, Value>(cmp1);
+			var compactLayout = new B_TreeCompactLayout<>(b_tree, cmp1, keySerializer, valueSerializer, isBytewiseKeys);
 
 			var als = ser.bytes(pageSize);
 			var sbs = superblockSerializer(b_tree);
 			var pys = ser.bytes(pageSize);
-			var ps = pageSerializer(b_tree);
+			var ps = isCompact ? compactLayout.serializer() : pageSerializer(b_tree);
 
 			var alf = SerializedFileFactory.serialized(alf0, als);
 			var sbf = SerializedFileFactory.serialized(sbf0, sbs);
 			var pyf = SerializedFileFactory.serialized(pf0, pys);
-			var pf = SerializedFileFactory.serialized(pf0, ps);
+			var pf1 = SerializedFileFactory.serialized(pf0, ps);
+			var pf = 0 < nCachedPages ? SerializedFileFactory.cached(pf1, nCachedPages) : pf1;
 
-			b_tree.setAllocator(new AllocatorImpl(alf));
+			b_tree.setAllocator(new AllocatorImpl(alf, nAllocatorPages));
 			b_tree.setSuperblockPageFile(sbf);
 			b_tree.setPayloadFile(pyf);
 			b_tree.setPageFile(pf);
-			b_tree.setBranchFactor(16);
+			b_tree.setBranchFactor(branchFactor);
+			b_tree.setConcurrent(isConcurrent);
+			if (isCompact)
+				b_tree.setCompactLayout(compactLayout, pf0);
 			return b_tree;
 		});
 	}
 
+	/**
+	 * Builds B-trees that are safe for concurrent readers and writers. Decoded
+	 * pages are modified in place by writers, and thus cannot be cached.
+	 */
+	public void setConcurrent(boolean isConcurrent) {
+		this.isConcurrent = isConcurrent;
+	}
+
+	/**
+	 * Declares that the serialized keys sort as unsigned bytes in the order of the
+	 * comparator, e.g. non-negative integers or strings, so that compact pages are
+	 * searched by comparing bytes instead of decoding keys.
+	 */
+	public void setBytewiseKeys(boolean isBytewiseKeys) {
+		this.isBytewiseKeys = isBytewiseKeys;
+	}
+
 	private Serializer<B_TreeImpl<Key, Value>.Superblock> superblockSerializer(B_TreeImpl<Key, Value> b_tree) {
 		return new Serializer<>() {
 			public B_TreeImpl<Key, Value>.Superblock read(SerInput si) throws IOException {
 				var superblock = b_tree.new Superblock();
 				superblock.root = ser.int_.read(si);
-				return superblock;
+				var version = ser.int_.read(si);
+				return version == formatVersion ? superblock : fail("unsupported B-tree file format version " + version);
 			}
 
 			public void write(SerOutput so, B_TreeImpl<Key, Value>.Superblock value) throws IOException {
 				ser.int_.write(so, value.root);
+				ser.int_.write(so, formatVersion);
 			}
 		};
 	}
@@ -114,6 +200,8 @@ public class B_TreeBuilder<Key, Value> {
 				var pointer = si.readInt();
 				var size = si.readInt();
 				var page = b_tree.new Page(pointer);
+				page.prev = si.readInt();
+				page.next = si.readInt();
 
 				for (var i = 0; i < size; i++) {
 					var key = keySerializer.read(si);
@@ -140,6 +228,8 @@ public class B_TreeBuilder<Key, Value> {
 			public void write(SerOutput so, B_TreeImpl<Key, Value>.Page page) throws IOException {
 				so.writeInt(page.pointer);
 				so.writeInt(page.size());
+				so.writeInt(page.prev);
+				so.writeInt(page.next);
 
 				for (var kp : page) {
 					keySerializer.write(so, kp.key);
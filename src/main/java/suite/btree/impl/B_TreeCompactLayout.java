@@ -0,0 +1,241 @@
+package suite.btree.impl;
+
+import static java.lang.Math.max;
+import static primal.statics.Fail.fail;
+import static primal.statics.Rethrow.ex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import primal.primitive.adt.Bytes;
+import suite.serialize.SerInput;
+import suite.serialize.SerOutput;
+import suite.serialize.Serialize.Serializer;
+import suite.streamlet.As;
+import suite.util.To;
+
+/**
+ * Flat page layout for B-trees.
+ *
+ * A page stores its header, the common prefix of all its serialized keys, and
+ * an offset table pointing to the entries. Each entry keeps only the suffix of
+ * its key after the common prefix. Lookups binary-search the offset table,
+ * decoding the probed keys only, instead of decoding the whole page. If the
+ * serialized keys sort as unsigned bytes in comparator order, the probed keys
+ * are compared as bytes against the serialized search key instead.
+ *
+ * Offsets and lengths are unsigned 16-bit; writing a page larger than 64 KB
+ * fails.
+ *
+ * @author ywsing
+ */
+public class B_TreeCompactLayout<Key, Value> {
+
+	private static char BRANCH = 'I';
+	private static char LEAF = 'L';
+	private static char PAYLOAD = 'P';
+	private static char TERMINAL = 'T';
+
+	private static int headerSize = 4 + 4 + 4 + 2 + 2;
+
+	private B_TreeImpl<Key, Value> b_tree;
+	private Comparator<Key> comparator;
+	private Serializer<Key> keySerializer;
+	private Serializer<Value> valueSerializer;
+	private boolean isBytewiseKeys;
+
+	public B_TreeCompactLayout( //
+			B_TreeImpl<Key, Value> b_tree, //
+			Comparator<Key> comparator, //
+			Serializer<Key> keySerializer, //
+			Serializer<Value> valueSerializer, //
+			boolean isBytewiseKeys) {
+		this.b_tree = b_tree;
+		this.comparator = comparator;
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		this.isBytewiseKeys = isBytewiseKeys;
+	}
+
+	/**
+	 * Finds the entry with the largest key not greater than the given key, or the
+	 * first entry if there is none.
+	 */
+	public B_TreeImpl<Key, Value>.KeyPointer find(Bytes bytes, Key key) {
+		var bs = bytes.bs;
+		var start = bytes.start;
+		var size = u16(bs, start + 12);
+		var prefixLength = u16(bs, start + 14);
+		var prefixStart = start + headerSize;
+		var offsetsStart = prefixStart + prefixLength;
+		var kbs = isBytewiseKeys ? To.bytes(so -> keySerializer.write(so, key)) : null;
+		int i0 = 0, i1 = size;
+
+		// finds the first entry with key greater than the given key
+		while (i0 < i1) {
+			var i = (i0 + i1) >>> 1;
+			var p = start + u16(bs, offsetsStart + i * 2);
+			var c = kbs != null //
+					? compare(bs, prefixStart, prefixLength, p, kbs) //
+					: comparator.compare(readKey(bs, prefixStart, prefixLength, p), key);
+			if (c <= 0)
+				i0 = i + 1;
+			else
+				i1 = i;
+		}
+
+		if (0 < size) {
+			var p = start + u16(bs, offsetsStart + max(0, i0 - 1) * 2);
+			var suffixLength = u16(bs, p);
+			var k = readKey(bs, prefixStart, prefixLength, p);
+			var si = SerInput.of(As.inputStream(bytes.range(p - start + 2 + suffixLength, bytes.size())));
+			return ex(() -> b_tree.new KeyPointer(k, readPointer(si)));
+		} else
+			return null;
+	}
+
+	public Serializer<B_TreeImpl<Key, Value>.Page> serializer() {
+		return new Serializer<>() {
+			public B_TreeImpl<Key, Value>.Page read(SerInput si) throws IOException {
+				var pointer = si.readInt();
+				var page = b_tree.new Page(pointer);
+				page.prev = si.readInt();
+				page.next = si.readInt();
+
+				var size = si.readUnsignedShort();
+				var prefix = new byte[si.readUnsignedShort()];
+				si.readFully(prefix);
+				si.skipBytes(size * 2);
+
+				for (var i = 0; i < size; i++) {
+					var suffix = new byte[si.readUnsignedShort()];
+					si.readFully(suffix);
+					var key = keySerializer.read(SerInput.of(As.inputStream(Bytes.concat(Bytes.of(prefix), Bytes.of(suffix)))));
+					page.add(b_tree.new KeyPointer(key, readPointer(si)));
+				}
+
+				return page;
+			}
+
+			public void write(SerOutput so, B_TreeImpl<Key, Value>.Page page) throws IOException {
+				var size = page.size();
+				var keys = new ArrayList<Bytes>();
+				var entries = new ArrayList<Bytes>();
+
+				for (var kp : page)
+					keys.add(To.bytes(so_ -> keySerializer.write(so_, kp.key)));
+
+				var prefixLength = prefixLength(keys);
+
+				for (var i = 0; i < size; i++) {
+					var key = keys.get(i);
+					var suffix = key.range(prefixLength, key.size());
+					var kp = page.get(i);
+
+					entries.add(To.bytes(so_ -> {
+						so_.writeShort(checkU16(suffix.size()));
+						so_.writeBytes(suffix);
+						writePointer(so_, kp);
+					}));
+				}
+
+				so.writeInt(page.pointer);
+				so.writeInt(page.prev);
+				so.writeInt(page.next);
+				so.writeShort(checkU16(size));
+				so.writeShort(checkU16(prefixLength));
+				so.writeBytes(0 < size ? keys.get(0).range(0, prefixLength) : Bytes.empty);
+
+				var offset = headerSize + prefixLength + size * 2;
+
+				for (var entry : entries) {
+					so.writeShort(checkU16(offset));
+					offset += entry.size();
+				}
+
+				for (var entry : entries)
+					so.writeBytes(entry);
+			}
+		};
+	}
+
+	/**
+	 * Compares the stored key, i.e. the prefix followed by the suffix at p, with
+	 * the serialized key, as unsigned bytes.
+	 */
+	private int compare(byte[] bs, int prefixStart, int prefixLength, int p, Bytes kbs) {
+		var suffixLength = u16(bs, p);
+		var length = prefixLength + suffixLength;
+		var size = kbs.size();
+
+		for (var i = 0; i < length && i < size; i++) {
+			var b = i < prefixLength ? bs[prefixStart + i] : bs[p + 2 + i - prefixLength];
+			var c = Integer.compare(b & 0xFF, kbs.get(i) & 0xFF);
+			if (c != 0)
+				return c;
+		}
+
+		return Integer.compare(length, size);
+	}
+
+	private Key readKey(byte[] bs, int prefixStart, int prefixLength, int p) {
+		var suffixLength = u16(bs, p);
+		var kbs = new byte[prefixLength + suffixLength];
+		System.arraycopy(bs, prefixStart, kbs, 0, prefixLength);
+		System.arraycopy(bs, p + 2, kbs, prefixLength, suffixLength);
+		return ex(() -> keySerializer.read(SerInput.of(As.inputStream(Bytes.of(kbs)))));
+	}
+
+	private B_TreeImpl.Pointer readPointer(SerInput si) throws IOException {
+		var nodeType = si.readChar();
+
+		if (nodeType == BRANCH)
+			return b_tree.new Branch(si.readInt());
+		else if (nodeType == LEAF)
+			return b_tree.new Leaf(valueSerializer.read(si));
+		else if (nodeType == PAYLOAD)
+			return b_tree.new Payload(si.readInt());
+		else if (nodeType == TERMINAL)
+			return b_tree.new Terminal();
+		else
+			return fail();
+	}
+
+	private void writePointer(SerOutput so, B_TreeImpl<Key, Value>.KeyPointer kp) throws IOException {
+		if (kp.pointer instanceof B_TreeImpl.Branch) {
+			so.writeChar(BRANCH);
+			so.writeInt(kp.branchPointer());
+		} else if (kp.pointer instanceof B_TreeImpl.Leaf) {
+			so.writeChar(LEAF);
+			valueSerializer.write(so, kp.leafValue());
+		} else if (kp.pointer instanceof B_TreeImpl.Payload) {
+			so.writeChar(PAYLOAD);
+			so.writeInt(kp.payloadPointer());
+		} else if (kp.pointer instanceof B_TreeImpl.Terminal)
+			so.writeChar(TERMINAL);
+		else
+			fail();
+	}
+
+	private int prefixLength(List<Bytes> keys) {
+		var length = !keys.isEmpty() ? keys.get(0).size() : 0;
+		for (var key : keys) {
+			var l = 0;
+			while (l < length && l < key.size() && key.get(l) == keys.get(0).get(l))
+				l++;
+			length = l;
+		}
+		return length;
+	}
+
+	private int checkU16(int i) {
+		return i <= 0xFFFF ? i : fail("page too large for the compact layout");
+	}
+
+	private int u16(byte[] bs, int p) {
+		return (bs[p] & 0xFF) << 8 | bs[p + 1] & 0xFF;
+	}
+
+}
@@ -1,21 +1,34 @@
 package suite.btree.impl;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static primal.statics.Fail.fail;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import primal.MoreVerbs.Read;
 import primal.Verbs.Equals;
 import primal.adt.Pair;
+import primal.fp.Funs.Source;
 import primal.primitive.adt.Bytes;
 import primal.streamlet.Streamlet;
 import suite.btree.B_Tree;
 import suite.file.PageAllocator;
+import suite.file.PageFile;
 import suite.file.SerializedPageFile;
 
 /**
@@ -25,6 +38,8 @@ import suite.file.SerializedPageFile;
  */
 public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 
+	public static int NIL = -1;
+
 	private int branchFactor;
 	private PageAllocator allocator;
 	private SerializedPageFile<Superblock> superblockFile;
@@ -32,13 +47,65 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 	private SerializedPageFile<Page> pageFile;
 	private Comparator<Key> comparator;
 
+	// searches raw pages if set
+	private B_TreeCompactLayout<Key, Value> compactLayout;
+	private PageFile rawPageFile;
+
+	// page latches for concurrent access; null if single-threaded
+	private Latches latches;
+
+	private enum Latch {
+		SHARED, INSERT, DELETE,
+	}
+
+	/**
+	 * Readers couple shared latches from the superblock down to the leaf. Writers
+	 * serialize among themselves, and hold exclusive latches on the pages they
+	 * may modify, releasing the ancestors of a page that would not split or
+	 * underflow. A latch is dropped from the table when its last holder or
+	 * waiter releases it.
+	 */
+	private class Latches {
+		private Map<Integer, PageLatch> pageLatches = new ConcurrentHashMap<>();
+		private Lock writer = new ReentrantLock();
+
+		private class PageLatch {
+			private ReadWriteLock rwl = new ReentrantReadWriteLock();
+			private int nUsers; // changed only while the table entry is computed
+		}
+
+		/**
+		 * @return the action releasing the latch.
+		 */
+		private Runnable lock(int pointer, boolean isExclusive) {
+			var pageLatch = pageLatches.compute(pointer, (pointer_, pl) -> {
+				pl = pl != null ? pl : new PageLatch();
+				pl.nUsers++;
+				return pl;
+			});
+
+			var lock = isExclusive ? pageLatch.rwl.writeLock() : pageLatch.rwl.readLock();
+			lock.lock();
+
+			return () -> {
+				lock.unlock();
+				pageLatches.computeIfPresent(pointer, (pointer_, pl) -> 0 < --pl.nUsers ? pl : null);
+			};
+		}
+	}
+
 	public class Superblock {
 		public int root;
 	}
 
+	/**
+	 * A page is linked to its left and right siblings of the same level.
+	 */
 	public class Page extends ArrayList<KeyPointer> {
 		private static final long serialVersionUID = 1l;
 		public int pointer;
+		public int prev = NIL;
+		public int next = NIL;
 
 		public Page(int pointer) {
 			this.pointer = pointer;
@@ -130,23 +197,201 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 		}
 	}
 
+	private class BulkLevel {
+		private List<KeyPointer> kps = new ArrayList<>();
+		private int nPages;
+		private int pointer = NIL;
+		private int prev = NIL;
+	}
+
+	/**
+	 * In concurrent mode, a cursor holds at most one latch at a time, so that it
+	 * could not wait in a cycle with a writer latching the siblings of a page it
+	 * modifies. A move reloads the current page under its latch, since the copy
+	 * at hand may be stale, then latches the sibling, and checks that the
+	 * sibling still links back; if not, a split or merge has happened in
+	 * between and the move is tried again. Keys already passed in the direction
+	 * of the scan are skipped, as a split or merge may have moved them into the
+	 * sibling.
+	 */
+	private class Cursor_ implements Cursor<Key, Value> {
+		private int nPrefetches;
+		private Deque<CompletableFuture<Page>> prefetches = new ArrayDeque<>();
+		private Page page;
+		private int index;
+		private Key last;
+		private boolean isBackward;
+
+		private Cursor_(int nPrefetches) {
+			this.nPrefetches = latches == null ? nPrefetches : 0;
+		}
+
+		public void seek(Key key) {
+			var t = new Traverse(key);
+			page = t.page;
+			index = t.index;
+			last = null;
+			isBackward = false;
+			if (t.kp != null && comparator.compare(t.kp.key, key) < 0)
+				index++;
+			prefetches.clear();
+		}
+
+		public Pair<Key, Value> next() {
+			return pair(nextKeyPointer());
+		}
+
+		public Pair<Key, Value> prev() {
+			return pair(prevKeyPointer());
+		}
+
+		private KeyPointer nextKeyPointer() {
+			if (isBackward) {
+				last = null;
+				isBackward = false;
+			}
+
+			KeyPointer kp;
+			do {
+				while (page.size() <= index && page.next != NIL) {
+					page = forward();
+					index = 0;
+				}
+				kp = index < page.size() ? page.get(index++) : null;
+			} while (kp != null && (kp.key == null || isPassed(kp.key)));
+			if (kp != null && latches != null)
+				last = kp.key;
+			return kp;
+		}
+
+		private KeyPointer prevKeyPointer() {
+			prefetches.clear();
+
+			if (!isBackward) {
+				last = null;
+				isBackward = true;
+			}
+
+			KeyPointer kp;
+			do {
+				while (index <= 0 && page.prev != NIL) {
+					page = latches != null ? sibling(false) : loadPage(page.prev);
+					index = page.size();
+				}
+				kp = 0 < index ? page.get(--index) : null;
+			} while (kp != null && kp.key != null && isPassed(kp.key));
+			if (kp != null && kp.key != null && latches != null)
+				last = kp.key;
+			return kp != null && kp.key != null ? kp : null;
+		}
+
+		/**
+		 * Moves to the next sibling, keeping up to nPrefetches pages after it being
+		 * loaded in background.
+		 */
+		private Page forward() {
+			if (latches != null)
+				return sibling(true);
+
+			var future = prefetches.pollFirst();
+			var page1 = future != null ? future.join() : loadPage(page.next);
+			var last = !prefetches.isEmpty() ? prefetches.peekLast() : CompletableFuture.completedFuture(page1);
+
+			while (prefetches.size() < nPrefetches)
+				prefetches.addLast(last = last.thenApplyAsync(p -> p != null && p.next != NIL ? loadPage(p.next) : null));
+
+			return page1;
+		}
+
+		/**
+		 * @return the sibling, or the reloaded current page if it no longer has one.
+		 */
+		private Page sibling(boolean isNext) {
+			var pointer0 = NIL;
+
+			while (true) {
+				var page0 = latchedPage(page.pointer);
+				var pointer1 = isNext ? page0.next : page0.prev;
+
+				if (pointer1 != NIL) {
+					var page1 = latchedPage(pointer1);
+
+					// the current page is merged away if it still links to the same
+					// sibling, which no longer links back
+					if ((isNext ? page1.prev : page1.next) == page0.pointer || pointer1 == pointer0)
+						return page1;
+					else
+						pointer0 = pointer1;
+				} else
+					return page0;
+			}
+		}
+
+		private Page latchedPage(int pointer) {
+			var unlatch = latches.lock(pointer, false);
+			try {
+				return loadPage(pointer);
+			} finally {
+				unlatch.run();
+			}
+		}
+
+		private boolean isPassed(Key key) {
+			return last != null && (isBackward ? comparator.compare(last, key) <= 0 : comparator.compare(key, last) <= 0);
+		}
+
+		private Pair<Key, Value> pair(KeyPointer kp) {
+			return kp != null ? Pair.of(kp.key, kp.pointer instanceof B_TreeImpl.Leaf ? kp.leafValue() : null) : null;
+		}
+	}
+
 	private class Traverse {
 		private Slots traverse = new Slots();
+		private Deque<Runnable> unlatches = new ArrayDeque<>();
 		private Page page;
 		private int index;
 		private KeyPointer kp;
 
 		private Traverse(Key key) {
+			this(key, Latch.SHARED);
+		}
+
+		private Traverse(Key key, Latch latch) {
+			latch(NIL, latch); // protects the root pointer
 			Integer pointer = root();
 
 			while (pointer != null) {
+				latch(pointer, latch);
 				page = pageFile.load(pointer);
 				index = findPosition(page, key, true);
 				kp = page.keyPointer(index);
 				traverse.push(new Slot(page, index));
 
+				if (isSafe(page, latch))
+					while (1 < unlatches.size())
+						unlatches.removeLast().run();
+
 				pointer = kp != null && kp.pointer instanceof B_TreeImpl.Branch ? kp.branchPointer() : null;
 			}
+
+			// loaded pages are private copies
+			if (latch == Latch.SHARED)
+				unlatch();
+		}
+
+		private Page load(int pointer) {
+			latch(pointer, Latch.DELETE);
+			return loadPage(pointer);
+		}
+
+		private void latch(int pointer, Latch latch) {
+			if (latches != null)
+				unlatches.push(latches.lock(pointer, latch != Latch.SHARED));
+		}
+
+		private void unlatch() {
+			while (!unlatches.isEmpty())
+				unlatches.pop().run();
 		}
 	}
 
@@ -168,6 +413,69 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 		newRoot(List.of(new KeyPointer(null, new Terminal())));
 	}
 
+	/**
+	 * Creates the tree from key-value pairs in ascending key order. Pages are
+	 * filled bottom-up up to the given fill factor, and each is written once.
+	 */
+	public void bulkLoad(Streamlet<Pair<Key, Value>> pairs, float fillFactor) {
+		var half = branchFactor / 2;
+		var size = max(half, min(branchFactor, (int) (branchFactor * fillFactor)));
+		var levels = new ArrayList<BulkLevel>();
+		Key key0 = null;
+
+		allocator.create();
+		bulkAdd(levels, 0, new KeyPointer(null, new Terminal()), size);
+
+		for (var pair : pairs) {
+			var key = pair.k;
+			if (key0 == null || comparator.compare(key0, key) < 0)
+				bulkAdd(levels, 0, new KeyPointer(key0 = key, new Leaf(pair.v)), size);
+			else
+				fail("keys are not in ascending order");
+		}
+
+		for (var i = 0; i < levels.size(); i++) {
+			var kps = levels.get(i).kps;
+			var size_ = kps.size();
+
+			if (i == levels.size() - 1 && levels.get(i).nPages == 0 && size_ <= branchFactor)
+				newRoot(kps);
+			else if (branchFactor < size_) { // splits remainder into two pages
+				bulkSave(levels, i, kps.subList(0, size_ / 2), size, false);
+				bulkSave(levels, i, kps.subList(size_ / 2, size_), size, true);
+			} else
+				bulkSave(levels, i, kps, size, true);
+		}
+	}
+
+	private void bulkAdd(List<BulkLevel> levels, int i, KeyPointer kp, int size) {
+		if (levels.size() <= i)
+			levels.add(new BulkLevel());
+
+		var kps = levels.get(i).kps;
+		kps.add(kp);
+
+		// keeps a page in hand, so that the last page would not underflow
+		if (size * 2 <= kps.size()) {
+			var kps0 = kps.subList(0, size);
+			bulkSave(levels, i, new ArrayList<>(kps0), size, false);
+			kps0.clear();
+		}
+	}
+
+	private void bulkSave(List<BulkLevel> levels, int i, List<KeyPointer> kps, int size, boolean isLast) {
+		var level = levels.get(i);
+		var page = new Page(level.pointer != NIL ? level.pointer : allocator.allocate(), kps);
+
+		// allocates the right sibling in advance to link to it
+		page.prev = level.prev;
+		page.next = level.pointer = !isLast ? allocator.allocate() : NIL;
+		level.prev = page.pointer;
+		level.nPages++;
+		saveNewPage(page);
+		bulkAdd(levels, i + 1, pointerTo(page), size);
+	}
+
 	@Override
 	public Value get(Key key) {
 		var kp = loadKeyPointer(key);
@@ -186,10 +494,38 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 	}
 
 	private KeyPointer loadKeyPointer(Key key) {
-		var kp = new Traverse(key).kp;
+		var kp = compactLayout != null ? find(key) : new Traverse(key).kp;
 		return kp != null && Equals.ab(kp.key, key) ? kp : null;
 	}
 
+	private KeyPointer find(Key key) {
+		var lock0 = latches != null ? latches.lock(NIL, false) : null;
+		Integer pointer = root();
+		KeyPointer kp = null;
+
+		while (pointer != null) {
+			var lock1 = latches != null ? latches.lock(pointer, false) : null;
+			if (lock0 != null)
+				lock0.run();
+			lock0 = lock1;
+
+			kp = compactLayout.find(rawPageFile.load(pointer), key);
+			pointer = kp != null && kp.pointer instanceof B_TreeImpl.Branch ? kp.branchPointer() : null;
+		}
+
+		if (lock0 != null)
+			lock0.run();
+
+		return kp;
+	}
+
+	@Override
+	public Cursor<Key, Value> cursor(int nPrefetches) {
+		var cursor = new Cursor_(nPrefetches);
+		cursor.seek(null);
+		return cursor;
+	}
+
 	@Override
 	public Streamlet<Key> keys(Key key0, Key key1) {
 		return stream(key0, key1).map(kp -> kp != null ? kp.key : null);
@@ -200,24 +536,23 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 		return stream(key0, key1).map(kp -> kp != null ? Pair.of(kp.key, kp.leafValue()) : null);
 	}
 
+	/**
+	 * Scans along leaf sibling links, from the first key not less than start,
+	 * up to but excluding end.
+	 */
 	private Streamlet<KeyPointer> stream(Key start, Key end) {
-		return stream_(root(), start, end).drop(1);
-	}
+		return Read.from(() -> new Source<KeyPointer>() {
+			private Cursor_ cursor = new Cursor_(0);
 
-	private Streamlet<KeyPointer> stream_(Integer pointer, Key start, Key end) {
-		var page = pageFile.load(pointer);
-		var i0 = start != null ? findPosition(page, start, false) : 0;
-		var i1 = end != null ? findPosition(page, end, false) + 1 : page.size();
+			{
+				cursor.seek(start);
+			}
 
-		if (i0 < i1)
-			return Read.from(page.subList(i0, i1)).concatMap(kp -> {
-				if (kp.pointer instanceof B_TreeImpl.Branch)
-					return stream_(kp.branchPointer(), start, end);
-				else
-					return Read.each(kp);
-			});
-		else
-			return Read.empty();
+			public KeyPointer g() {
+				var kp = cursor.nextKeyPointer();
+				return kp != null && (end == null || comparator.compare(kp.key, end) < 0) ? kp : null;
+			}
+		});
 	}
 
 	@Override
@@ -238,18 +573,25 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 	}
 
 	private void put(Key key, Pointer pointer) {
-		var t = new Traverse(key);
-		var kp = t.kp;
-
-		if (kp != null && Equals.ab(kp.key, key)) {
-			discard(kp);
-			kp.pointer = pointer; // replace existing value
-			saveOldPage(t.page);
-		} else
-			addAndSplit(t.traverse, new KeyPointer(key, pointer));
+		write(() -> {
+			var t = new Traverse(key, Latch.INSERT);
+			var kp = t.kp;
+
+			try {
+				if (kp != null && Equals.ab(kp.key, key)) {
+					discard(kp);
+					kp.pointer = pointer; // replace existing value
+					saveOldPage(t.page);
+				} else
+					addAndSplit(t, new KeyPointer(key, pointer));
+			} finally {
+				t.unlatch();
+			}
+		});
 	}
 
-	private void addAndSplit(Slots slots, KeyPointer toInsert) {
+	private void addAndSplit(Traverse t, KeyPointer toInsert) {
+		var slots = t.traverse;
 		var half = branchFactor / 2;
 		boolean done;
 
@@ -266,8 +608,13 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 				int pointer0 = page.pointer, pointer1 = allocator.allocate();
 				var p0 = new Page(pointer0, page.subList(0, half));
 				var p1 = new Page(pointer1, page.subList(half, size));
+				p0.prev = page.prev;
+				p0.next = pointer1;
+				p1.prev = pointer0;
+				p1.next = page.next;
 				saveOldPage(p0);
 				saveNewPage(p1);
+				relinkPrev(t, p1.next, pointer1);
 
 				toInsert = pointerTo(p1); // propagates to parent
 
@@ -302,9 +649,19 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 
 	@Override
 	public void remove(Key key) {
+		write(() -> {
+			var t = new Traverse(key, Latch.DELETE);
+			try {
+				remove(t, key);
+			} finally {
+				t.unlatch();
+			}
+		});
+	}
+
+	private void remove(Traverse t, Key key) {
 		var half = branchFactor / 2;
 		var root = root();
-		var t = new Traverse(key);
 		var slots = t.traverse;
 
 		// remove the entry
@@ -326,8 +683,8 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 			page = slot.page;
 			index = slot.index;
 
-			var lp = loadBranch(page, index - 1);
-			var rp = loadBranch(page, index + 1);
+			var lp = loadBranch(t, page, index - 1);
+			var rp = loadBranch(t, page, index + 1);
 			var lsize = lp != null ? lp.size() : 0;
 			var rsize = rp != null ? rp.size() : 0;
 
@@ -339,7 +696,7 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 					saveOldPage(lp);
 					page.set(index, pointerTo(mp));
 				} else
-					merge(page, lp, mp, index - 1);
+					merge(t, page, lp, mp, index - 1);
 			else if (lsize <= rsize && rsize != 0)
 				if (half < rsize) { // shift
 					var out = rp.remove(0);
@@ -348,7 +705,7 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 					saveOldPage(rp);
 					page.set(index + 1, pointerTo(rp));
 				} else
-					merge(page, mp, rp, index);
+					merge(t, page, mp, rp, index);
 			else if (slots.size() == 0) {
 
 				// left/right node empty, should only happen at root node
@@ -369,9 +726,11 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 	 * p0 and p1 are branches of parent. p0 is located in slot 'index' of parent,
 	 * while p1 is in next.
 	 */
-	private void merge(Page parent, Page p0, Page p1, int index) {
+	private void merge(Traverse t, Page parent, Page p0, Page p1, int index) {
 		p0.addAll(p1);
+		p0.next = p1.next;
 		saveOldPage(p0);
+		relinkPrev(t, p1.next, p0.pointer);
 		allocator.deallocate(p1.pointer);
 		parent.remove(index + 1);
 	}
@@ -400,9 +759,37 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 			allocator.deallocate(kp.payloadPointer());
 	}
 
-	private Page loadBranch(Page page, int index) {
+	private void relinkPrev(Traverse t, int pointer, int prev) {
+		if (pointer != NIL) {
+			var page = t.load(pointer);
+			page.prev = prev;
+			saveOldPage(page);
+		}
+	}
+
+	private Page loadBranch(Traverse t, Page page, int index) {
 		var kp = page.keyPointer(index);
-		return kp != null && kp.pointer instanceof B_TreeImpl.Branch ? loadPage(kp.branchPointer()) : null;
+		return kp != null && kp.pointer instanceof B_TreeImpl.Branch ? t.load(kp.branchPointer()) : null;
+	}
+
+	private boolean isSafe(Page page, Latch latch) {
+		return switch (latch) {
+		case SHARED -> true;
+		case INSERT -> page.size() < branchFactor;
+		case DELETE -> branchFactor / 2 < page.size();
+		};
+	}
+
+	private void write(Runnable runnable) {
+		if (latches != null) {
+			latches.writer.lock();
+			try {
+				runnable.run();
+			} finally {
+				latches.writer.unlock();
+			}
+		} else
+			runnable.run();
 	}
 
 	private Page loadPage(int pointer) {
@@ -465,6 +852,15 @@ public class B_TreeImpl<Key, Value> implements B_Tree<Key, Value> {
 		this.pageFile = pageFile;
 	}
 
+	public void setConcurrent(boolean isConcurrent) {
+		latches = isConcurrent ? new Latches() : null;
+	}
+
+	public void setCompactLayout(B_TreeCompactLayout<Key, Value> compactLayout, PageFile rawPageFile) {
+		this.compactLayout = compactLayout;
+		this.rawPageFile = rawPageFile;
+	}
+
 	public void setComparator(Comparator<Key> comparator) {
 		this.comparator = comparator;
 	}
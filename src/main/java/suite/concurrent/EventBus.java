@@ -1,40 +1,130 @@
 package suite.concurrent;
 
 import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import primal.fp.Funs.Fun;
 import primal.fp.Funs.Sink;
+import primal.os.Log_;
 
+/**
+ * Dispatches events to handlers by topic. Each topic is hashed to one of a
+ * fixed set of shards, each shard being a thread draining its own ring queue;
+ * thus the events of a topic are handled one at a time, in the order they are
+ * published.
+ *
+ * Publishing never blocks. When the ring queue of a shard is full, the event
+ * is rejected and the publisher decides whether to retry, drop or slow down.
+ *
+ * @author ywsing
+ */
 public class EventBus {
 
-	private static ScheduledExecutorService executor = Executors.newScheduledThreadPool(8);
+	private static Shard[] shards = new Shard[Runtime.getRuntime().availableProcessors()];
+
+	static {
+		for (var i = 0; i < shards.length; i++)
+			shards[i] = new Shard(i);
+	}
 
 	private Map<String, Fun<Object, Object>> handlers = new ConcurrentHashMap<>();
 
+	private static class Shard {
+		private RingQueue<Runnable> queue = new RingQueue<>(4096);
+		private ArrayDeque<Runnable> pendings = new ArrayDeque<>();
+		private Thread thread;
+
+		private Shard(int i) {
+			thread = new Thread(this::run, "event-bus-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private boolean execute(Runnable runnable) {
+			// events published by handlers on this shard are queued locally, so
+			// that they are never rejected by a ring their own shard is draining
+			if (Thread.currentThread() == thread)
+				return pendings.add(runnable);
+			else
+				return queue.offer(runnable);
+		}
+
+		private void run() {
+			while (true) {
+				run(queue.take());
+
+				Runnable runnable;
+				while ((runnable = pendings.poll()) != null)
+					run(runnable);
+			}
+		}
+
+		private void run(Runnable runnable) {
+			try {
+				runnable.run();
+			} catch (Exception ex) {
+				Log_.error(ex);
+			}
+		}
+	}
+
 	public Closeable handle(String eb, Fun<Object, Object> fun) {
 		handlers.put(eb, fun);
 		return () -> handlers.remove(eb);
 	}
 
+	/**
+	 * Sends a request to the handler of a topic. The future fails with
+	 * RejectedExecutionException if the shard is full.
+	 *
+	 * A handler must not wait on the future of a request to a topic of its
+	 * own shard, by get(); that request runs only after the handler returns.
+	 * Listen to the future by handle() instead.
+	 */
 	public Fut<Object> rr(String eb, Object request) {
 		var handler = handlers.get(eb);
 
-		return Fut.of(fut -> executor.execute(() -> {
-			try {
-				fut.complete(handler.apply(request));
-			} catch (Exception ex) {
-				fut.error(ex);
-			}
-		}));
+		return Fut.of(fut -> {
+			var isAccepted = shard(eb).execute(() -> {
+				try {
+					fut.complete(handler.apply(request));
+				} catch (Exception ex) {
+					fut.error(ex);
+				}
+			});
+
+			if (!isAccepted)
+				fut.error(new RejectedExecutionException("event bus shard is full"));
+		});
 	}
 
-	public void publish(String eb, Object request) {
+	/**
+	 * @return false if the shard is full and the event is rejected.
+	 */
+	public boolean publish(String eb, Object request) {
 		var handler = handlers.get(eb);
-		executor.execute(() -> handler.apply(request));
+		return shard(eb).execute(() -> handler.apply(request));
+	}
+
+	/**
+	 * Publishes a batch of events to a topic, taking a single queue slot.
+	 *
+	 * @return false if the shard is full and the batch is rejected.
+	 */
+	public boolean publishAll(String eb, List<Object> requests) {
+		var handler = handlers.get(eb);
+		return shard(eb).execute(() -> {
+			for (var request : requests)
+				try {
+					handler.apply(request);
+				} catch (Exception ex) {
+					Log_.error(ex);
+				}
+		});
 	}
 
 	public void subscribe(String eb, Sink<Object> sink) {
@@ -44,4 +134,9 @@ public class EventBus {
 		});
 	}
 
+	private Shard shard(String eb) {
+		var h = eb.hashCode();
+		return shards[Math.floorMod(h ^ h >>> 16, shards.length)];
+	}
+
 }
@@ -1,42 +1,123 @@
 package suite.concurrent;
 
-import java.util.ArrayDeque;
-import java.util.Arrays;
-import java.util.Deque;
+import static primal.statics.Fail.fail;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import primal.adt.Mutable;
 import primal.fp.Funs.Fun;
 
+/**
+ * Fixed set of objects lent out to one borrower at a time. Each object carries
+ * a borrowed flag which borrowers compete on by compare-and-set. A thread
+ * first tries the object it borrowed last, which is usually still free and
+ * still in its cache; otherwise it waits for one in a ring queue of returned
+ * objects.
+ *
+ * An object taken back by its last borrower may still be in the ring; those
+ * who dequeue it then find it borrowed, and skip it. The queued flag keeps an
+ * object in the ring at most once, so that the ring never overflows.
+ *
+ * @author ywsing
+ */
 public class Pool<T> {
 
-	private Deque<T> availables = new ArrayDeque<>();
-	private Condition condition = new Condition();
+	private RingQueue<Entry> availables;
+	private Map<T, Entry> entryByObject = new IdentityHashMap<>();
+	private ThreadLocal<Entry> affinity = new ThreadLocal<>();
+
+	private class Entry {
+		private T t;
+		private AtomicBoolean isBorrowed = new AtomicBoolean();
+		private AtomicBoolean isQueued = new AtomicBoolean(true);
+
+		private Entry(T t) {
+			this.t = t;
+		}
+	}
 
 	@SafeVarargs
 	public static <T> Pool<T> of(T... ts) {
-		var pool = new Pool<T>();
-		pool.availables.addAll(Arrays.asList(ts));
-		return pool;
+		return new Pool<>(ts);
+	}
+
+	private Pool(T[] ts) {
+		availables = new RingQueue<>(ts.length);
+
+		for (var t : ts) {
+			var entry = new Entry(t);
+			entryByObject.put(t, entry);
+			availables.offer(entry);
+		}
 	}
 
 	public <R> R get(Fun<T, R> fun) {
 		var t_ = get();
-		var r = fun.apply(t_);
-		unget(t_);
-		return r;
+		try {
+			return fun.apply(t_);
+		} finally {
+			unget(t_);
+		}
 	}
 
+	/**
+	 * Borrows an object, waiting until one is returned if all are lent out.
+	 */
 	public T get() {
-		var mut = Mutable.<T> nil();
-		return condition.waitTill( //
-				() -> mut.value() != null, //
-				() -> mut.update(availables.pop()), //
-				mut::value, //
-				Long.MAX_VALUE);
+		var entry = tryAffine();
+
+		while (entry == null)
+			entry = tryBorrow(availables.take());
+
+		return borrow(entry);
+	}
+
+	/**
+	 * Borrows an object, waiting at most the given number of milliseconds.
+	 *
+	 * @return null if none is returned in time.
+	 */
+	public T get(long timeout) {
+		var now = System.currentTimeMillis();
+		var deadline = timeout < Long.MAX_VALUE - now ? now + timeout : Long.MAX_VALUE;
+		var entry = tryAffine();
+		long wait;
+
+		while (entry == null && 0 <= (wait = deadline - System.currentTimeMillis())) {
+			var entry_ = availables.poll(wait);
+			if (entry_ != null)
+				entry = tryBorrow(entry_);
+			else
+				break;
+		}
+
+		return entry != null ? borrow(entry) : null;
 	}
 
 	public void unget(T t) {
-		condition.satisfy(() -> availables.push(t));
+		var entry = entryByObject.get(t);
+
+		if (entry != null && entry.isBorrowed.compareAndSet(true, false)) {
+			if (entry.isQueued.compareAndSet(false, true))
+				availables.offer(entry);
+		} else
+			fail("object is not lent out from this pool");
+	}
+
+	private Entry tryAffine() {
+		var entry = affinity.get();
+		return entry != null && entry.isBorrowed.compareAndSet(false, true) ? entry : null;
+	}
+
+	private Entry tryBorrow(Entry entry) {
+		entry.isQueued.set(false);
+		return entry.isBorrowed.compareAndSet(false, true) ? entry : null;
+	}
+
+	private T borrow(Entry entry) {
+		affinity.set(entry);
+		return entry.t;
 	}
 
 }
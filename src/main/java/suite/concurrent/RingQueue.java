@@ -0,0 +1,161 @@
+package suite.concurrent;
+
+import static java.lang.Math.max;
+import static primal.statics.Fail.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer multi-consumer queue over a ring buffer, after
+ * Vyukov. Each cell carries a sequence number telling whether it is ready to
+ * be written or read at a position; producers and consumers only compete on
+ * their own position index, by compare-and-set.
+ *
+ * @author ywsing
+ */
+public class RingQueue<T> {
+
+	private static int enqueueIndex = 8;
+	private static int dequeueIndex = 24;
+
+	private int mask;
+	private Object[] buffer;
+	private AtomicLongArray sequences;
+
+	// enqueue and dequeue positions, on different cache lines
+	private AtomicLongArray positions = new AtomicLongArray(32);
+
+	private AtomicInteger nWaits = new AtomicInteger();
+	private Object monitor = new Object();
+
+	public RingQueue(int capacity) {
+		var size = Integer.highestOneBit(max(2, capacity) * 2 - 1);
+
+		mask = size - 1;
+		buffer = new Object[size];
+		sequences = new AtomicLongArray(size);
+
+		for (var i = 0; i < size; i++)
+			sequences.set(i, i);
+	}
+
+	/**
+	 * @return false if the queue is full.
+	 */
+	public boolean offer(T t) {
+		var pos = positions.get(enqueueIndex);
+
+		while (true) {
+			var i = (int) pos & mask;
+			var diff = sequences.get(i) - pos;
+
+			if (diff == 0) {
+				if (positions.compareAndSet(enqueueIndex, pos, pos + 1)) {
+					buffer[i] = t;
+					sequences.set(i, pos + 1);
+					signal();
+					return true;
+				}
+			} else if (diff < 0)
+				return false;
+
+			pos = positions.get(enqueueIndex);
+		}
+	}
+
+	/**
+	 * @return null if the queue is empty.
+	 */
+	public T poll() {
+		var pos = positions.get(dequeueIndex);
+
+		while (true) {
+			var i = (int) pos & mask;
+			var diff = sequences.get(i) - (pos + 1);
+
+			if (diff == 0) {
+				if (positions.compareAndSet(dequeueIndex, pos, pos + 1)) {
+					@SuppressWarnings("unchecked")
+					var t = (T) buffer[i];
+					buffer[i] = null;
+					sequences.set(i, pos + mask + 1);
+					signal();
+					return t;
+				}
+			} else if (diff < 0)
+				return null;
+
+			pos = positions.get(dequeueIndex);
+		}
+	}
+
+	/**
+	 * Dequeues, waiting at most the given number of milliseconds while the
+	 * queue is empty.
+	 *
+	 * @return null if nothing is enqueued in time.
+	 */
+	public T poll(long timeout) {
+		var now = System.currentTimeMillis();
+		var deadline = timeout < Long.MAX_VALUE - now ? now + timeout : Long.MAX_VALUE;
+		T t;
+		long wait;
+
+		while ((t = poll()) == null && 0 < (wait = deadline - System.currentTimeMillis()))
+			await(() -> !isEmpty(), wait);
+
+		return t;
+	}
+
+	/**
+	 * Enqueues, waiting while the queue is full.
+	 */
+	public void put(T t) {
+		while (!offer(t))
+			await(() -> !isFull(), 0);
+	}
+
+	/**
+	 * Dequeues, waiting while the queue is empty.
+	 */
+	public T take() {
+		T t;
+		while ((t = poll()) == null)
+			await(() -> !isEmpty(), 0);
+		return t;
+	}
+
+	public boolean isEmpty() {
+		return positions.get(enqueueIndex) <= positions.get(dequeueIndex);
+	}
+
+	public boolean isFull() {
+		return mask < positions.get(enqueueIndex) - positions.get(dequeueIndex);
+	}
+
+	// waits for a signal, or for the given milliseconds if positive
+	private void await(Condition.Cond cond, long wait) {
+		nWaits.incrementAndGet();
+
+		try {
+			synchronized (monitor) {
+				if (!cond.ok())
+					monitor.wait(wait);
+			}
+		} catch (InterruptedException ex) {
+			fail(ex);
+		} finally {
+			nWaits.decrementAndGet();
+		}
+	}
+
+	// wakes up the waiters, who announced themselves before checking again
+	private void signal() {
+		if (0 < nWaits.get())
+			synchronized (monitor) {
+				monitor.notifyAll();
+			}
+	}
+
+}
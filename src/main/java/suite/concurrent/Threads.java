@@ -1,164 +1,155 @@
 package suite.concurrent;
 
-import static suite.util.Streamlet_.forInt;
-
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Map;
-
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import primal.Verbs.New;
 import primal.Verbs.RunnableEx;
-import primal.Verbs.Sleep;
-import primal.Verbs.Start;
-import primal.fp.Funs.Sink;
 import primal.os.Log_;
-import suite.concurrent.Condition.Cond;
 
+/**
+ * Work-stealing thread pool. Each worker pushes the tasks it spawns to its own
+ * deque and pops them back without locking; a worker running out of tasks
+ * steals from a random victim, and parks if there is none to steal.
+ *
+ * Tasks executed from outside the pool are put to a shared queue.
+ *
+ * @author ywsing
+ */
 public class Threads implements AutoCloseable {
 
-	// if thread A is has a queue shorter than first threshold
-	// and B has a queue longer than second threshold
-	// then A can steal from B
-	private static int stealThreshold0 = 0;
-	private static int stealThreshold1 = 128;
-
-	private static int BORED__ = 0;
-	private static int ATWORK_ = 1;
-	private static int TOOMUCH = 2;
-	private static int STOPPED = 3;
-
-	private Map<Thread, ThreadData> threadDataByThread = new HashMap<>();
+	private Worker[] workers;
+	private Queue<RunnableEx> submissions = new ConcurrentLinkedQueue<>();
+	private ThreadLocal<Worker> worker = new ThreadLocal<>();
+	private AtomicInteger nParks = new AtomicInteger();
+	private volatile boolean isRunning = true;
+
+	private class Worker {
+		private WorkStealingDeque<RunnableEx> deque = new WorkStealingDeque<>();
+		private AtomicBoolean isParked = new AtomicBoolean();
+		private Thread thread;
+
+		private void run() {
+			worker.set(this);
+			RunnableEx runnable;
+
+			while ((runnable = find()) != null || isRunning)
+				if (runnable != null)
+					try {
+						runnable.run();
+					} catch (Exception ex) {
+						Log_.error(ex);
+					}
+				else
+					park();
+		}
 
-	private volatile ThreadData boredThread; // thread with the least workload, i.e. shortest queue
+		private RunnableEx find() {
+			var runnable = deque.pop();
+			if (runnable == null)
+				runnable = submissions.poll();
+			if (runnable == null)
+				runnable = steal();
+			return runnable;
+		}
 
-	private class ThreadData extends Condition {
-		private volatile int state;
-		private Deque<RunnableEx> queue = new ArrayDeque<>();
+		private RunnableEx steal() {
+			var n = workers.length;
+			var start = ThreadLocalRandom.current().nextInt(n);
+			RunnableEx runnable = null;
 
-		private void doQueue(Sink<Deque<RunnableEx>> sink) {
-			lock(() -> {
-				sink.f(queue);
-				updateState();
-			});
+			for (var i = 0; runnable == null && i < n; i++) {
+				var victim = workers[(start + i) % n];
+				if (victim != this)
+					runnable = victim.deque.steal();
+			}
 
-			if (state == TOOMUCH && boredThread.state == BORED__) // shout anyway
-				boredThread.doQueue(queue -> boredThread.notify());
-			// for (var td : threadDataByThread.values()) td.doQueue(queue -> td.notify());
+			return runnable;
 		}
 
-		private void updateState() {
-			var size = queue.size();
-			int state_;
-			if (size <= stealThreshold0)
-				state_ = BORED__;
-			else if (size < stealThreshold1)
-				state_ = ATWORK_;
+		private void park() {
+			isParked.set(true);
+			nParks.incrementAndGet();
+
+			// looks again, after announcing the park, for tasks executed meanwhile
+			if (!isRunning || !isIdle())
+				unpark_();
 			else
-				state_ = TOOMUCH;
+				LockSupport.parkNanos(this, 100_000_000l);
 
-			if (state != state_)
-				state = state_;
+			unpark_();
+		}
 
-			updateBored(this);
+		private void unpark_() {
+			if (isParked.compareAndSet(true, false))
+				nParks.decrementAndGet();
 		}
 	}
 
 	public Threads(int nThreads) {
-		forInt(nThreads).sink(i -> {
-			var td = new ThreadData();
-			var thread = Start.thread(() -> dispatchLoop(td));
-			threadDataByThread.put(thread, td);
-			boredThread = td;
-		});
-	}
-
-	private void dispatchLoop(ThreadData td) {
-		while (td.state != STOPPED) {
-			var cond = new Cond() {
-				private RunnableEx runnable;
-				private ThreadData maxThread;
-
-				public boolean ok() {
-					var b0 = td.state == STOPPED;
-					var b1 = !td.queue.isEmpty();
-
-					if (b1) {
-						runnable = td.queue.removeFirst();
-						td.updateState();
-					}
-
-					if (td.state == BORED__) // hungry
-						for (var td_ : threadDataByThread.values())
-							if (td_.state == TOOMUCH)
-								maxThread = td_;
+		workers = new Worker[nThreads];
 
-					var b2 = maxThread != null;
-
-					return b0 || b1 || b2;
-				}
-			};
+		for (var i = 0; i < nThreads; i++)
+			workers[i] = new Worker();
 
-			td.waitTill(cond);
+		// assigns all threads before any worker could unpark another
+		for (var worker_ : workers)
+			worker_.thread = New.thread(worker_::run);
 
-			var runnable = cond.runnable;
-			var frThread = cond.maxThread; // steal work from another
+		for (var worker_ : workers)
+			worker_.thread.start();
+	}
 
-			if (runnable != null)
-				try {
-					runnable.run();
-				} catch (Exception ex) {
-					Log_.error(ex);
+	public void execute(RunnableEx runnable) {
+		var worker_ = worker.get();
+
+		if (worker_ != null)
+			worker_.deque.push(runnable);
+		else
+			submissions.add(runnable);
+
+		if (0 < nParks.get())
+			for (var worker1 : workers)
+				if (worker1.isParked.compareAndSet(true, false)) {
+					nParks.decrementAndGet();
+					LockSupport.unpark(worker1.thread);
+					break;
 				}
-
-			if (frThread != null && frThread.state == TOOMUCH) {
-				td.satisfy(() -> {
-					if (td.state == BORED__) {
-						var list = new ArrayList<RunnableEx>();
-
-						// steal jobs from the long queue of our thread
-						frThread.doQueue(queue -> {
-							for (var j = 0; j < 32; j++)
-								if (!queue.isEmpty())
-									list.add(queue.removeFirst());
-						});
-
-						// and put them in the thread with the shortest queue
-						list.forEach(td.queue::addLast);
-						td.updateState();
-					}
-				});
-
-				// the shortest / longest queue thread would now belong to another
-				threadDataByThread.values().forEach(this::updateBored);
-			}
-		}
 	}
 
-	public void execute(RunnableEx runnable) {
-		var me = Thread.currentThread();
-		var td0 = threadDataByThread.get(me);
-		var td1 = td0 != null ? td0 : boredThread;
-		td1.satisfy(() -> td1.doQueue(queue -> queue.addLast(runnable)));
+	/**
+	 * @return true if the current thread is a worker of this pool.
+	 */
+	public boolean isWorker() {
+		return worker.get() != null;
 	}
 
+	/**
+	 * Waits for the queued tasks to complete, and stops the workers.
+	 */
 	@Override
 	public void close() {
-		for (var td : threadDataByThread.values())
-			while (td.state != STOPPED) {
-				td.doQueue(queue -> {
-					if (queue.isEmpty()) {
-						td.state = STOPPED;
-						td.notify();
-					}
-				});
-				Sleep.quietly(250l);
+		isRunning = false;
+
+		for (var worker_ : workers) {
+			LockSupport.unpark(worker_.thread);
+			try {
+				worker_.thread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
 			}
+		}
 	}
 
-	private void updateBored(ThreadData td) {
-		if (td.state == BORED__ && boredThread.state != BORED__)
-			boredThread = td;
+	private boolean isIdle() {
+		var b = submissions.isEmpty();
+		for (var worker_ : workers)
+			b &= worker_.deque.isEmpty();
+		return b;
 	}
 
 }
@@ -0,0 +1,93 @@
+package suite.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Chase-Lev work-stealing deque. The owner thread pushes and pops at the
+ * bottom without locking; other threads steal from the top, competing by a
+ * compare-and-set on the top index only.
+ *
+ * @author ywsing
+ */
+public class WorkStealingDeque<T> {
+
+	private AtomicLong top = new AtomicLong();
+	private volatile long bottom;
+	private volatile AtomicReferenceArray<T> array = new AtomicReferenceArray<>(64);
+
+	/**
+	 * Called by the owner only.
+	 */
+	public void push(T t) {
+		var b = bottom;
+		var a = array;
+		var length = a.length();
+
+		if (length - 1 <= b - top.get()) {
+			var a1 = new AtomicReferenceArray<T>(length * 2);
+			for (var i = top.get(); i < b; i++)
+				a1.set(index(a1, i), a.get(index(a, i)));
+			array = a = a1;
+		}
+
+		a.set(index(a, b), t);
+		bottom = b + 1;
+	}
+
+	/**
+	 * Called by the owner only.
+	 */
+	public T pop() {
+		var b = bottom - 1;
+		var a = array;
+		bottom = b; // the volatile write is ordered before reading the top
+
+		var t = top.get();
+		var i = index(a, b);
+		T x;
+
+		// clears the slot taken, so that the deque does not hold on to it
+		if (t < b) {
+			x = a.get(i);
+			a.set(i, null);
+		} else if (t == b) { // the last one; races with the stealers
+			if (top.compareAndSet(t, t + 1)) {
+				x = a.get(i);
+				a.set(i, null);
+			} else
+				x = null;
+			bottom = b + 1;
+		} else {
+			x = null;
+			bottom = b + 1;
+		}
+
+		return x;
+	}
+
+	/**
+	 * @return an element from the top, or null if the deque is empty or another
+	 *         thread won the race.
+	 */
+	public T steal() {
+		var t = top.get();
+		var b = bottom;
+
+		if (t < b) {
+			var a = array;
+			var x = a.get(index(a, t));
+			return top.compareAndSet(t, t + 1) ? x : null;
+		} else
+			return null;
+	}
+
+	public boolean isEmpty() {
+		return bottom <= top.get();
+	}
+
+	private int index(AtomicReferenceArray<T> a, long i) {
+		return (int) (i & a.length() - 1);
+	}
+
+}
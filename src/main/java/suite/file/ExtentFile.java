@@ -8,7 +8,14 @@ import suite.file.ExtentAllocator.Extent;
 
 public interface ExtentFile extends Closeable {
 
-	public static int blockSize = PageFile.defaultPageSize - 12;
+	public static int magic = 0x45585446; // "EXTF"
+	public static int version = 2;
+
+	/**
+	 * Size of the header in the first page of each extent: magic, version,
+	 * start, end and data size.
+	 */
+	public static int headerSize = 4 + 4 + 4 + 4 + 4;
 
 	public void sync();
 
@@ -16,6 +23,12 @@ public interface ExtentFile extends Closeable {
 
 	public void save(Extent extent, Bytes bytes);
 
+	/**
+	 * Zero-fills the pages of the extent, leaving no header; scans step over
+	 * them as free pages.
+	 */
+	public void free(Extent extent);
+
 	public List<Extent> scan(int start, int end);
 
 }
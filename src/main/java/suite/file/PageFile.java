@@ -1,6 +1,7 @@
 package suite.file;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 
 import primal.primitive.adt.Bytes;
 
@@ -12,6 +13,30 @@ public interface PageFile extends Closeable {
 
 	public Bytes load(int pointer);
 
+	/**
+	 * Loads consecutive pages into one contiguous block.
+	 */
+	public default Bytes load(int start, int end) {
+		var pages = new ArrayList<Bytes>();
+		var size = 0;
+
+		for (var pointer = start; pointer < end; pointer++) {
+			var page = load(pointer);
+			pages.add(page);
+			size += page.size();
+		}
+
+		var bs = new byte[size];
+		var p = 0;
+
+		for (var page : pages) {
+			System.arraycopy(page.bs, page.start, bs, p, page.size());
+			p += page.size();
+		}
+
+		return Bytes.of(bs);
+	}
+
 	public void save(int pointer, Bytes bytes);
 
 }
@@ -1,12 +1,12 @@
 package suite.file.impl;
 
 import static java.lang.Math.min;
+import static primal.statics.Fail.fail;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
-import primal.primitive.IntPrim.Int_Obj;
 import primal.primitive.adt.Bytes;
-import primal.primitive.adt.Bytes.BytesBuilder;
 import suite.file.ExtentAllocator;
 import suite.file.PageAllocator;
 import suite.file.PageFile;
@@ -14,17 +14,30 @@ import suite.file.SerializedPageFile;
 
 /**
  * Manage B-tree pages on disk.
+ *
+ * The allocation map is a bitmap, scanned 64 pages a time. Each page of the map
+ * is a segment whose number of free pages is kept, so that full segments are
+ * skipped without scanning.
  */
 public class AllocatorImpl implements PageAllocator, ExtentAllocator {
 
-	private int size = 4096;
 	private int pageSize = PageFile.defaultPageSize;
+	private int nBitsPerSegment = pageSize * 8;
+	private int nWordsPerSegment = pageSize / 8;
 
 	private SerializedPageFile<Bytes> allocMapFile;
+	private int capacity;
+	private int size = 4096; // grows on demand, up to capacity
+	private long[][] segments; // loaded lazily
+	private int[] nFrees;
 	private int lastAllocatedPointer;
 
-	public AllocatorImpl(SerializedPageFile<Bytes> pageFile) {
+	public AllocatorImpl(SerializedPageFile<Bytes> pageFile, int nAllocMapPages) {
 		allocMapFile = pageFile;
+		capacity = nAllocMapPages * nBitsPerSegment;
+		size = min(size, capacity);
+		segments = new long[nAllocMapPages][];
+		nFrees = new int[nAllocMapPages];
 	}
 
 	@Override
@@ -34,7 +47,11 @@ public class AllocatorImpl implements PageAllocator, ExtentAllocator {
 
 	@Override
 	public synchronized void create() {
-		updateAllocMap(0, size, (byte) 0);
+		for (var s = 0; s < segments.length; s++) {
+			segments[s] = new long[nWordsPerSegment];
+			nFrees[s] = nBitsPerSegment;
+			saveSegment(s);
+		}
 	}
 
 	@Override
@@ -44,101 +61,146 @@ public class AllocatorImpl implements PageAllocator, ExtentAllocator {
 
 	@Override
 	public synchronized void deallocate(int pointer) {
-		var count = 1;
-		deallocate_(pointer, count);
+		deallocate_(pointer, pointer + 1);
 	}
 
 	@Override
-	public Extent allocate(int count) {
-		return new Extent(allocate_(count), count);
+	public synchronized Extent allocate(int count) {
+		var pointer = allocate_(count);
+		return new Extent(pointer, pointer + count);
 	}
 
 	@Override
-	public void deallocate(Extent pointer) {
-		deallocate_(pointer.start, pointer.end);
+	public synchronized void deallocate(Extent extent) {
+		deallocate_(extent.start, extent.end);
 	}
 
 	private int allocate_(int count) {
 		var pointer = findFreeExtentPages(count);
-
-		// TODO extends allocation map if all pages are used
-
-		updateAllocMap(pointer, pointer + count, (byte) 1);
-		return lastAllocatedPointer = pointer + count;
+		updateAllocMap(pointer, pointer + count, true);
+		lastAllocatedPointer = pointer + count;
+		return pointer;
 	}
 
 	private void deallocate_(int start, int end) {
-		updateAllocMap(start, end, (byte) 0);
+		updateAllocMap(start, end, false);
 	}
 
 	private int findFreeExtentPages(int count) {
-		var read = new Int_Obj<Byte>() {
-			private int start, end;
-			private Bytes bytes;
-
-			public Byte apply(int pointer) {
-				if (bytes == null || pointer < start || end <= pointer) {
-					var p = pointer / pageSize;
-					start = p * pageSize;
-					end = start + pageSize;
-					bytes = allocMapFile.load(p);
-				}
-				return bytes.get(pointer - start);
-			}
-		};
+		var start = min(lastAllocatedPointer, size);
+		int pointer;
 
-		var start = lastAllocatedPointer + 1;
-		var pos = start;
-		while ((pos = checkNextEmptyExtent(read, pos)) < size) {
-			var pos0 = pos;
-			pos = checkEmptyExtent(read, pos, count);
-			if (count <= pos - pos0)
-				return pos0;
+		if ((pointer = findFreeExtentPages(start, size, count)) < 0)
+			pointer = findFreeExtentPages(0, size, count);
+
+		while (pointer < 0 && size < capacity) {
+			size = min(size * 2, capacity);
+			pointer = findFreeExtentPages(0, size, count);
 		}
-		pos = 0;
-		while ((pos = checkNextEmptyExtent(read, pos)) < start) {
+
+		return 0 <= pointer ? pointer : fail("allocation map is full");
+	}
+
+	private int findFreeExtentPages(int start, int end, int count) {
+		var pos = start;
+		while ((pos = nextClear(pos, end)) < end) {
 			var pos0 = pos;
-			pos = checkEmptyExtent(read, pos, count);
+			pos = nextSet(pos, min(end, pos + count));
 			if (count <= pos - pos0)
 				return pos0;
 		}
 		return -1;
 	}
 
-	private void updateAllocMap(int start, int end, byte b) {
-		while (start < end) {
-			var p = start / pageSize;
-			var s = p * pageSize;
-			var e = s + pageSize;
-			var end_ = min(e, end);
-			var p0 = 0;
-			var p1 = start - s;
-			var p2 = end_ - s;
-			var p3 = pageSize;
-			var bytes = allocMapFile.load(p);
-			var bb = new BytesBuilder();
-
-			bb.append(bytes.range(p0, p1));
-			for (var i = p1; i < p2; i++)
-				bb.append(b);
-			bb.append(bytes.range(p2, p3));
-
-			allocMapFile.save(p, bb.toBytes());
-			start = end_;
+	private int nextClear(int pos, int end) {
+		while (pos < end) {
+			var s = pos / nBitsPerSegment;
+			var p0 = s * nBitsPerSegment;
+
+			var words = segment(s);
+
+			if (nFrees[s] != 0) {
+				var i = pos - p0;
+				var w = i >>> 6;
+				var word = ~words[w] & -1l << (i & 63);
+
+				if (word != 0)
+					return min(end, p0 + (w << 6) + Long.numberOfTrailingZeros(word));
+				else
+					pos = p0 + (w + 1 << 6);
+			} else
+				pos = p0 + nBitsPerSegment;
+		}
+		return end;
+	}
+
+	private int nextSet(int pos, int end) {
+		while (pos < end) {
+			var s = pos / nBitsPerSegment;
+			var p0 = s * nBitsPerSegment;
+
+			var words = segment(s);
+
+			if (nFrees[s] != nBitsPerSegment) {
+				var i = pos - p0;
+				var w = i >>> 6;
+				var word = words[w] & -1l << (i & 63);
+
+				if (word != 0)
+					return min(end, p0 + (w << 6) + Long.numberOfTrailingZeros(word));
+				else
+					pos = p0 + (w + 1 << 6);
+			} else
+				pos = p0 + nBitsPerSegment;
 		}
+		return end;
 	}
 
-	private int checkEmptyExtent(Int_Obj<Byte> read, int pos, int max) {
-		var end = min(size, pos + max);
-		while (pos < end && read.apply(pos) == 0)
-			pos++;
-		return pos;
+	private void updateAllocMap(int start, int end, boolean isAllocated) {
+		var pos = start;
+
+		while (pos < end) {
+			var s = pos / nBitsPerSegment;
+			var p0 = s * nBitsPerSegment;
+			var end_ = min(p0 + nBitsPerSegment, end);
+			var words = segment(s);
+
+			while (pos < end_) {
+				var i = pos - p0;
+				var n = min(end_ - pos, 64 - (i & 63));
+				var mask = (n < 64 ? (1l << n) - 1 : -1l) << (i & 63);
+				var word0 = words[i >>> 6];
+				var word1 = isAllocated ? word0 | mask : word0 & ~mask;
+				nFrees[s] += Long.bitCount(word0) - Long.bitCount(word1);
+				words[i >>> 6] = word1;
+				pos += n;
+			}
+
+			saveSegment(s);
+		}
+	}
+
+	private long[] segment(int s) {
+		var words = segments[s];
+
+		if (words == null) {
+			var nAllocated = 0;
+			words = segments[s] = new long[nWordsPerSegment];
+			ByteBuffer.wrap(allocMapFile.load(s).toArray()).asLongBuffer().get(words);
+
+			for (var word : words)
+				nAllocated += Long.bitCount(word);
+
+			nFrees[s] = nBitsPerSegment - nAllocated;
+		}
+
+		return words;
 	}
 
-	private int checkNextEmptyExtent(Int_Obj<Byte> read, int pos) {
-		while (pos < size && read.apply(pos) == 1)
-			pos++;
-		return pos;
+	private void saveSegment(int s) {
+		var bb = ByteBuffer.allocate(pageSize);
+		bb.asLongBuffer().put(segments[s]);
+		allocMapFile.save(s, Bytes.of(bb.array()));
 	}
 
 }
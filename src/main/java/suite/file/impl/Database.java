@@ -1,11 +1,15 @@
 package suite.file.impl;
 
+import static primal.statics.Rethrow.ex;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 
 import primal.Verbs.Compare;
+import primal.Verbs.Start;
 import primal.fp.Funs.Fun;
+import suite.file.ExtentAllocator.Extent;
 import suite.file.JournalledPageFile;
 import suite.file.PageFile;
 import suite.fs.KeyValueMutator;
@@ -18,39 +22,98 @@ public class Database implements Closeable {
 
 	private Serialize ser = Singleton.me.serialize;
 
+	private int compactIntervalMs = 1000;
+	private int nCompactPages = 256;
+	private int nCompactExtentsPerSlice = 16;
+
 	private JournalledPageFile journalledPageFile;
+	private LazyPbTreeStore.Shared<Extent, Integer, String> store;
 	private TransactionManager<Integer, String> transactionManager;
+	private volatile boolean isOpen = true;
+	private Thread compactor;
 
 	public static Database open(Path path) {
-		return new Database(path, false);
+		return new Database(path, false, -1);
+	}
+
+	/**
+	 * Opens a database whose transactions are durable upon return, with concurrent
+	 * commits grouped within the given window in milliseconds.
+	 */
+	public static Database open(Path path, int commitWindowMs) {
+		return new Database(path, false, commitWindowMs);
 	}
 
 	public static Database openNew(Path path) {
-		return new Database(path, true);
+		return new Database(path, true, -1);
 	}
 
-	private Database(Path path, boolean isCreate) {
-		journalledPageFile = JournalledFileFactory.open(path, PageFile.defaultPageSize, isCreate);
+	private Database(Path path, boolean isCreate, int commitWindowMs) {
+		var pageSize = PageFile.defaultPageSize;
+		var jpf = JournalledFileFactory.open(path, pageSize, isCreate);
 
-		transactionManager = new TransactionManager<>(() -> LazyPbTreeStore.ofExtent( //
+		journalledPageFile = 0 <= commitWindowMs ? JournalledFileFactory.groupCommitted(jpf, commitWindowMs) : jpf;
+
+		store = LazyPbTreeStore.sharedOfExtent( //
 				journalledPageFile, //
+				pageSize, //
 				Compare::objects, //
 				ser.int_, //
-				ser.variableLengthString));
+				ser.variableLengthString);
+
+		// read-only transactions do not wait for the file to be committed
+		transactionManager = new TransactionManager<>(store::open, Compare::objects, () -> store.commit(journalledPageFile::commit));
+
+		// reclaims space in the background, in slices between transactions
+		compactor = Start.thread(() -> {
+			while (await())
+				store.compact(nCompactPages, nCompactExtentsPerSlice);
+		});
 	}
 
 	@Override
 	public void close() throws IOException {
+		// signalled rather than interrupted, as that would close the file channels
+		synchronized (this) {
+			isOpen = false;
+			notifyAll();
+		}
+
+		ex(() -> {
+			compactor.join();
+			return compactor;
+		});
+
+		store.close();
 		journalledPageFile.commit();
 		journalledPageFile.close();
 	}
 
+	/**
+	 * Waits for the next compaction, or for the database being closed.
+	 *
+	 * @return true if still open.
+	 */
+	private synchronized boolean await() {
+		if (isOpen)
+			ex(() -> {
+				wait(compactIntervalMs);
+				return this;
+			});
+		return isOpen;
+	}
+
+	/**
+	 * Runs the callback in a transaction, which reads from a snapshot of the
+	 * database as of its beginning.
+	 *
+	 * Throws suite.concurrent.stm.Concurrent.AbortException if another
+	 * transaction has committed a write to any of the keys written meanwhile.
+	 * Nothing is written then. The callback is not retried, as it may have side
+	 * effects; the caller may run it again.
+	 */
 	public <T> T transact(Fun<KeyValueMutator<Integer, String>, T> callback) {
-		try {
-			return transactionManager.begin(callback);
-		} finally {
-			journalledPageFile.commit();
-		}
+		return transactionManager.begin(callback);
 	}
 
 }
@@ -3,6 +3,7 @@ package suite.file.impl;
 import static primal.statics.Fail.fail;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,45 +12,26 @@ import primal.Verbs.DeleteFile;
 import primal.Verbs.Equals;
 import primal.os.Log_;
 import primal.primitive.adt.Bytes;
-import primal.primitive.adt.Bytes.BytesBuilder;
 import suite.file.ExtentAllocator.Extent;
 import suite.file.ExtentFile;
 import suite.file.PageFile;
-import suite.node.util.Singleton;
-import suite.serialize.SerInput;
-import suite.serialize.SerOutput;
-import suite.serialize.Serialize.Serializer;
 import suite.util.Util;
 
 public class FileFactory {
 
-	private static class Block {
-		private Extent extent;
-		private Bytes bytes;
+	private static int nPagesPerSegment = 1024;
 
-		private Block(Extent extent, Bytes bytes) {
-			this.extent = extent;
-			this.bytes = bytes;
-		}
-	}
-
-	public static ExtentFile extentFile(PageFile pf) {
-		var serialize = Singleton.me.serialize;
-		var extentSerializer = serialize.extent();
-		var bytesSerializer = serialize.variableLengthBytes;
-
-		var pageFile = SerializedFileFactory.serialized(pf, new Serializer<Block>() {
-			public Block read(SerInput si) throws IOException {
-				var extent = extentSerializer.read(si);
-				var bytes = bytesSerializer.read(si);
-				return new Block(extent, bytes);
-			}
-
-			public void write(SerOutput so, Block block) throws IOException {
-				extentSerializer.write(so, block.extent);
-				bytesSerializer.write(so, block.bytes);
-			}
-		});
+	/**
+	 * Extent file storing each extent contiguously, with a header in its first
+	 * page. An extent is loaded by a single read of its pages, and its data are
+	 * returned as a view of the read buffer.
+	 *
+	 * The header starts with a magic number and a format version. Loads of
+	 * extents in other formats, including the earlier one keeping a header in
+	 * every page, fail rather than misread; scans step over such pages.
+	 */
+	public static ExtentFile extentFile(PageFile pageFile, int pageSize) {
+		var headerSize = ExtentFile.headerSize;
 
 		return new ExtentFile() {
 			public void close() throws IOException {
@@ -61,34 +43,71 @@ public class FileFactory {
 			}
 
 			public Bytes load(Extent extent) {
-				var bb = new BytesBuilder();
-				for (var pointer = extent.start; pointer < extent.end; pointer++) {
-					var block = pageFile.load(pointer);
-					Util.assert_(Equals.ab(block.extent, extent));
-					bb.append(block.bytes);
-				}
-				return bb.toBytes();
+				var bytes = pageFile.load(extent.start, extent.end);
+				var bb = header(bytes);
+				var extent_ = new Extent(bb.getInt(), bb.getInt());
+				var size = bb.getInt();
+				Util.assert_(Equals.ab(extent_, extent));
+				return bytes.range(headerSize, headerSize + size);
 			}
 
 			public void save(Extent extent, Bytes bytes) {
-				for (int pointer = extent.start, p = 0; pointer < extent.end; pointer++) {
-					var p1 = p + blockSize;
-					pageFile.save(pointer, new Block(extent, bytes.range(p, p1)));
-					p = p1;
+				var size = bytes.size();
+				var bs = new byte[(extent.end - extent.start) * pageSize];
+				Util.assert_(headerSize + size <= bs.length);
+
+				ByteBuffer.wrap(bs) //
+						.putInt(ExtentFile.magic) //
+						.putInt(ExtentFile.version) //
+						.putInt(extent.start) //
+						.putInt(extent.end) //
+						.putInt(size) //
+						.put(bytes.bs, bytes.start, size);
+
+				var bytes_ = Bytes.of(bs);
+
+				for (var pointer = extent.start; pointer < extent.end; pointer++) {
+					var p = (pointer - extent.start) * pageSize;
+					pageFile.save(pointer, bytes_.range(p, p + pageSize));
 				}
 			}
 
+			public void free(Extent extent) {
+				var bytes = Bytes.of(new byte[pageSize]);
+
+				for (var pointer = extent.start; pointer < extent.end; pointer++)
+					pageFile.save(pointer, bytes);
+			}
+
 			public List<Extent> scan(int start, int end) {
 				var extents = new ArrayList<Extent>();
 				var pointer = start;
 				while (pointer < end) {
-					var extent = pageFile.load(pointer).extent;
-					if (start <= extent.start && extent.end <= end)
-						extents.add(extent);
-					pointer = extent.end;
+					var bytes = pageFile.load(pointer);
+					var bb = ByteBuffer.wrap(bytes.bs, bytes.start, headerSize);
+					var extent = isHeader(bb) ? new Extent(bb.getInt(), bb.getInt()) : null;
+					if (extent != null && extent.start == pointer && pointer < extent.end) {
+						if (start <= extent.start && extent.end <= end)
+							extents.add(extent);
+						pointer = extent.end;
+					} else // free page, or data page of an extent starting before the range
+						pointer++;
 				}
 				return extents;
 			}
+
+			private ByteBuffer header(Bytes bytes) {
+				var bb = ByteBuffer.wrap(bytes.bs, bytes.start, headerSize);
+
+				if (isHeader(bb))
+					return bb;
+				else
+					return fail("unknown extent format");
+			}
+
+			private boolean isHeader(ByteBuffer bb) {
+				return bb.getInt() == ExtentFile.magic && bb.getInt() == ExtentFile.version;
+			}
 		};
 	}
 
@@ -109,6 +128,11 @@ public class FileFactory {
 				return pageFile.load(pointer);
 			}
 
+			public Bytes load(int start, int end) {
+				Log_.info("PageFile[" + System.identityHashCode(pageFile) + "].load(" + start + ", " + end + ")");
+				return pageFile.load(start, end);
+			}
+
 			public void save(int pointer, Bytes bytes) {
 				Log_.info("PageFile[" + System.identityHashCode(pageFile) + "].save(" + pointer + ")");
 				pageFile.save(pointer, bytes);
@@ -116,6 +140,42 @@ public class FileFactory {
 		};
 	}
 
+	/**
+	 * Page file backed by memory-mapped segments. Loads and saves are served
+	 * without system calls once the covering segment has been mapped.
+	 */
+	public static PageFile mappedPageFile(Path path, boolean isCreate, int pageSize) {
+		if (isCreate)
+			DeleteFile.ifExists(path);
+
+		var file = new MappedFile(path, pageSize * nPagesPerSegment);
+
+		return new PageFile() {
+			public void close() {
+				file.close();
+			}
+
+			public void sync() {
+				file.sync();
+			}
+
+			public Bytes load(int pointer) {
+				var start = pointer * pageSize;
+				var end = start + pageSize;
+				return file.load(start, end);
+			}
+
+			public Bytes load(int start, int end) {
+				return file.load(start * pageSize, end * pageSize);
+			}
+
+			public void save(int pointer, Bytes bytes) {
+				Util.assert_(bytes.size() <= pageSize);
+				file.save(pointer * pageSize, bytes);
+			}
+		};
+	}
+
 	public static PageFile pageFile(Path path, boolean isCreate, int pageSize) {
 		if (isCreate)
 			DeleteFile.ifExists(path);
@@ -137,6 +197,10 @@ public class FileFactory {
 				return file.load(start, end);
 			}
 
+			public Bytes load(int start, int end) {
+				return file.load(start * pageSize, end * pageSize);
+			}
+
 			public void save(int pointer, Bytes bytes) {
 				Util.assert_(bytes.size() <= pageSize);
 				file.save(pointer * pageSize, bytes);
@@ -164,6 +228,10 @@ public class FileFactory {
 				return parent.load(convert(pointer));
 			}
 
+			public Bytes load(int start, int end) {
+				return start < end ? parent.load(convert(start), convert(end - 1) + 1) : Bytes.empty;
+			}
+
 			public void save(int pointer, Bytes bytes) {
 				parent.save(convert(pointer), bytes);
 			}
@@ -3,7 +3,13 @@ package suite.file.impl;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import primal.Verbs.Sleep;
+import primal.Verbs.Wait;
 import primal.primitive.adt.Bytes;
 import primal.primitive.adt.pair.IntObjPair;
 import suite.file.JournalledPageFile;
@@ -19,13 +25,101 @@ public class JournalledFileFactory {
 
 	private static Serialize ser = Singleton.me.serialize;
 
+	/**
+	 * Group commit. A commit blocks until the changes are synced to disk; commits
+	 * arriving within the given window (in milliseconds) share one journal update
+	 * and one sync. A longer window trades commit latency for throughput.
+	 */
+	public static JournalledPageFile groupCommitted(JournalledPageFile jpf, int windowMs) {
+		return new JournalledPageFile() {
+			private long nRequested;
+			private long nCommitted;
+			private boolean isCommitting;
+
+			public void close() throws IOException {
+				jpf.close();
+			}
+
+			public Bytes load(int pointer) {
+				return jpf.load(pointer);
+			}
+
+			public Bytes load(int start, int end) {
+				return jpf.load(start, end);
+			}
+
+			public void save(int pointer, Bytes bytes) {
+				jpf.save(pointer, bytes);
+			}
+
+			public void commit() {
+				var ticket = request();
+				while (!awaitOrLead(ticket))
+					lead();
+			}
+
+			public void sync() {
+				jpf.sync();
+			}
+
+			public void applyJournal() {
+				jpf.applyJournal();
+			}
+
+			private synchronized long request() {
+				return ++nRequested;
+			}
+
+			/**
+			 * Waits for the ongoing group to finish. Returns true if the ticket was
+			 * committed, or false if the caller has become the leader of the next group.
+			 */
+			private synchronized boolean awaitOrLead(long ticket) {
+				while (nCommitted < ticket && isCommitting)
+					Wait.object(this);
+
+				var isCommitted = ticket <= nCommitted;
+				if (!isCommitted)
+					isCommitting = true;
+				return isCommitted;
+			}
+
+			private void lead() {
+				var n = -1l;
+				try {
+					if (0 < windowMs)
+						Sleep.quietly(windowMs);
+
+					// requests so far have saved their pages and joined this group
+					long n1;
+					synchronized (this) {
+						n1 = nRequested;
+					}
+
+					jpf.commit();
+					jpf.sync();
+					n = n1;
+				} finally {
+					led(n);
+				}
+			}
+
+			private synchronized void led(long n) {
+				if (0 <= n)
+					nCommitted = n;
+				isCommitting = false;
+				notifyAll();
+			}
+		};
+	}
+
 	public static JournalledPageFile open(Path path, int pageSize) {
 		return open(path, pageSize, false);
 	}
 
 	public static JournalledPageFile open(Path path, int pageSize, boolean isCreate) {
 		return open( //
-				FileFactory.pageFile(path, isCreate, pageSize), //
+				FileFactory.mappedPageFile(path, isCreate, pageSize), //
 				FileFactory.pageFile(FileUtil.ext(path, ".journal"), isCreate, pageSize + 4), //
 				FileFactory.pageFile(FileUtil.ext(path, ".pointer"), isCreate, 4), //
 				pageSize);
@@ -67,77 +161,119 @@ public class JournalledFileFactory {
 		return new JournalledPageFile() {
 			private int nCommittedJournalEntries = nCommittedJournalEntries0;
 
+			// loads run concurrently; other operations are exclusive
+			private ReadWriteLock rwl = new ReentrantReadWriteLock();
+
+			// latest journal entry of each page
+			private Map<Integer, Integer> jpByPointer = new HashMap<>();
+
+			{
+				indexJournal();
+			}
+
 			public void close() throws IOException {
 				dataFile.close();
 				journalPageFile.close();
 				pointerPageFile.close();
 			}
 
-			public synchronized Bytes load(int pointer) {
-				var pair = findPageInJournal(pointer);
-				if (pair != null)
-					return pair.v.bytes;
-				else
-					return dataFile.load(pointer);
+			public Bytes load(int pointer) {
+				var lock = rwl.readLock();
+				lock.lock();
+				try {
+					var pair = findPageInJournal(pointer);
+					if (pair != null)
+						return pair.v.bytes;
+					else
+						return dataFile.load(pointer);
+				} finally {
+					lock.unlock();
+				}
 			}
 
-			public synchronized void save(int pointer, Bytes bytes) {
-				var pair = findDirtyPageInJournal(pointer);
-				int jp;
-				JournalEntry journalEntry;
-
-				if (pair != null) {
-					jp = pair.k;
-					journalEntry = pair.v;
-				} else {
-					jp = journalEntries.size();
-					journalEntries.add(journalEntry = new JournalEntry(pointer, null));
+			public Bytes load(int start, int end) {
+				var lock = rwl.readLock();
+				lock.lock();
+				try {
+					for (var pointer = start; pointer < end; pointer++)
+						if (findPageInJournal(pointer) != null)
+							return JournalledPageFile.super.load(start, end);
+
+					return dataFile.load(start, end);
+				} finally {
+					lock.unlock();
 				}
+			}
 
-				journalEntry.bytes = bytes;
-				journalPageFile.save(jp, journalEntry);
+			public void save(int pointer, Bytes bytes) {
+				write(() -> {
+					var pair = findDirtyPageInJournal(pointer);
+					int jp;
+					JournalEntry journalEntry;
+
+					if (pair != null) {
+						jp = pair.k;
+						journalEntry = pair.v;
+					} else {
+						jp = journalEntries.size();
+						journalEntries.add(journalEntry = new JournalEntry(pointer, null));
+						jpByPointer.put(pointer, jp);
+					}
+
+					journalEntry.bytes = bytes;
+					journalPageFile.save(jp, journalEntry);
+				});
 			}
 
 			/**
 			 * Marks a snapshot that data can be recovered to.
 			 */
-			public synchronized void commit() {
-				while (nCommittedJournalEntries < journalEntries.size()) {
-					var journalEntry = journalEntries.get(nCommittedJournalEntries++);
-					dataFile.save(journalEntry.pointer, journalEntry.bytes);
-				}
-
-				if (8 < nCommittedJournalEntries)
-					saveJournal();
+			public void commit() {
+				write(() -> {
+					while (nCommittedJournalEntries < journalEntries.size()) {
+						var journalEntry = journalEntries.get(nCommittedJournalEntries++);
+						dataFile.save(journalEntry.pointer, journalEntry.bytes);
+					}
+
+					if (8 < nCommittedJournalEntries)
+						saveJournal();
+				});
 			}
 
 			/**
 			 * Makes sure the current snapshot of data is saved and recoverable on failure,
 			 * upon the return of method call.
 			 */
-			public synchronized void sync() {
-				journalPageFile.sync();
-				saveJournal();
-				pointerPageFile.sync();
+			public void sync() {
+				write(() -> {
+					journalPageFile.sync();
+					saveJournal();
+					pointerPageFile.sync();
+				});
 			}
 
 			private void saveJournal() {
 				pointerPageFile.save(0, nCommittedJournalEntries);
 
 				if (128 < nCommittedJournalEntries)
-					applyJournal();
+					applyJournal_();
 			}
 
 			/**
 			 * Shortens the journal by applying them to page file.
 			 */
-			public synchronized void applyJournal() {
+			public void applyJournal() {
+				write(this::applyJournal_);
+			}
+
+			private void applyJournal_() {
 
 				// make sure all changes are written to main file
 				dataFile.sync();
 
 				// clear all committed entries
 				journalEntries.subList(0, nCommittedJournalEntries).clear();
+				indexJournal();
 
 				// reset committed pointer
 				pointerPageFile.save(0, nCommittedJournalEntries = 0);
@@ -148,6 +284,12 @@ public class JournalledFileFactory {
 					journalPageFile.save(jp, journalEntries.get(jp));
 			}
 
+			private void indexJournal() {
+				jpByPointer.clear();
+				for (var jp = 0; jp < journalEntries.size(); jp++)
+					jpByPointer.put(journalEntries.get(jp).pointer, jp);
+			}
+
 			private IntObjPair<JournalEntry> findPageInJournal(int pointer) {
 				return findPageInJournal(pointer, 0);
 			}
@@ -157,13 +299,18 @@ public class JournalledFileFactory {
 			}
 
 			private IntObjPair<JournalEntry> findPageInJournal(int pointer, int start) {
-				IntObjPair<JournalEntry> pair = null;
-				for (var jp = start; jp < journalEntries.size(); jp++) {
-					var journalEntry = journalEntries.get(jp);
-					if (journalEntry.pointer == pointer)
-						pair = IntObjPair.of(jp, journalEntry);
+				var jp = jpByPointer.get(pointer);
+				return jp != null && start <= jp ? IntObjPair.of(jp, journalEntries.get(jp)) : null;
+			}
+
+			private void write(Runnable runnable) {
+				var lock = rwl.writeLock();
+				lock.lock();
+				try {
+					runnable.run();
+				} finally {
+					lock.unlock();
 				}
-				return pair;
 			}
 		};
 	}
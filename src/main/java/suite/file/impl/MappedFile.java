@@ -0,0 +1,106 @@
+package suite.file.impl;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static primal.statics.Rethrow.ex;
+
+import java.io.Closeable;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import primal.Verbs.Close;
+import primal.Verbs.Mk;
+import primal.primitive.adt.Bytes;
+
+/**
+ * File accessed through memory-mapped segments, which are mapped on demand and
+ * extend the file as data are written beyond its end.
+ */
+public class MappedFile implements Closeable {
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int segmentSize;
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+	public MappedFile(Path path, int segmentSize) {
+		Mk.dir(path.getParent());
+		file = ex(() -> new RandomAccessFile(path.toFile(), "rw"));
+		channel = file.getChannel();
+		this.segmentSize = segmentSize;
+	}
+
+	@Override
+	public synchronized void close() {
+		segments = new MappedByteBuffer[0];
+		Close.quietly(channel, file);
+	}
+
+	public void sync() {
+		for (var segment : segments)
+			if (segment != null)
+				segment.force();
+
+		ex(() -> {
+			channel.force(true);
+			return channel;
+		});
+	}
+
+	public Bytes load(int start, int end) {
+		var bs = new byte[end - start];
+		var p = start;
+
+		while (p < end) {
+			var s = p / segmentSize;
+			var p0 = p - s * segmentSize;
+			var n = min(end - p, segmentSize - p0);
+			segment(s).get(p0, bs, p - start, n);
+			p += n;
+		}
+
+		return Bytes.of(bs);
+	}
+
+	public void save(int start, Bytes bytes) {
+		var bs = bytes.toArray();
+		var end = start + bs.length;
+		var p = start;
+
+		while (p < end) {
+			var s = p / segmentSize;
+			var p0 = p - s * segmentSize;
+			var n = min(end - p, segmentSize - p0);
+			segment(s).put(p0, bs, p - start, n);
+			p += n;
+		}
+	}
+
+	private MappedByteBuffer segment(int s) {
+		var segments_ = segments;
+		var segment = s < segments_.length ? segments_[s] : null;
+		return segment != null ? segment : map(s);
+	}
+
+	/**
+	 * Maps a segment and publishes a new segment array, so that readers of mapped
+	 * segments need not lock.
+	 */
+	private synchronized MappedByteBuffer map(int s) {
+		var segments1 = Arrays.copyOf(segments, max(segments.length, s + 1));
+		var segment = segments1[s];
+
+		if (segment == null) {
+			var position = (long) s * segmentSize;
+			segments1[s] = segment = ex(() -> channel.map(MapMode.READ_WRITE, position, segmentSize));
+			segments = segments1;
+		}
+
+		return segment;
+	}
+
+}
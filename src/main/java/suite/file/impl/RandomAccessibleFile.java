@@ -39,7 +39,8 @@ public class RandomAccessibleFile implements Closeable {
 		return ex(() -> {
 			var size = end - start;
 			var bb = ByteBuffer.allocate(size);
-			channel.read(bb, start);
+			while (bb.hasRemaining() && 0 <= channel.read(bb, start + bb.position()))
+				;
 			bb.limit(size);
 			return Bytes.of(bb);
 		});
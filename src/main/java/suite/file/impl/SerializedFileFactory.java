@@ -3,6 +3,8 @@ package suite.file.impl;
 import static primal.statics.Rethrow.ex;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import suite.file.PageFile;
 import suite.file.SerializedPageFile;
@@ -13,6 +15,77 @@ import suite.util.To;
 
 public class SerializedFileFactory {
 
+	/**
+	 * Keeps up to the given number of decoded pages in memory, evicting them by the
+	 * clock algorithm. Saves are written through to the underlying file.
+	 *
+	 * Loaded values are shared with the cache; callers modifying them must save
+	 * them back.
+	 */
+	public static <V> SerializedPageFile<V> cached(SerializedPageFile<V> pageFile, int size) {
+		return new SerializedPageFile<>() {
+			class Entry {
+				private boolean isReferenced;
+				private int pointer = -1;
+				private V value;
+			}
+
+			private Map<Integer, Entry> map = new HashMap<>();
+			private Entry[] array = new Entry[size];
+			private int p = 0;
+
+			{
+				for (var i = 0; i < size; i++)
+					array[i] = new Entry();
+			}
+
+			public synchronized void close() throws IOException {
+				map.clear();
+				pageFile.close();
+			}
+
+			public synchronized void sync() {
+				pageFile.sync();
+			}
+
+			public synchronized V load(int pointer) {
+				var entry = map.get(pointer);
+				if (entry == null)
+					entry = put(pointer, pageFile.load(pointer));
+				entry.isReferenced = true;
+				return entry.value;
+			}
+
+			public synchronized void save(int pointer, V value) {
+				pageFile.save(pointer, value);
+				var entry = map.get(pointer);
+				if (entry != null)
+					entry.value = value;
+				else
+					entry = put(pointer, value);
+				entry.isReferenced = true;
+			}
+
+			private Entry put(int pointer, V value) {
+				Entry entry;
+
+				while ((entry = array[p]).isReferenced) {
+					entry.isReferenced = false;
+					p = (p + 1) % size;
+				}
+
+				if (0 <= entry.pointer)
+					map.remove(entry.pointer);
+
+				entry.pointer = pointer;
+				entry.value = value;
+				map.put(pointer, entry);
+				p = (p + 1) % size;
+				return entry;
+			}
+		};
+	}
+
 	public static <V> SerializedPageFile<V> serialized(PageFile pageFile, Serializer<V> serializer) {
 		return new SerializedPageFile<>() {
 			public void close() throws IOException {
@@ -4,7 +4,6 @@ import static primal.statics.Fail.fail;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.stream.Collectors;
 
 import primal.MoreVerbs.Read;
@@ -85,7 +84,7 @@ public class InterpretFunLazy {
 	}
 
 	private Reference parse(Node node) {
-		var prover = new Prover(Suite.newRuleSet(List.of("auto.sl", "fc/fc.sl")));
+		var prover = new Prover(Suite.funCompilerRuleSet());
 		var parsed = new Reference();
 
 		return prover.prove(Suite.substitute("fc-parse .0 .1", node, parsed)) //
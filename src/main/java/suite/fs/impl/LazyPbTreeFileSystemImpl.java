@@ -33,18 +33,21 @@ public class LazyPbTreeFileSystemImpl implements FileSystem {
 		mutator = new FileSystemMutatorImpl(keyUtil, () -> new KeyDataStore<>() {
 			private KeyValueStore<Bytes, Bytes> kvss = LazyPbTreeStore.ofExtent( //
 					pfs[0], //
+					pageSize, //
 					Bytes.comparator, //
 					ser.variableLengthBytes, //
 					ser.variableLengthBytes);
 
 			private KeyValueStore<Bytes, Integer> kvsis = LazyPbTreeStore.ofExtent( //
 					pfs[1], //
+					pageSize, //
 					Bytes.comparator, //
 					ser.variableLengthBytes, //
 					ser.int_);
 
 			private KeyValueStore<Bytes, Boolean> kvsbs = LazyPbTreeStore.ofExtent( //
 					pfs[2], //
+					pageSize, //
 					Bytes.comparator, //
 					ser.variableLengthBytes, //
 					ser.boolean_);
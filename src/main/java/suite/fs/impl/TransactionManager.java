@@ -1,109 +1,151 @@
 package suite.fs.impl;
 
-import java.util.ArrayList;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import primal.MoreVerbs.Read;
 import primal.fp.Funs.Fun;
 import primal.fp.Funs.Source;
 import primal.streamlet.Streamlet;
-import suite.concurrent.stm.ObstructionFreeStm;
-import suite.concurrent.stm.ObstructionFreeStm.Memory;
-import suite.concurrent.stm.Stm;
-import suite.concurrent.stm.Stm.TransactionStatus;
+import suite.concurrent.stm.Concurrent.AbortException;
 import suite.fs.KeyValueMutator;
 import suite.fs.KeyValueStore;
 
 /**
- * Implements software transaction memory in a key-value storage.
+ * Implements snapshot isolation in a key-value storage.
  *
- * TODO clean up memories
+ * Each transaction reads from the store as of its beginning, and buffers its
+ * writes. Upon commit, the write set is validated against the keys committed
+ * since; the transaction aborts with an AbortException if any of them was
+ * written meanwhile. Readers do not wait for other transactions to commit, and
+ * writers of disjoint keys do not conflict.
  *
  * @author ywsing
  */
 public class TransactionManager<Key, Value> {
 
 	private Source<KeyValueStore<Key, Value>> source;
-	private ObstructionFreeStm stm = new ObstructionFreeStm();
-	private Map<Key, Memory<Value>> memoryByKey = new ConcurrentHashMap<>();
+	private Comparator<Key> comparator;
+	private Runnable onCommit;
+	private AtomicInteger clock = new AtomicInteger();
+	private Set<Transaction> transactions = ConcurrentHashMap.newKeySet();
+	private Map<Key, Integer> commitTimeByKey = new HashMap<>();
+	private int pruneSize = 1024;
 
 	public class Transaction implements KeyValueStore<Key, Value> {
-		private KeyValueStore<Key, Value> store;
-		private Stm.Transaction st = stm.begin();
+		private volatile int time;
+		private KeyValueStore<Key, Value> snapshot;
+		private NavigableMap<Key, Value> writes = new TreeMap<>(comparator);
+
+		public Transaction() {
+			transactions.add(this);
 
-		public Transaction(KeyValueStore<Key, Value> store) {
-			this.store = store;
+			// the snapshot is taken after the time, so that commits in between would be
+			// validated against
+			time = clock.get();
+			snapshot = source.g();
 		}
 
 		@Override
 		public KeyValueMutator<Key, Value> mutate() {
-			var mutator = store.mutate();
+			var mutator = snapshot.mutate();
 
 			return new KeyValueMutator<>() {
+				/**
+				 * Lists the keys of the snapshot, without the ones removed and with the ones
+				 * put by this transaction, from start up to but excluding end.
+				 */
 				public Streamlet<Key> keys(Key start, Key end) {
-					return mutator.keys(start, end);
+					var writes_ = start != null ? writes.tailMap(start, true) : writes;
+					var writes1 = end != null ? writes_.headMap(end, false) : writes_;
+
+					return writes1.isEmpty() ? mutator.keys(start, end) : Read.from(() -> new Source<Key>() {
+						private Source<Key> source0 = mutator.keys(start, end).filter(key -> !writes.containsKey(key)).source();
+						private Iterator<Entry<Key, Value>> iter1 = writes1.entrySet().iterator();
+						private Key key0 = source0.g();
+						private Key key1 = next1();
+
+						public Key g() {
+							Key key;
+							if (key1 != null && (key0 == null || comparator.compare(key1, key0) < 0)) {
+								key = key1;
+								key1 = next1();
+							} else {
+								key = key0;
+								key0 = key0 != null ? source0.g() : null;
+							}
+							return key;
+						}
+
+						private Key next1() { // skips removals
+							while (iter1.hasNext()) {
+								var e = iter1.next();
+								if (e.getValue() != null)
+									return e.getKey();
+							}
+							return null;
+						}
+					});
 				}
 
 				public Value get(Key key) {
-					return stm.get(st, getMemory(key));
+					return writes.containsKey(key) ? writes.get(key) : mutator.get(key);
 				}
 
 				public void put(Key key, Value value) {
-					stm.put(st, getMemory(key), value);
+					writes.put(key, value);
 				}
 
 				public void remove(Key key) {
-					stm.put(st, getMemory(key), null);
-				}
-
-				private Memory<Value> getMemory(Key key) {
-					return memoryByKey.computeIfAbsent(key, key_ -> stm.newMemory(mutator.get(key_)));
+					writes.put(key, null);
 				}
 			};
 		}
 
 		@Override
 		public void end(boolean isComplete) {
-			st.end(isComplete ? TransactionStatus.DONE____ : TransactionStatus.ROLLBACK);
-			if (isComplete)
-				flush();
+			try {
+				snapshot.end(false);
+				if (isComplete && !writes.isEmpty()) {
+					commit(this);
+					onCommit.run();
+				}
+			} finally {
+				transactions.remove(this);
+			}
 		}
 	}
 
-	public TransactionManager(Source<KeyValueStore<Key, Value>> source) {
-		this.source = source;
-	}
-
-	private synchronized void flush() {
-		var map = new HashMap<Key, Value>();
-
-		var ok = stm.transaction(transaction -> {
-			var keys = new ArrayList<>(memoryByKey.keySet());
-			for (var key : keys)
-				memoryByKey.compute(key, (key_, memory) -> {
-					if (memory != null)
-						map.put(key_, stm.get(transaction, memory));
-					return null;
-				});
-			return true;
+	public TransactionManager(Source<KeyValueStore<Key, Value>> source, Comparator<Key> comparator) {
+		this(source, comparator, () -> {
 		});
+	}
 
-		if (ok) {
-			var store = source.g();
-			var mutator = store.mutate();
-			map.forEach((k, v) -> {
-				if (v != null)
-					mutator.put(k, v);
-				else
-					mutator.remove(k);
-			});
-			store.end(ok);
-		}
+	/**
+	 * @param comparator orders the keys as the store does, for merging the
+	 *                   writes of a transaction into its key listings.
+	 * @param onCommit   run after each transaction that wrote anything is
+	 *                   committed, outside of the commit lock.
+	 */
+	public TransactionManager(Source<KeyValueStore<Key, Value>> source, Comparator<Key> comparator, Runnable onCommit) {
+		this.source = source;
+		this.comparator = comparator;
+		this.onCommit = onCommit;
 	}
 
 	public <T> T begin(Fun<KeyValueMutator<Key, Value>, T> fun) {
-		var store = new Transaction(source.g());
+		var store = new Transaction();
 		var ok = false;
 		try {
 			var t = fun.apply(store.mutate());
@@ -114,4 +156,46 @@ public class TransactionManager<Key, Value> {
 		}
 	}
 
+	private synchronized void commit(Transaction transaction) {
+		var writes = transaction.writes;
+
+		for (var key : writes.keySet())
+			if (transaction.time < commitTimeByKey.getOrDefault(key, 0))
+				throw new AbortException();
+
+		var store = source.g();
+		var mutator = store.mutate();
+
+		writes.forEach((k, v) -> {
+			if (v != null)
+				mutator.put(k, v);
+			else
+				mutator.remove(k);
+		});
+
+		store.end(true);
+
+		var time = clock.incrementAndGet();
+
+		for (var key : writes.keySet())
+			commitTimeByKey.put(key, time);
+
+		if (pruneSize <= commitTimeByKey.size())
+			prune();
+	}
+
+	/**
+	 * Forgets commits that no active transaction could conflict with.
+	 */
+	private void prune() {
+		var minTime = Integer.MAX_VALUE;
+
+		for (var transaction : transactions)
+			minTime = min(minTime, transaction.time);
+
+		var minTime_ = minTime;
+		commitTimeByKey.values().removeIf(time -> time <= minTime_);
+		pruneSize = max(1024, commitTimeByKey.size() * 2);
+	}
+
 }
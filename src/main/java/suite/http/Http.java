@@ -1,11 +1,22 @@
 package suite.http;
 
+import static java.lang.Math.min;
+import static primal.statics.Fail.fail;
+import static primal.statics.Rethrow.ex;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
 import primal.MoreVerbs.Pull;
 import primal.MoreVerbs.Read;
+import primal.Nouns.Buffer;
 import primal.Nouns.Utf8;
+import primal.Verbs.Close;
 import primal.adt.Opt;
 import primal.adt.Pair;
 import primal.fp.Funs.Sink;
+import primal.fp.Funs.Source;
 import primal.persistent.PerList;
 import primal.persistent.PerMap;
 import primal.primitive.adt.Bytes;
@@ -18,9 +29,11 @@ public class Http {
 
 	public static final Status S200 = new Status("200 OK");
 	public static final Status S206 = new Status("206 Partial Content");
+	public static final Status S304 = new Status("304 Not Modified");
 	public static final Status S403 = new Status("403 forbidden");
 	public static final Status S404 = new Status("404 file not found");
 	public static final Status S405 = new Status("404 method not allowed");
+	public static final Status S416 = new Status("416 Range Not Satisfiable");
 	public static final Status S500 = new Status("500 internal server error");
 
 	public static final Response R403 = Response.of(S403);
@@ -118,11 +131,27 @@ public class Http {
 		}
 	}
 
+	/**
+	 * A range of a file, preceded by some bytes.
+	 */
+	public static class Region {
+		public final Bytes head;
+		public final long start, end;
+
+		public Region(Bytes head, long start, long end) {
+			this.head = head;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
 	public static class Response {
 		public final String status;
 		public final Header headers;
 		public final Puller<Bytes> body;
 		public final Sink<Sink<Bytes>> write;
+		public final FileChannel file;
+		public final List<Region> regions;
 
 		private static Response of(Status status) {
 			return of(status, new Header(), Puller.empty());
@@ -150,6 +179,41 @@ public class Http {
 			return new Response(status, headers, null, write);
 		}
 
+		/**
+		 * A response served from regions of a file, which would be closed after
+		 * written. Non-blocking servers transfer the regions from the file channel to
+		 * the socket directly; others would pull them from the body.
+		 */
+		public static Response ofFile(Status status, Header headers, FileChannel file, List<Region> regions) {
+			var iter = regions.iterator();
+
+			var body = Puller.of(new Source<Bytes>() {
+				private long position, end;
+
+				public Bytes g() {
+					if (position < end) {
+						var bb = ByteBuffer.allocate((int) min(end - position, Buffer.size));
+						var n = ex(() -> file.read(bb, position));
+						if (0 < n) {
+							position += n;
+							return Bytes.of(bb.array(), 0, n);
+						} else
+							return fail("file truncated");
+					} else if (iter.hasNext()) {
+						var region = iter.next();
+						position = region.start;
+						end = region.end;
+						return region.head;
+					} else {
+						Close.quietly(file);
+						return null;
+					}
+				}
+			});
+
+			return new Response(status.line, headers, body, null, file, regions);
+		}
+
 		public Response(Status status, Header headers, Puller<Bytes> body) {
 			this(status, headers, body, null);
 		}
@@ -163,10 +227,30 @@ public class Http {
 		}
 
 		private Response(String status, Header headers, Puller<Bytes> body, Sink<Sink<Bytes>> write) {
+			this(status, headers, body, write, null, null);
+		}
+
+		private Response( //
+				String status, //
+				Header headers, //
+				Puller<Bytes> body, //
+				Sink<Sink<Bytes>> write, //
+				FileChannel file, //
+				List<Region> regions) {
 			this.status = status;
 			this.headers = headers;
 			this.body = body;
 			this.write = write;
+			this.file = file;
+			this.regions = regions;
+		}
+
+		/**
+		 * @return the same response with other headers, keeping the file to be
+		 *         transferred.
+		 */
+		public Response headers(Header headers) {
+			return new Response(status, headers, body, write, file, regions);
 		}
 
 		public String getLogString() {
@@ -2,23 +2,37 @@ package suite.http;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
 import static primal.statics.Rethrow.ex;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import primal.MoreVerbs.Pull;
+import primal.Nouns.Utf8;
 import primal.Verbs.Equals;
+import primal.adt.Pair;
 import primal.fp.Funs.Sink;
 import primal.persistent.PerList;
 import primal.persistent.PerMap;
 import primal.primitive.adt.Bytes;
-import primal.primitive.adt.LngMutable;
+import primal.puller.Puller;
 import suite.http.Http.Handler;
 import suite.http.Http.Header;
+import suite.http.Http.Region;
+import suite.http.Http.Request;
 import suite.http.Http.Response;
 
 public class HttpHandle {
@@ -40,66 +54,96 @@ public class HttpHandle {
 	}
 
 	public Handler serveDir(Path root) {
+		return serveDir(root, 0);
+	}
+
+	/**
+	 * Serves files under a directory, transferring them to the socket when the
+	 * server supports it. Small files are cached in memory, up to cacheSize bytes
+	 * in total.
+	 */
+	public Handler serveDir(Path root, int cacheSize) {
+		var cache = new FileCache(cacheSize);
+
 		return request -> ex(() -> {
 			var path = root;
-			long size;
 
 			for (var p : request.paths)
 				if (!Equals.string(p, ".."))
 					path = path.resolve(p);
 
-			var file = path.toFile();
-
-			if (file.exists())
-				try (var raf = new RandomAccessFile(file, "r")) {
-					size = raf.getChannel().size();
-
-					var array = request.headers //
-							.getOpt("Range") //
-							.map(range -> range.split(",")) //
-							.filter(ranges -> ranges.length == 1) //
-							.map(ranges -> ranges[0].split("-")) //
-							.or(new String[0]);
-
-					if (array.length == 2) {
-						var a0 = array[0];
-						var a1 = array[1];
-						var p0 = max(!a1.isEmpty() ? Long.valueOf(a0) : Long.MIN_VALUE, 0);
-						var px = min(!a1.isEmpty() ? Long.valueOf(a1) : Long.MAX_VALUE, size);
-						var p = LngMutable.of(p0);
-
-						var empty = new Header() //
-								.put("Content-Range", "bytes " + p0 + "-" + px + "/" + size) //
-								.put("Content-Type", "text/html; charset=UTF-8");
-
-						return Response.of(Http.S206, empty, Pull.from(new InputStream() {
-							public int read() throws IOException {
-								var pos = p.value();
-								if (pos != px) {
-									raf.seek(p.increment());
-									p.update(pos + 1);
-									return raf.read();
-								} else
-									return -1;
-							}
-
-							public int read(byte[] b, int off, int len0) throws IOException {
-								var pos = p.value();
-								if (pos != px) {
-									var len1 = min(len0, (int) (px - pos));
-									raf.seek(pos);
-									var n = raf.read(b, off, len1);
-									p.update(pos + n);
-									return n;
-								} else
-									return -1;
-							}
-						}));
-					} else
-						return Response.of(Http.S200, Pull.from(Files.newInputStream(path)), size);
-				}
-			else
+			if (!Files.isRegularFile(path))
 				return Http.R404;
+
+			var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			var size = attributes.size();
+			var lastModified = attributes.lastModifiedTime().toMillis();
+			var etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+
+			var headers = new Header() //
+					.put("Accept-Ranges", "bytes") //
+					.put("ETag", etag) //
+					.put("Last-Modified", RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC)));
+
+			if (isNotModified(request, etag, lastModified))
+				return new Response(Http.S304, headers, Puller.empty());
+
+			var regions = request.headers.getOpt("Range").map(range -> ranges(range, size)).or(null);
+			var contentType = contentType(path);
+
+			if (regions == null) {
+				var bytes = cache.get(path, etag, size);
+				var headers1 = headers //
+						.put("Content-Length", Long.toString(size)) //
+						.put("Content-Type", contentType);
+
+				if (bytes != null)
+					return Response.of(Http.S200, headers1, Puller.<Bytes> of(bytes));
+				else
+					return Response.ofFile( //
+							Http.S200, //
+							headers1, //
+							FileChannel.open(path, StandardOpenOption.READ), //
+							List.of(new Region(Bytes.empty, 0, size)));
+			} else if (regions.isEmpty())
+				return Response.of(Http.S416, headers.put("Content-Range", "bytes */" + size), Puller.empty());
+			else if (regions.size() == 1) {
+				var region = regions.get(0);
+
+				return Response.ofFile( //
+						Http.S206, //
+						headers //
+								.put("Content-Length", Long.toString(region.end - region.start)) //
+								.put("Content-Range", contentRange(region, size)) //
+								.put("Content-Type", contentType), //
+						FileChannel.open(path, StandardOpenOption.READ), //
+						regions);
+			} else {
+				var boundary = Long.toHexString(System.nanoTime());
+				var parts = new ArrayList<Region>();
+				var length = 0l;
+
+				for (var region : regions) {
+					var head = Bytes.of(("\r\n--" + boundary + "\r\n" //
+							+ "Content-Type: " + contentType + "\r\n" //
+							+ "Content-Range: " + contentRange(region, size) + "\r\n" //
+							+ "\r\n").getBytes(Utf8.charset));
+					parts.add(new Region(head, region.start, region.end));
+					length += head.size() + region.end - region.start;
+				}
+
+				var tail = Bytes.of(("\r\n--" + boundary + "--\r\n").getBytes(Utf8.charset));
+				parts.add(new Region(tail, 0, 0));
+				length += tail.size();
+
+				return Response.ofFile( //
+						Http.S206, //
+						headers //
+								.put("Content-Length", Long.toString(length)) //
+								.put("Content-Type", "multipart/byteranges; boundary=" + boundary), //
+						FileChannel.open(path, StandardOpenOption.READ), //
+						parts);
+			}
 		});
 	}
 
@@ -116,4 +160,114 @@ public class HttpHandle {
 		return request -> Response.of(Pull.from(data));
 	}
 
+	private String contentType(Path path) throws IOException {
+		var contentType = Files.probeContentType(path);
+
+		if (contentType == null)
+			return "application/octet-stream";
+		else if (contentType.startsWith("text/"))
+			return contentType + "; charset=UTF-8";
+		else
+			return contentType;
+	}
+
+	private boolean isNotModified(Request request, String etag, long lastModified) {
+		var ifNoneMatch = request.headers.getOpt("If-None-Match");
+		var ifModifiedSince = request.headers.getOpt("If-Modified-Since");
+
+		if (ifNoneMatch.hasValue()) {
+			for (var tag : ifNoneMatch.g().split(","))
+				if (Equals.string(tag.trim(), etag) || Equals.string(tag.trim(), "*"))
+					return true;
+			return false;
+		} else if (ifModifiedSince.hasValue())
+			try {
+				var since = ZonedDateTime.parse(ifModifiedSince.g(), RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+				return lastModified / 1000 <= since / 1000;
+			} catch (DateTimeParseException ex) {
+				return false;
+			}
+		else
+			return false;
+	}
+
+	/**
+	 * Parses a byte range header into the satisfiable regions, or null if the
+	 * header is malformed and should be ignored.
+	 */
+	private List<Region> ranges(String range, long size) {
+		var prefix = "bytes=";
+
+		if (range.startsWith(prefix)) {
+			var regions = new ArrayList<Region>();
+
+			for (var spec : range.substring(prefix.length()).split(",")) {
+				var array = spec.trim().split("-", -1);
+				long start, end;
+
+				if (array.length != 2)
+					return null;
+
+				try {
+					var a0 = array[0].trim();
+					var a1 = array[1].trim();
+
+					if (!a0.isEmpty()) {
+						start = Long.parseLong(a0);
+						end = !a1.isEmpty() ? min(Long.parseLong(a1) + 1, size) : size;
+					} else { // suffix
+						start = max(size - Long.parseLong(a1), 0);
+						end = size;
+					}
+				} catch (NumberFormatException ex) {
+					return null;
+				}
+
+				if (start < end)
+					regions.add(new Region(Bytes.empty, start, end));
+			}
+
+			return regions;
+		} else
+			return null;
+	}
+
+	private String contentRange(Region region, long size) {
+		return "bytes " + region.start + "-" + (region.end - 1) + "/" + size;
+	}
+
+	private class FileCache {
+		private int maxFileSize = 65536;
+		private int capacity;
+		private int size;
+		private Map<Path, Pair<String, Bytes>> map = new LinkedHashMap<>(16, .75f, true);
+
+		private FileCache(int capacity) {
+			this.capacity = capacity;
+		}
+
+		private synchronized Bytes get(Path path, String etag, long fileSize) throws IOException {
+			var pair = map.get(path);
+
+			if (pair != null && Equals.string(pair.k, etag))
+				return pair.v;
+			else if (fileSize <= min(maxFileSize, capacity)) {
+				var bytes = Bytes.of(Files.readAllBytes(path));
+				var pair0 = map.put(path, Pair.of(etag, bytes));
+
+				size += bytes.size() - (pair0 != null ? pair0.v.size() : 0);
+
+				// evicts the least recently used
+				var iter = map.values().iterator();
+				while (capacity < size) {
+					size -= iter.next().v.size();
+					iter.remove();
+				}
+
+				return bytes;
+			} else
+				return null;
+		}
+	}
+
 }
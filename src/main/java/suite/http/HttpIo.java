@@ -13,6 +13,7 @@ import java.net.URLDecoder;
 import primal.MoreVerbs.Pull;
 import primal.MoreVerbs.Split;
 import primal.Nouns.Utf8;
+import primal.Verbs.Close;
 import primal.Verbs.Equals;
 import primal.Verbs.ReadLine;
 import primal.adt.FixieArray;
@@ -92,7 +93,12 @@ public class HttpIo {
 		var body = response.body;
 
 		if (body != null)
-			Copy.stream(body.collect(To::inputStream), os);
+			try {
+				Copy.stream(body.collect(To::inputStream), os);
+			} finally {
+				if (response.file != null)
+					Close.quietly(response.file);
+			}
 		else {
 			response.write.f(bytes -> {
 				try {
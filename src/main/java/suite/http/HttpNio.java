@@ -1,9 +1,12 @@
 package suite.http;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static primal.statics.Fail.fail;
 import static primal.statics.Rethrow.ex;
 
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -13,6 +16,7 @@ import primal.MoreVerbs.Read;
 import primal.MoreVerbs.Split;
 import primal.Nouns.Buffer;
 import primal.Nouns.Utf8;
+import primal.Verbs.Close;
 import primal.Verbs.Equals;
 import primal.adt.FixieArray;
 import primal.adt.Opt;
@@ -34,9 +38,19 @@ public class HttpNio {
 
 	public final ListenNio listen;
 	private Handler handler;
+	private int maxRequestsPerConnection = 256;
+	private long idleTimeout = 30000l;
 
 	public HttpNio(Handler handler) {
-		listen = new ListenNio(this::listen);
+		this(handler, 0);
+	}
+
+	/**
+	 * Serves by the given number of reactor threads. The handler would then be
+	 * called concurrently.
+	 */
+	public HttpNio(Handler handler, int nReactors) {
+		listen = new ListenNio(this::listen, nReactors);
 		this.handler = handler;
 	}
 
@@ -44,20 +58,69 @@ public class HttpNio {
 		listen.run(port);
 	}
 
+	public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+		this.maxRequestsPerConnection = maxRequestsPerConnection;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
 	private void listen(Reg reg) {
 		var rw = new Object() {
-			private int stage = 0; // 0 - read, 1 - write, 2 - close after all written
+			private int stage = 0; // 0 - read, 1 - write, 2 - close after all written, 3 - write failed
 			private Bytes br = Bytes.empty;
 			private Bytes bw = Bytes.empty;
 			private Puller<Bytes> write;
+			private FileChannel file;
+			private long position, end; // file region being transferred
+			private Source<Boolean> eater = handleRequest();
+			private boolean isKeepAlive;
+			private int nRequests;
+			private long activeTime = System.currentTimeMillis();
+
+			private Source<Boolean> handleRequest() {
+				return () -> parseLine(line -> {
+					if (!line.isBlank()) // skips line breaks trailing the previous request
+						handleRequest1stLine(line.trim(), this::handleResponse);
+				});
+			}
+
+			private void handleResponse(Response response) {
+				var isFramed = Equals.string(response.status, Http.S304.line) //
+						|| response.headers.getOpt("Content-Length").hasValue();
+
+				var isKeepAlive_ = isKeepAlive //
+						&& response.body != null //
+						&& isFramed //
+						&& ++nRequests < maxRequestsPerConnection;
+
+				var headers = isKeepAlive_ ? response.headers : response.headers.put("Connection", "close");
 
-			private Source<Boolean> eater = () -> parseLine(line -> handleRequest1stLine(line.trim(), response -> {
 				var data = "HTTP/1.1 " + response.status + "\r\n" //
-						+ response.headers.streamlet().map((k, v) -> k + ": " + v + "\r\n").toJoinedString() + "\r\n";
+						+ headers.streamlet().map((k, v) -> k + ": " + v + "\r\n").toJoinedString() + "\r\n";
 
+				isKeepAlive = isKeepAlive_;
 				stage = 1;
 
-				if (response.body != null)
+				if (response.file != null) {
+					var iter = response.regions.iterator();
+					file = response.file;
+
+					Source<Bytes> heads = () -> {
+						if (iter.hasNext()) {
+							var region = iter.next();
+							position = region.start;
+							end = region.end;
+							return region.head;
+						} else {
+							closeFile();
+							return null;
+						}
+					};
+
+					write = Puller.concat(Pull.from(data), Puller.of(heads));
+				} else if (response.body != null)
 					write = Puller.concat(Pull.from(data), response.body);
 				else {
 					bw = Bytes.of(data.getBytes(Utf8.charset));
@@ -69,7 +132,7 @@ public class HttpNio {
 						listen();
 					});
 				}
-			}));
+			}
 
 			private void listen() {
 				if (!bw.isEmpty())
@@ -79,31 +142,96 @@ public class HttpNio {
 						read(in);
 						listen();
 					});
-				else if (stage == 1 && write != null)
-					reg.listenWrite(() -> bw = write.pull(), this::written);
-				else if (stage == 2)
+				else if (stage == 1 && position < end)
+					reg.listenTransfer(file, position, end - position, this::transferred);
+				else if (stage == 1 && write != null) {
+					var bytes = write.pull();
+					if (bytes != null)
+						bw = bytes;
+					else if (isKeepAlive)
+						next();
+					else
+						stage = 2;
+					listen();
+				} else if (stage == 2) {
+					closeFile();
 					reg.listenWrite(() -> null, null);
-				else if (stage == 3)
-					reg.listen(0, null, null, null);
+				} else if (stage == 3) {
+					closeFile();
+					reg.close();
+				}
+			}
+
+			/**
+			 * Serves the next request on the same connection, starting with those
+			 * already pipelined into the read buffer.
+			 */
+			private void next() {
+				stage = 0;
+				write = null;
+				eater = handleRequest();
+				activeTime = System.currentTimeMillis();
+				eat();
+			}
+
+			/**
+			 * Keeps one timer for the connection. When it fires, the connection is
+			 * closed if it has been waiting for a request since the idle timeout;
+			 * otherwise it sleeps again till the timeout could be due.
+			 */
+			private void idle() {
+				reg.sleep(max(1l, activeTime + idleTimeout - System.currentTimeMillis()), () -> {
+					if (stage == 0 && activeTime + idleTimeout <= System.currentTimeMillis()) {
+						stage = 2;
+						listen();
+					} else if (stage < 2)
+						idle();
+				});
 			}
 
 			private void read(Bytes in) {
 				if (in != null) {
+					activeTime = System.currentTimeMillis();
 					br = br.append(in);
-					while (eater.g())
-						;
+					eat();
 				} else
-					write = Puller.empty(); // closes connection
+					stage = 2; // closes connection
+			}
+
+			private void eat() {
+				while (stage == 0 && eater.g())
+					;
 			}
 
 			private void written(int n) {
 				if (0 <= n)
 					bw = bw.range(n);
 				else
-					stage = 3;
+					failed();
 				listen();
 			}
 
+			private void transferred(int n) {
+				if (0 <= n)
+					position += n;
+				else
+					failed();
+				listen();
+			}
+
+			private void failed() {
+				stage = 3;
+				position = end;
+				closeFile();
+			}
+
+			private void closeFile() {
+				if (file != null) {
+					Close.quietly(file);
+					file = null;
+				}
+			}
+
 			private void handleRequest1stLine(String line, Sink<Response> cb) {
 				var hrhl = handleRequestHeaderLine(lines -> handleRequestBody(line, lines, cb));
 				eater = () -> parseLine(hrhl);
@@ -158,6 +286,7 @@ public class HttpNio {
 
 				var cl = request.headers.getOpt("Content-Length").map(Long::parseLong);
 				var te = Equals.ab(request.headers.getOpt("Transfer-Encoding"), Opt.of("chunked"));
+				isKeepAlive = !Equals.ab(request.headers.getOpt("Connection"), Opt.of("close"));
 				Log_.info(request.getLogString());
 
 				if (te)
@@ -176,16 +305,17 @@ public class HttpNio {
 					long contentLength, //
 					Sink<Response> cb) {
 				return new Source<>() {
-					private int n;
+					private long n;
 
 					public Boolean g() {
-						body.f(br);
-						var isOpen = br != null;
-						if (isOpen) {
-							n += br.size();
-							br = Bytes.empty;
+						// leaves any pipelined request in the buffer
+						var size = (int) min(br.size(), contentLength - n);
+						if (0 < size) {
+							body.f(br.range(0, size));
+							br = br.range(size);
+							n += size;
 						}
-						if (!isOpen || contentLength <= n)
+						if (contentLength <= n)
 							cb.f(handler.handle(request));
 						return false;
 					}
@@ -201,14 +331,18 @@ public class HttpNio {
 
 							for (var i1 = i0 + 1 + size; i1 < br.size(); i1++)
 								if (br.get(i1) == 10) {
-									var chunk = br.range(i0 + 1, i1);
-									br = br.range(i1);
-									body.f(chunk);
-									return true;
+									var chunk = br.range(i0 + 1, i0 + 1 + size);
+									br = br.range(i1 + 1);
+									if (0 < size) {
+										body.f(chunk);
+										return true;
+									} else {
+										cb.f(handler.handle(request));
+										return false;
+									}
 								}
 
-							if (size == 0)
-								cb.f(handler.handle(request));
+							return false;
 						}
 
 					return false;
@@ -228,6 +362,7 @@ public class HttpNio {
 			}
 		};
 
+		rw.idle();
 		rw.listen();
 	}
 
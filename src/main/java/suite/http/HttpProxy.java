@@ -1,8 +1,12 @@
 package suite.http;
 
+import static primal.statics.Fail.fail;
 import static primal.statics.Rethrow.ex;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.List;
 
 import primal.MoreVerbs.Read;
 import primal.MoreVerbs.Split;
@@ -11,8 +15,11 @@ import primal.Verbs.ReadLine;
 import primal.Verbs.Start;
 import primal.fp.Funs.Fun;
 import primal.os.Log_;
+import primal.primitive.adt.Bytes;
 import primal.primitive.adt.pair.IntObjPair;
 import suite.http.Http.Request;
+import suite.net.nio.NioDispatch;
+import suite.net.nio.NioDispatch.AsyncRw;
 import suite.os.Listen;
 import suite.util.Copy;
 
@@ -81,6 +88,69 @@ public class HttpProxy {
 		});
 	}
 
+	/**
+	 * Forwards connections on a single selector thread. The target is picked by
+	 * the request line; the rest of the connection is spliced as is.
+	 */
+	public void serveNio() {
+		try (var dispatch = new NioDispatch()) {
+			dispatch.asyncListen(port, rw -> readRequestLine(dispatch, rw, Bytes.empty));
+			dispatch.run();
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	private void readRequestLine(NioDispatch dispatch, AsyncRw rw0, Bytes bytes0) {
+		rw0.read(in -> {
+			var bytes = bytes0.append(in);
+			var i = 0;
+
+			while (i < bytes.size() && bytes.get(i) != 10)
+				i++;
+
+			if (i < bytes.size()) {
+				var line = new String(bytes.range(0, i).toArray(), Utf8.charset).trim();
+				var array = line.split(" ");
+				Log_.info("PROXY " + line);
+
+				if (array.length != 3) {
+					Log_.warn("malformed request line " + line);
+					rw0.close();
+					return;
+				}
+
+				var url = array[1];
+				var pp = Split.string(url, "://");
+				var path = pp != null ? Split.strl(pp.v, "/").v : url;
+				InetSocketAddress address;
+
+				try {
+					address = target.apply(path).map((port1, host1) -> new InetSocketAddress(host1, port1));
+				} catch (Exception ex) {
+					Log_.error(ex);
+					rw0.close();
+					return;
+				}
+
+				var head = Bytes.of((line + "\r\nConnection: close\r\n").getBytes(Utf8.charset));
+				var rest = bytes.range(i + 1);
+
+				dispatch.asyncConnect(address, rw1 -> dispatch //
+						.new BufferRw(rw1) //
+						.writeAll(List.of(head, rest), v -> dispatch.splice(rw0, rw1, () -> {
+						}), ex -> {
+							rw0.close();
+							rw1.close();
+						}), ex -> {
+							Log_.error(ex);
+							rw0.close();
+						});
+			} else
+				readRequestLine(dispatch, rw0, bytes);
+		}, ex -> rw0.close());
+	}
+
 	private Socket connect(String path) {
 		return target.apply(path).map((port1, host1) -> ex(() -> new Socket(host1, port1)));
 	}
@@ -3,8 +3,11 @@ package suite.lp;
 import primal.fp.Funs.Sink;
 import primal.fp.Funs.Source;
 import suite.Suite;
+import suite.lp.doer.Tabling;
 import suite.lp.kb.RuleSet;
+import suite.node.Atom;
 import suite.node.Node;
+import suite.node.tree.TreeTuple;
 import suite.node.util.Singleton;
 
 public class Configuration {
@@ -18,6 +21,7 @@ public class Configuration {
 		private boolean isTrace;
 		private Source<Node> source;
 		private Sink<Node> sink;
+		private transient Tabling tabling;
 
 		public ProverCfg() {
 			this(Suite.newRuleSet());
@@ -52,6 +56,28 @@ public class Configuration {
 
 		public void setRuleSet(RuleSet ruleSet) {
 			this.ruleSet = ruleSet;
+			resetTabling();
+		}
+
+		/**
+		 * Answer tables of tabled predicates, kept for this configuration until
+		 * the rules are changed.
+		 */
+		public synchronized Tabling tabling() {
+			if (tabling == null)
+				tabling = new Tabling(ruleSet.searchRule(TreeTuple.of(Tabling.predicate, Atom.NIL)));
+			return tabling;
+		}
+
+		/**
+		 * Discards the answer tables. To be called after the rules are changed;
+		 * the rule set predicates do so themselves.
+		 */
+		public synchronized void resetTabling() {
+			if (tabling != null) {
+				tabling.invalidate();
+				tabling = null;
+			}
 		}
 
 		public boolean isTrace() {
@@ -25,6 +25,7 @@ public class Prover {
 
 	private ProverCfg config;
 	private ProveTracer tracer;
+	private Tabling tabling;
 	private SystemPredicates systemPredicates = new SystemPredicates(this);
 
 	private static Node OK = Atom.NIL;
@@ -171,6 +172,24 @@ public class Prover {
 	 * @return The chained node.
 	 */
 	private Node expand(Node query) {
+		if (tabling == null || !tabling.isValid())
+			tabling = config.tabling();
+
+		if (tabling.isTabled(query)) {
+			var answers = tabling.answers(query, (goal, sink) -> {
+				var prover1 = new Prover(this);
+				prover1.elaborate(Tree.ofAnd(new Suspend(() -> prover1.expandRules(goal)), new Data<Source<Boolean>>(() -> {
+					sink.run();
+					return Boolean.FALSE;
+				})));
+			});
+
+			return expandAnswers(query, answers, 0);
+		} else
+			return expandRules(query);
+	}
+
+	private Node expandRules(Node query) {
 		var alt0 = alt;
 
 		Data<Source<Boolean>> cut = new Data<>(() -> {
@@ -191,6 +210,16 @@ public class Prover {
 		});
 	}
 
+	private Node expandAnswers(Node query, List<Node> answers, int i) {
+		return new Suspend(() -> {
+			if (i < answers.size()) {
+				var answer = new Cloner().clone(answers.get(i));
+				return Tree.ofOr(Tree.of(BaseOp.EQUAL_, query, answer), expandAnswers(query, answers, i + 1));
+			} else
+				return FAIL;
+		});
+	}
+
 	/**
 	 * Performs binding of two items.
 	 *
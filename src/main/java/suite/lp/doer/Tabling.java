@@ -0,0 +1,161 @@
+package suite.lp.doer;
+
+import static java.lang.Math.min;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import suite.lp.kb.Prototype;
+import suite.lp.kb.Rule;
+import suite.node.Atom;
+import suite.node.Node;
+import suite.node.Tree;
+import suite.node.io.TermOp;
+import suite.node.tree.TreeTuple;
+import suite.node.util.TermKey;
+
+/**
+ * Tabled resolution for predicates declared by ":- table pred/arity".
+ *
+ * Calls are keyed by variant; each call has an answer table, which is filled
+ * by proving the clauses repeatedly until no more answers are found. A
+ * recursive variant call consumes the answers found so far, instead of going
+ * into the clauses again. The table of a call depending on an older,
+ * incomplete call is completed together with it, when that leader reaches
+ * the fixed point (linear tabling).
+ *
+ * Answers are kept by the prover configuration, and discarded with the whole
+ * object when rules are asserted, retracted or declared tabled.
+ *
+ * @author ywsing
+ */
+public class Tabling {
+
+	public static Atom predicate = Atom.of("table.predicate");
+
+	private Set<Prototype> prototypes;
+	private Map<TermKey, Table> tables = new HashMap<>();
+	private List<Table> stack = new ArrayList<>();
+	private List<Table> incompletes = new ArrayList<>();
+	private int nAnswers;
+	private volatile boolean isValid = true;
+
+	public interface Solver {
+
+		/**
+		 * Proves the goal by the clauses, running the sink for each solution
+		 * while the goal is bound to it.
+		 */
+		public void solve(Node goal, Runnable sink);
+	}
+
+	private class Table {
+		private Node call;
+		private List<Node> answers = new ArrayList<>();
+		private Set<TermKey> keys = new HashSet<>();
+		private boolean isComplete;
+		private int depth = -1; // position in the stack while being evaluated
+		private int leader;
+
+		private Table(Node call) {
+			this.call = call;
+		}
+	}
+
+	public static Node declaration(Node p0) {
+		var tree = Tree.decompose(p0, TermOp.DIVIDE);
+		return TreeTuple.of(predicate, tree != null ? tree.getLeft() : p0);
+	}
+
+	public static Set<Prototype> prototypes(List<Rule> rules) {
+		var prototype = Prototype.of(predicate);
+		var prototypes = new HashSet<Prototype>();
+		for (var rule : rules)
+			if (prototype.equals(Prototype.of(rule.head)))
+				prototypes.add(Prototype.of(rule.head, 1));
+		return prototypes;
+	}
+
+	public Tabling(List<Rule> declarations) {
+		prototypes = prototypes(declarations);
+	}
+
+	public void invalidate() {
+		isValid = false;
+	}
+
+	/**
+	 * @return false if the rules are changed since this object is created.
+	 */
+	public boolean isValid() {
+		return isValid;
+	}
+
+	public boolean isTabled(Node query) {
+		return !prototypes.isEmpty() && prototypes.contains(Prototype.of(query));
+	}
+
+	/**
+	 * @return the answers of the call; complete, or found so far if the call
+	 *         is recursive.
+	 */
+	public synchronized List<Node> answers(Node query, Solver solver) {
+		var call = new Cloner().clone(query);
+		var key = new TermKey(call);
+		var table = tables.get(key);
+
+		if (table == null)
+			tables.put(key, table = new Table(call));
+
+		if (!table.isComplete)
+			if (0 <= table.depth) { // recursive; the callers up to it form a component
+				var top = stack.get(stack.size() - 1);
+				top.leader = min(top.leader, table.depth);
+			} else
+				evaluate(table, solver);
+
+		return table.isComplete ? table.answers : List.copyOf(table.answers);
+	}
+
+	private void evaluate(Table table, Solver solver) {
+		var mark = incompletes.size();
+
+		table.depth = table.leader = stack.size();
+		stack.add(table);
+
+		try {
+			int nAnswers0;
+
+			do {
+				nAnswers0 = nAnswers;
+				var goal = new Cloner().clone(table.call);
+				solver.solve(goal, () -> {
+					var answer = new Cloner().clone(goal);
+					if (table.keys.add(new TermKey(answer))) {
+						table.answers.add(answer);
+						nAnswers++;
+					}
+				});
+			} while (nAnswers0 != nAnswers);
+		} finally {
+			stack.remove(stack.size() - 1);
+			table.depth = -1;
+		}
+
+		if (table.leader < stack.size()) { // left for the leader to complete
+			var parent = stack.get(stack.size() - 1);
+			parent.leader = min(parent.leader, table.leader);
+			incompletes.add(table);
+		} else {
+			table.isComplete = true;
+			for (var table_ : incompletes.subList(mark, incompletes.size()))
+				table_.isComplete = true;
+			incompletes.subList(mark, incompletes.size()).clear();
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+package suite.lp.kb;
+
+/**
+ * Rule set filled from a rule set image. The decoded rules are fresh already,
+ * so they are indexed without being cloned again.
+ *
+ * @author ywsing
+ */
+public class ImageRuleSet extends DoubleIndexedRuleSet {
+
+	private boolean isLoading;
+
+	public ImageRuleSet(RuleSetImage image) {
+		isLoading = true;
+		for (var rule : image.rules())
+			addRule(rule);
+		isLoading = false;
+	}
+
+	@Override
+	protected Rule admit(Rule rule) {
+		return isLoading ? rule : super.admit(rule);
+	}
+
+}
@@ -13,14 +13,12 @@ public class LinearRuleSet implements RuleSet {
 
 	@Override
 	public void addRule(Rule rule) {
-		rule = new Cloner().clone(rule);
-		rules.add(rule);
+		rules.add(admit(rule));
 	}
 
 	@Override
 	public void addRuleToFront(Rule rule) {
-		rule = new Cloner().clone(rule);
-		rules.add(0, rule);
+		rules.add(0, admit(rule));
 	}
 
 	@Override
@@ -38,6 +36,10 @@ public class LinearRuleSet implements RuleSet {
 		return rules;
 	}
 
+	protected Rule admit(Rule rule) {
+		return new Cloner().clone(rule);
+	}
+
 	@Override
 	public boolean equals(Object object) {
 		return object instanceof LinearRuleSet lrs && Equals.ab(rules, lrs.rules);
@@ -41,10 +41,15 @@ public class Prototype implements Comparable<Prototype> {
 		return of(rule.head, n);
 	}
 
+	/**
+	 * Indexes by the first atom of the n-th argument.
+	 *
+	 * @return null if the argument could be anything.
+	 */
 	public static Prototype of(Node node, int n) {
-		for (var i = 0; i < n; i++) {
+		for (var i = 0; node != null && i < n; i++) {
 			var tree = decompose(node);
-			node = tree != null ? tree.getRight() : Atom.NIL;
+			node = tree != null ? tree.getRight() : isIndexable(node.finalNode()) ? Atom.NIL : null;
 		}
 
 		return node != null ? Prototype.of(node) : null;
@@ -58,12 +63,17 @@ public class Prototype implements Comparable<Prototype> {
 			node = t0.getLeft();
 		}
 
-		var indexable = !ProverConstant.isVariant(node) && !(node instanceof Reference);
-		return indexable ? new Prototype(node) : null;
+		node = node.finalNode();
+		return isIndexable(node) ? new Prototype(node) : null;
+	}
+
+	private static boolean isIndexable(Node node) {
+		return !ProverConstant.isVariant(node) && !(node instanceof Reference);
 	}
 
 	private static Tree decompose(Node node) {
 		Tree tree;
+		node = node.finalNode();
 		if ((tree = Tree.decompose(node)) != null)
 			return tree;
 		else if (node instanceof Tuple tuple) {
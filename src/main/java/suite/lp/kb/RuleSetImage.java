@@ -0,0 +1,330 @@
+package suite.lp.kb;
+
+import static primal.statics.Fail.fail;
+import static primal.statics.Rethrow.ex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import primal.Verbs.Get;
+import primal.adt.IdentityKey;
+import primal.fp.Funs.Source;
+import primal.os.Log_;
+import suite.cfg.HomeDir;
+import suite.node.Atom;
+import suite.node.Int;
+import suite.node.Node;
+import suite.node.Reference;
+import suite.node.Str;
+import suite.node.Tree;
+import suite.node.Tuple;
+import suite.node.io.TermOp;
+import suite.os.FileUtil;
+
+/**
+ * Snapshot of the rules of a rule set in a binary file, so that the rule
+ * files need not be parsed and imported again when a program starts.
+ *
+ * Nodes are hash-consed by structure and refer to each other by index; atom
+ * names, strings and operator names are kept once in a name table. The file
+ * is memory-mapped when loaded, and all rules are decoded at once.
+ *
+ * Only the rules are kept; side effects of the directives in the rule files
+ * are not replayed when an image is loaded.
+ *
+ * @author ywsing
+ */
+public class RuleSetImage {
+
+	private static int magic = 0x534c5249; // SLRI
+	private static int version = 2;
+
+	private ByteBuffer bb;
+	private String[] names;
+	private Node[] nodes;
+	private Rule[] rules;
+	private int nodesPosition, offsetsPosition, rulesPosition;
+
+	/**
+	 * Imports the rule files, through an image cached in the home directory.
+	 * The image is discarded when any rule file is modified, or when the
+	 * classes are built again.
+	 */
+	public static RuleSet cached(List<String> toImports, Source<RuleSet> source) {
+		var root = Paths.get(FileUtil.suiteDir(), "src", "main", "ll");
+
+		if (Files.isDirectory(root)) {
+			var fingerprint = (fingerprint(root) * 31 + buildStamp()) * 31 + toImports.hashCode();
+			var key = String.join("+", toImports).replaceAll("[^A-Za-z0-9.+-]", "_");
+			var path = HomeDir.dir("rule-set-image").resolve(key + ".rsi");
+			return cached(path, fingerprint, source);
+		} else
+			return source.g();
+	}
+
+	/**
+	 * Loads the rule set from the image at the path, or from the source if the
+	 * image is missing, stale or corrupt; in which case the image is written
+	 * again.
+	 */
+	static RuleSet cached(Path path, long fingerprint, Source<RuleSet> source) {
+		RuleSet rs;
+
+		// a corrupt image fails while being decoded
+		try {
+			var image = Files.exists(path) ? load(path, fingerprint) : null;
+			rs = image != null ? new ImageRuleSet(image) : null;
+		} catch (Exception ex) {
+			Log_.error(ex);
+			delete(path);
+			rs = null;
+		}
+
+		if (rs == null) {
+			rs = source.g();
+			try {
+				save(path, fingerprint, rs.getRules());
+			} catch (Exception ex) {
+				Log_.error(ex);
+			}
+		}
+
+		return rs;
+	}
+
+	public static RuleSetImage load(Path path, long fingerprint) throws IOException {
+		ByteBuffer bb;
+
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			bb = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		var isValid = 16 <= bb.limit() //
+				&& bb.getInt() == magic //
+				&& bb.getInt() == version //
+				&& bb.getLong() == fingerprint;
+
+		return isValid ? new RuleSetImage(bb) : null;
+	}
+
+	public static void save(Path path, long fingerprint, List<Rule> rules) throws IOException {
+		var writer = new Writer();
+		var heads = new int[rules.size()];
+		var tails = new int[rules.size()];
+
+		for (var i = 0; i < rules.size(); i++) {
+			var rule = rules.get(i);
+			heads[i] = writer.node(rule.head);
+			tails[i] = writer.node(rule.tail);
+		}
+
+		var tmp = path.resolveSibling(path.getFileName() + "." + Get.temp());
+
+		try (var dos = new DataOutputStream(Files.newOutputStream(tmp))) {
+			dos.writeInt(magic);
+			dos.writeInt(version);
+			dos.writeLong(fingerprint);
+
+			dos.writeInt(writer.names.size());
+			for (var name : writer.names) {
+				var bs = name.getBytes(StandardCharsets.UTF_8);
+				dos.writeInt(bs.length);
+				dos.write(bs);
+			}
+
+			var bs = writer.baos.toByteArray();
+			dos.writeInt(writer.offsets.size());
+			dos.writeInt(bs.length);
+			for (var offset : writer.offsets)
+				dos.writeInt(offset);
+			dos.write(bs);
+
+			dos.writeInt(rules.size());
+			for (var i = 0; i < rules.size(); i++) {
+				dos.writeInt(heads[i]);
+				dos.writeInt(tails[i]);
+			}
+		}
+
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void delete(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException ex) {
+			Log_.error(ex);
+		}
+	}
+
+	// the classes parsing and encoding the rules, in a directory or a jar
+	private static long buildStamp() {
+		var codeSource = RuleSetImage.class.getProtectionDomain().getCodeSource();
+
+		if (codeSource != null) {
+			var path = ex(() -> Paths.get(codeSource.getLocation().toURI()));
+			return Files.isDirectory(path) ? fingerprint(path) : stamp(0l, path);
+		} else
+			return 0l;
+	}
+
+	private static long fingerprint(Path root) {
+		return FileUtil.findPaths(root).sort(Path::compareTo).fold(0l, RuleSetImage::stamp);
+	}
+
+	private static long stamp(long h, Path path) {
+		return ex(() -> ((h * 31 + path.hashCode()) * 31 + Files.size(path)) * 31 + Files.getLastModifiedTime(path).toMillis());
+	}
+
+	private static class Writer {
+		private List<String> names = new ArrayList<>();
+		private Map<String, Integer> nameIds = new HashMap<>();
+		private Map<Object, Integer> ids = new HashMap<>();
+		private List<Integer> offsets = new ArrayList<>();
+		private ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		private DataOutputStream dos = new DataOutputStream(baos);
+
+		private int node(Node node) throws IOException {
+			node = node.finalNode();
+
+			Tree tree;
+			Object key;
+			int[] children;
+
+			if ((tree = Tree.decompose(node)) != null) {
+				var name = tree.getOperator().name_();
+				if (TermOp.find(name) != tree.getOperator())
+					fail("unknown operator " + name);
+				children = new int[] { name(name), node(tree.getLeft()), node(tree.getRight()), };
+				key = List.of('t', children[0], children[1], children[2]);
+			} else if (node instanceof Tuple tuple) {
+				children = new int[tuple.nodes.length];
+				for (var i = 0; i < children.length; i++)
+					children[i] = node(tuple.nodes[i]);
+				key = List.of('u', Arrays.toString(children));
+			} else if (node instanceof Atom || node instanceof Int || node instanceof Str) {
+				children = null;
+				key = node;
+			} else if (node instanceof Reference) {
+				children = null;
+				key = IdentityKey.of(node);
+			} else
+				return fail("cannot save " + node.getClass().getSimpleName());
+
+			var id = ids.get(key);
+
+			if (id == null) {
+				ids.put(key, id = offsets.size());
+				offsets.add(dos.size());
+
+				if (tree != null) {
+					dos.writeByte('t');
+					for (var child : children)
+						dos.writeInt(child);
+				} else if (node instanceof Tuple) {
+					dos.writeByte('u');
+					dos.writeInt(children.length);
+					for (var child : children)
+						dos.writeInt(child);
+				} else if (node instanceof Atom atom) {
+					dos.writeByte('a');
+					dos.writeInt(name(atom.name));
+				} else if (node instanceof Int i) {
+					dos.writeByte('i');
+					dos.writeInt(i.number);
+				} else if (node instanceof Str str) {
+					dos.writeByte('s');
+					dos.writeInt(name(str.value));
+				} else
+					dos.writeByte('r');
+			}
+
+			return id;
+		}
+
+		private int name(String name) {
+			return nameIds.computeIfAbsent(name, name_ -> {
+				names.add(name_);
+				return names.size() - 1;
+			});
+		}
+	}
+
+	private RuleSetImage(ByteBuffer bb) {
+		this.bb = bb;
+
+		names = new String[bb.getInt()];
+		for (var i = 0; i < names.length; i++) {
+			var bs = new byte[bb.getInt()];
+			bb.get(bs);
+			names[i] = new String(bs, StandardCharsets.UTF_8);
+		}
+
+		nodes = new Node[bb.getInt()];
+		var size = bb.getInt();
+		offsetsPosition = bb.position();
+		nodesPosition = offsetsPosition + 4 * nodes.length;
+		bb.position(nodesPosition + size);
+
+		rules = new Rule[bb.getInt()];
+		rulesPosition = bb.position();
+	}
+
+	public List<Rule> rules() {
+		var list = new ArrayList<Rule>(rules.length);
+		for (var i = 0; i < rules.length; i++)
+			list.add(rule(i));
+		return list;
+	}
+
+	private Rule rule(int index) {
+		var rule = rules[index];
+		if (rule == null) {
+			var p = rulesPosition + 8 * index;
+			rules[index] = rule = new Rule(node(bb.getInt(p)), node(bb.getInt(p + 4)));
+		}
+		return rule;
+	}
+
+	private Node node(int id) {
+		var node = nodes[id];
+
+		if (node == null) {
+			var p = nodesPosition + bb.getInt(offsetsPosition + 4 * id);
+			var ch = (char) bb.get(p++);
+
+			nodes[id] = node = switch (ch) {
+			case 'a' -> Atom.of(names[bb.getInt(p)]);
+			case 'i' -> Int.of(bb.getInt(p));
+			case 'r' -> new Reference();
+			case 's' -> new Str(names[bb.getInt(p)]);
+			case 't' -> Tree.of(TermOp.find(names[bb.getInt(p)]), node(bb.getInt(p + 4)), node(bb.getInt(p + 8)));
+			case 'u' -> {
+				var children = new Node[bb.getInt(p)];
+				for (var i = 0; i < children.length; i++)
+					children[i] = node(bb.getInt(p + 4 + 4 * i));
+				yield Tuple.of(children);
+			}
+			default -> fail("unknown type " + ch);
+			};
+		}
+
+		return node;
+	}
+
+}
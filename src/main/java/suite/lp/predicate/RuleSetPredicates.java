@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import suite.Suite;
 import suite.lp.doer.Binder;
 import suite.lp.doer.Prover;
+import suite.lp.doer.Tabling;
 import suite.lp.kb.CompositeRuleSet;
 import suite.lp.kb.Prototype;
 import suite.lp.kb.Rule;
@@ -22,11 +23,13 @@ public class RuleSetPredicates {
 
 	public BuiltinPredicate asserta = PredicateUtil.p1((prover, p0) -> {
 		prover.ruleSet().addRuleToFront(Rule.of(p0));
+		prover.config().resetTabling();
 		return true;
 	});
 
 	public BuiltinPredicate assertz = PredicateUtil.p1((prover, p0) -> {
 		prover.ruleSet().addRule(Rule.of(p0));
+		prover.config().resetTabling();
 		return true;
 	});
 
@@ -41,7 +44,13 @@ public class RuleSetPredicates {
 		return prover.bind(TreeUtil.buildUp(TermOp.NEXT__, nodes), p0);
 	});
 
-	public BuiltinPredicate importPredicate = PredicateUtil.p1((prover, p0) -> prover.ruleSet().importFrom(p0));
+	public BuiltinPredicate importPredicate = PredicateUtil.p1((prover, p0) -> {
+		try {
+			return prover.ruleSet().importFrom(p0);
+		} finally {
+			prover.config().resetTabling();
+		}
+	});
 
 	public BuiltinPredicate importUrl = PredicateUtil.p1((prover, p0) -> {
 		var url = Formatter.display(p0);
@@ -49,6 +58,8 @@ public class RuleSetPredicates {
 			return prover.ruleSet().importUrl(url);
 		} catch (Exception ex) {
 			return fail("exception when importing " + url, ex);
+		} finally {
+			prover.config().resetTabling();
 		}
 	});
 
@@ -65,6 +76,7 @@ public class RuleSetPredicates {
 
 	public BuiltinPredicate retract = PredicateUtil.p1((prover, p0) -> {
 		prover.ruleSet().removeRule(Rule.of(p0));
+		prover.config().resetTabling();
 		return true;
 	});
 
@@ -87,6 +99,13 @@ public class RuleSetPredicates {
 		for (var rule : targets)
 			ruleSet.removeRule(rule);
 
+		prover.config().resetTabling();
+		return true;
+	});
+
+	public BuiltinPredicate table = PredicateUtil.p1((prover, p0) -> {
+		prover.ruleSet().addRule(Rule.of(Tabling.declaration(p0)));
+		prover.config().resetTabling();
 		return true;
 	});
 
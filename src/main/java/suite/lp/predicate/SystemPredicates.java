@@ -125,6 +125,7 @@ public class SystemPredicates {
 		addPredicate("retract", ruleSetPredicates.retract);
 		addPredicate("retract.all", ruleSetPredicates.retractAll);
 		addPredicate("rules", ruleSetPredicates.getAllRules);
+		addPredicate("table", ruleSetPredicates.table);
 		addPredicate("with", ruleSetPredicates.with);
 	}
 
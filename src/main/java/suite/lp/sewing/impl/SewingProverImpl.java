@@ -1,13 +1,20 @@
 package suite.lp.sewing.impl;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static primal.statics.Fail.fail;
 import static primal.statics.Rethrow.ex;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import primal.MoreVerbs.Read;
 import primal.Verbs.Equals;
@@ -18,12 +25,14 @@ import primal.Verbs.Reverse;
 import primal.Verbs.Right;
 import primal.adt.Mutable;
 import primal.adt.map.ListMultimap;
+import primal.fp.Funs.Fun;
 import primal.fp.Funs.Sink;
 import primal.fp.Funs.Source;
 import primal.os.Log_;
 import primal.persistent.PerList;
 import primal.streamlet.Streamlet;
 import suite.Suite;
+import suite.concurrent.Threads;
 import suite.lp.Configuration.ProverCfg;
 import suite.lp.compile.impl.CompileExpressionImpl;
 import suite.lp.doer.Binder;
@@ -34,6 +43,7 @@ import suite.lp.doer.Generalizer;
 import suite.lp.doer.Prover;
 import suite.lp.doer.ProverConstant;
 import suite.lp.doer.ProverFactory;
+import suite.lp.doer.Tabling;
 import suite.lp.kb.Prototype;
 import suite.lp.kb.Rule;
 import suite.lp.kb.RuleSet;
@@ -65,7 +75,10 @@ import suite.streamlet.As;
  *
  * - rules containing wild searches that are unable to derive prototype from;
  *
- * - asserts or retracts.
+ * - asserts or retracts;
+ *
+ * - table declarations added after the first proof; the tabled predicates are
+ * fixed when the rules are compiled.
  *
  * @author ywsing
  */
@@ -73,12 +86,22 @@ public class SewingProverImpl implements ProverFactory {
 
 	private static Rewrite rw = new Rewrite();
 
+	// predicates whose effects must happen in search order, or not at all
+	private static List<Atom> impures = Read //
+			.each("assert", "asserta", "assertz", "dump", "dump.stack", "exec", "exit", "file.write", "import", "import.url",
+					"log", "nl", "persist.save", "retract", "retract.all", "sink", "source", "table", "write", "write.error") //
+			.map(Atom::of) //
+			.toList();
+
 	private enum TraceLevel {
 		NONE, STACK, TRACE,
 	}
 
 	private SystemPredicates systemPredicates;
 	private Map<Prototype, Boolean> isHasCutByPrototype;
+	private Set<Prototype> tabledPrototypes; // fixed by compileAll()
+	private Map<Prototype, ClauseIndex<List<Trampoline>>> cutFreeIndexByPrototype = new HashMap<>();
+	private Threads threads;
 	private ListMultimap<Prototype, Rule> rules = new ListMultimap<>();
 	private Map<Prototype, Mutable<Cps>> cpsByPrototype = new HashMap<>();
 	private Map<Prototype, Mutable<Trampoline>> trampolineByPrototype = new HashMap<>();
@@ -131,7 +154,9 @@ public class SewingProverImpl implements ProverFactory {
 		private PerList<Trampoline> rems = PerList.end(); // continuations
 		private PerList<Trampoline> alts = PerList.end(); // alternatives
 		private Prover prover;
+		private Tabling tabling; // cached, as the configuration's is synchronized
 		private Debug debug = new Debug("", PerList.end());
+		private boolean isParallel; // could fork find.all goals; only the root runtime
 
 		private void trampoline() {
 			while (!alts.isEmpty()) {
@@ -154,6 +179,7 @@ public class SewingProverImpl implements ProverFactory {
 
 		private Runtime(Runtime rt, Trampoline tr) {
 			this(rt.env, rt.prover.config(), tr);
+			tabling = rt.tabling;
 		}
 
 		private Runtime(ProverCfg pc, Trampoline tr) {
@@ -166,6 +192,12 @@ public class SewingProverImpl implements ProverFactory {
 			prover = new Prover(pc, null, trail);
 		}
 
+		private Tabling tabling() {
+			if (tabling == null || !tabling.isValid())
+				tabling = prover.config().tabling();
+			return tabling;
+		}
+
 		private void cont(Cps cps) {
 			while (cps != null)
 				cps = cps.cont(this);
@@ -181,12 +213,111 @@ public class SewingProverImpl implements ProverFactory {
 		}
 	}
 
+	/**
+	 * Selects the clauses that might match a call, by the first bound argument
+	 * of the call that discriminates between the clauses. Clauses having a
+	 * variable in that argument are merged in, in source order. Indices are
+	 * built on their first use.
+	 */
+	private class ClauseIndex<T> {
+		private static final int maxPositions = 8;
+
+		private List<T> ts;
+		private Fun<List<T>, T> combine;
+		private Prototype[][] keysByPosition = new Prototype[maxPositions + 1][];
+		private List<Integer> positions = new ArrayList<>();
+		private AtomicReferenceArray<Map<Prototype, T>> indices = new AtomicReferenceArray<>(maxPositions + 1);
+		private T all;
+
+		private ClauseIndex(List<Rule> rules, List<T> ts, Fun<List<T>, T> combine) {
+			this.ts = ts;
+			this.combine = combine;
+
+			var selectivities = new int[maxPositions + 1];
+
+			if (6 <= rules.size())
+				for (var p = 1; p <= maxPositions; p++) {
+					var p_ = p;
+					var keys = Read.from(rules).map(rule -> Prototype.of(rule, p_)).toList();
+					keysByPosition[p] = keys.toArray(new Prototype[0]);
+					selectivities[p] = Read.from(keys).filter(Objects::nonNull).distinct().size();
+					if (1 < selectivities[p])
+						positions.add(p);
+				}
+
+			// the most discriminating arguments first
+			positions.sort(Comparator.comparingInt(p -> -selectivities[p]));
+
+			all = combine.apply(ts);
+		}
+
+		private boolean isIndexed() {
+			return !positions.isEmpty();
+		}
+
+		private T get(Node query) {
+			for (var p : positions) {
+				var key = Prototype.of(query, p);
+				if (key != null) {
+					var index = index(p);
+					var t = index.get(key);
+					return t != null ? t : index.get(null);
+				}
+			}
+			return all;
+		}
+
+		private Map<Prototype, T> index(int p) {
+			var index = indices.get(p);
+
+			if (index == null) {
+				var keys = keysByPosition[p];
+				var tsByKey = new HashMap<Prototype, List<T>>();
+
+				tsByKey.put(null, new ArrayList<>());
+				for (var key : keys)
+					if (key != null)
+						tsByKey.computeIfAbsent(key, key_ -> new ArrayList<>());
+
+				for (var i = 0; i < keys.length; i++)
+					if (keys[i] != null)
+						tsByKey.get(keys[i]).add(ts.get(i));
+					else
+						for (var ts_ : tsByKey.values())
+							ts_.add(ts.get(i));
+
+				var index_ = new HashMap<Prototype, T>();
+				for (var e : tsByKey.entrySet())
+					index_.put(e.getKey(), combine.apply(e.getValue()));
+
+				indices.compareAndSet(p, null, index_);
+				index = indices.get(p);
+			}
+
+			return index;
+		}
+	}
+
 	public SewingProverImpl(RuleSet rs) {
-		this(Prototype.multimap(rs));
+		this(rs, null);
+	}
+
+	/**
+	 * @param threads
+	 *            if not null, alternatives of find.all goals are explored in
+	 *            parallel on these threads.
+	 */
+	public SewingProverImpl(RuleSet rs, Threads threads) {
+		this(Prototype.multimap(rs), threads);
 	}
 
 	public SewingProverImpl(ListMultimap<Prototype, Rule> rules) {
+		this(rules, null);
+	}
+
+	public SewingProverImpl(ListMultimap<Prototype, Rule> rules, Threads threads) {
 		this.rules = rules;
+		this.threads = threads;
 		systemPredicates = new SystemPredicates(null);
 
 		if (!rules.containsKey(null))
@@ -201,75 +332,50 @@ public class SewingProverImpl implements ProverFactory {
 		return pc -> {
 			var result = Mutable.of(false);
 
-			new Runtime(pc, rt -> {
+			var rt0 = new Runtime(pc, rt -> {
 				rt.pushRem(rt_ -> {
 					result.update(true);
 					return fail;
 				});
 				return tr;
-			}).trampoline();
+			});
+
+			rt0.isParallel = threads != null;
+			rt0.trampoline();
 
 			return result.value();
 		};
 	}
 
 	private void compileAll() {
-		isHasCutByPrototype = Read.fromMultimap(rules).mapValue(this::isHasCut).toMap();
+		tabledPrototypes = Tabling.prototypes(rules.get(Prototype.of(Tabling.predicate)));
+		isHasCutByPrototype = new HashMap<>(Read.fromMultimap(rules).mapValue(this::isHasCut).toMap());
+
+		// tabled calls are run by trampolines
+		for (var prototype : tabledPrototypes)
+			isHasCutByPrototype.put(prototype, true);
 
 		for (var e : Read.fromMultimap(rules)) {
 			var prototype = e.k;
 			var rules = new ArrayList<>(e.v);
 			var traceLevel = traceLevel(prototype);
 
-			// second-level indexing optimization
-			Map<Prototype, List<Rule>> rulesByProto1;
-
-			if (6 <= rules.size()) {
-				var rulesByProto_ = Read.from(rules).toListMap(rule -> Prototype.of(rule, 1));
-				rulesByProto1 = !rulesByProto_.containsKey(null) ? rulesByProto_ : null;
-			} else
-				rulesByProto1 = null;
-
 			if (isHasCutByPrototype.get(prototype)) {
-				var tr0 = compileTrRules(prototype, rules, traceLevel);
-				Trampoline tr;
-
-				if (rulesByProto1 != null) {
-					var trByProto1 = Read //
-							.from2(rulesByProto1) //
-							.mapValue(rules_ -> compileTrRules(prototype, rules_, traceLevel)) //
-							.toMap();
-
-					tr = rt -> {
-						var proto = Prototype.of(rt.query, 1);
-						if (proto != null) {
-							var tr_ = trByProto1.get(proto);
-							return tr_ != null ? tr_ : fail;
-						} else
-							return tr0;
-					};
-				} else
-					tr = tr0;
-
-				getTrampolineByPrototype(prototype).set(tr);
+				var trs = Read.from(rules).map(this::compileTrRule).toList();
+				var index = new ClauseIndex<>(rules, trs, trs_ -> compileTrRules(trs_, traceLevel));
+
+				if (!tabledPrototypes.contains(prototype) && Read.from(rules).isAll(rule -> !rw.contains(ProverConstant.cut, rule.tail)))
+					cutFreeIndexByPrototype.put(prototype, new ClauseIndex<>(rules, Read.from(trs).map(List::of).toList(), trss -> {
+						var trs_ = new ArrayList<Trampoline>();
+						for (var trs1 : trss)
+							trs_.addAll(trs1);
+						return trs_;
+					}));
+				getTrampolineByPrototype(prototype).set(index.isIndexed() ? rt -> index.get(rt.query) : index.all);
 			} else {
-				var cps0 = compileCpsRules(prototype, rules, traceLevel);
-				Cps cps;
-
-				if (rulesByProto1 != null) {
-					var cpsByProto1 = Read //
-							.from2(rulesByProto1) //
-							.mapValue(rules_ -> compileCpsRules(prototype, rules_, traceLevel)) //
-							.toMap();
-
-					cps = rt -> {
-						var proto = Prototype.of(rt.query, 1);
-						return proto != null ? cpsByProto1.get(proto) : cps0;
-					};
-				} else
-					cps = cps0;
-
-				getCpsByPrototype(prototype).set(cps);
+				var cpss = Read.from(rules).map(this::compileCpsRule).toList();
+				var index = new ClauseIndex<>(rules, cpss, this::compileCpsRules);
+				getCpsByPrototype(prototype).set(index.isIndexed() ? rt -> index.get(rt.query) : index.all);
 			}
 		}
 	}
@@ -281,16 +387,15 @@ public class SewingProverImpl implements ProverFactory {
 				.isAny(b -> b);
 	}
 
-	private Cps compileCpsRules(Prototype prototype, List<Rule> rules, TraceLevel traceLevel) {
-		var cpss = Read.from(rules).map(rule -> {
-			var generalizer = new Generalizer();
-			var head = generalizer.generalize(rule.head);
-			var tail = generalizer.generalize(rule.tail);
-			return compileCpsRule(head, tail);
-		});
+	private Cps compileCpsRules(List<Cps> cpss) {
+		return !cpss.isEmpty() ? saveEnvCps(orCps(Read.from(cpss))) : rt -> null;
+	}
 
-		var cps0 = orCps(cpss);
-		return saveEnvCps(cps0);
+	private Cps compileCpsRule(Rule rule) {
+		var generalizer = new Generalizer();
+		var head = generalizer.generalize(rule.head);
+		var tail = generalizer.generalize(rule.tail);
+		return compileCpsRule(head, tail);
 	}
 
 	private Cps compileCpsRule(Node head, Node tail) {
@@ -425,20 +530,20 @@ public class SewingProverImpl implements ProverFactory {
 		};
 	}
 
-	private Trampoline compileTrRules(Prototype prototype, List<Rule> rules, TraceLevel traceLevel) {
-		var trs = Read.from(rules).map(rule -> {
-			var generalizer = new Generalizer();
-			var head = generalizer.generalize(rule.head);
-			var tail = generalizer.generalize(rule.tail);
-			return compileTrRule(head, tail);
-		});
-
-		var tr0 = orTr(trs);
+	private Trampoline compileTrRules(List<Trampoline> trs, TraceLevel traceLevel) {
+		var tr0 = orTr(Read.from(trs));
 		var tr1 = cutBegin(tr0);
 		var tr2 = saveEnvTr(tr1);
 		return log(tr2, traceLevel);
 	}
 
+	private Trampoline compileTrRule(Rule rule) {
+		var generalizer = new Generalizer();
+		var head = generalizer.generalize(rule.head);
+		var tail = generalizer.generalize(rule.tail);
+		return compileTrRule(head, tail);
+	}
+
 	private Trampoline compileTrRule(Node head, Node tail) {
 		var bf = new SewingBinderImpl();
 		var p = bf.binder(head);
@@ -473,10 +578,16 @@ public class SewingProverImpl implements ProverFactory {
 			tr = compileTrCallPredicate(bf, predicate, m[2]);
 		} else if ((m = Suite.pattern("find.all .0 .1 .2").match(node)) != null) {
 			var f = bf.cloner(m[0]);
+			var g = bf.cloner(m[1]);
 			var tr1 = compileTr(bf, m[1]);
 			var p = bf.binder(m[2]);
-			var vs = new ArrayList<Node>();
 			tr = rt -> {
+				var vs0 = rt.isParallel ? findAllParallel(rt, f.apply(rt.env), g.apply(rt.env)) : null;
+
+				if (vs0 != null)
+					return p.test(rt, TreeUtil.buildUp(BaseOp.AND___, vs0)) ? okay : fail;
+
+				var vs = new ArrayList<Node>();
 				var restore = save(rt);
 				rt.pushRem(rt_ -> {
 					vs.add(new Cloner().clone(f.apply(rt_.env)));
@@ -651,6 +762,124 @@ public class SewingProverImpl implements ProverFactory {
 		return tr;
 	}
 
+	/**
+	 * Explores the alternatives of a find.all goal on the thread pool. They
+	 * come from the first conjunct of the goal: either a disjunction, or a call
+	 * to a predicate without cuts, whose clauses selected by the clause index
+	 * are split into a number of consecutive runs. Each branch proves its
+	 * alternative and the rest of the goal on its own copy of the goal, with
+	 * its own trail and environment. The answers are merged in the order of
+	 * the branches, as sequential search would give. Branches do not fork
+	 * further.
+	 *
+	 * Goals calling a side-effecting system predicate directly stay
+	 * sequential. Side effects of predicates called by the goal are not
+	 * detected; they may happen out of order, or in several threads at once.
+	 *
+	 * A pool worker running a prover does not fork, as it would otherwise
+	 * wait for tasks queued behind itself.
+	 *
+	 * @return null if the goal has no alternatives to explore in parallel.
+	 */
+	private List<Node> findAllParallel(Runtime rt, Node var, Node goal) {
+		if (threads.isWorker() //
+				|| rw.contains(ProverConstant.cut, goal) //
+				|| Read.from(impures).isAny(atom -> rw.contains(atom, goal)))
+			return null;
+
+		var vg = new Cloner().clone(Tree.of(TermOp.SEP___, var, goal));
+		var head = first(Tree.decompose(vg).getRight());
+		var nAlts = TreeUtil.breakdown(BaseOp.OR____, head).size();
+		var index = cutFreeIndexByPrototype.get(Prototype.of(head));
+		var trs = index != null ? index.get(head) : null;
+		var branches = new ArrayList<Fun<Node, Trampoline>>();
+
+		if (1 < nAlts)
+			for (var i = 0; i < nAlts; i++) {
+				var i_ = i;
+				branches.add(goal1 -> {
+					var alt = TreeUtil.breakdown(BaseOp.OR____, first(goal1)).toList().get(i_);
+					return compileTr(passThru, Tree.ofAnd(alt, rest(goal1)));
+				});
+			}
+		else if (trs != null && 1 < trs.size()) {
+			var nClauses = trs.size();
+			var nBranches = min(nClauses, 64);
+
+			for (var i = 0; i < nBranches; i++) {
+				var tr = orTr(Read.from(trs.subList(i * nClauses / nBranches, (i + 1) * nClauses / nBranches)));
+				branches.add(goal1 -> {
+					var tr1 = compileTr(passThru, rest(goal1));
+					return rt_ -> {
+						rt_.query = first(goal1);
+						rt_.pushRem(tr1);
+						return tr;
+					};
+				});
+			}
+		} else
+			return null;
+
+		var pc = rt.prover.config();
+		var results = new ArrayList<List<Node>>();
+		var latch = new CountDownLatch(branches.size());
+		var exception = new AtomicReference<Throwable>();
+
+		for (var branch : branches) {
+			var vs = new ArrayList<Node>();
+			results.add(vs);
+
+			threads.execute(() -> {
+				try {
+					var vg1 = Tree.decompose(new Cloner().clone(vg));
+					var var1 = vg1.getLeft();
+					var tr = branch.apply(vg1.getRight());
+
+					new Runtime(pc, rt_ -> {
+						rt_.pushRem(rt__ -> {
+							vs.add(new Cloner().clone(var1));
+							return fail;
+						});
+						return tr;
+					}).trampoline();
+				} catch (Throwable th) { // such as stack overflows; a lost branch would give partial answers
+					exception.compareAndSet(null, th);
+				} finally {
+					latch.countDown();
+				}
+			});
+		}
+
+		ex(() -> {
+			latch.await();
+			return latch;
+		});
+
+		var th = exception.get();
+
+		if (th == null) {
+			var vs = new ArrayList<Node>();
+			for (var vs_ : results)
+				vs.addAll(vs_);
+			return vs;
+		} else if (th instanceof RuntimeException ex)
+			throw ex;
+		else if (th instanceof Error error)
+			throw error;
+		else
+			throw new RuntimeException(th);
+	}
+
+	private Node first(Node goal) {
+		var tree = Tree.decompose(goal, BaseOp.AND___);
+		return tree != null ? tree.getLeft() : goal;
+	}
+
+	private Node rest(Node goal) {
+		var tree = Tree.decompose(goal, BaseOp.AND___);
+		return tree != null ? tree.getRight() : Atom.NIL;
+	}
+
 	private Trampoline andTr(Streamlet<Trampoline> trs) {
 		var trs_ = trs.toList();
 		if (trs_.size() == 0)
@@ -738,7 +967,25 @@ public class SewingProverImpl implements ProverFactory {
 		if (rules.containsKey(prototype)) {
 			var f = bf.cloner(node);
 			Trampoline tr;
-			if (isHasCutByPrototype.get(prototype)) {
+			if (tabledPrototypes.contains(prototype)) {
+				var mtr = getTrampolineByPrototype(prototype);
+				tr = rt -> {
+					var query = f.apply(rt.env);
+					var answers = rt.tabling().answers(query, (goal, sink) -> new Runtime(rt, rt_ -> {
+						rt_.query = goal;
+						rt_.pushRem(rt__ -> {
+							sink.run();
+							return fail;
+						});
+						return mtr.value();
+					}).trampoline());
+
+					return orTr(Read.from(answers).<Trampoline> map(answer -> rt_ -> {
+						var answer_ = new Cloner().clone(answer);
+						return Binder.bind(query, answer_, rt_.trail) ? okay : fail;
+					}));
+				};
+			} else if (isHasCutByPrototype.get(prototype)) {
 				var mtr = getTrampolineByPrototype(prototype);
 				tr = rt -> {
 					rt.query = f.apply(rt.env);
@@ -1,5 +1,9 @@
 package suite.net;
 
+import static primal.statics.Fail.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
@@ -10,6 +14,9 @@ import primal.MoreVerbs.Read;
 import primal.Verbs.Start;
 import primal.adt.BooMutable;
 import primal.os.Log_;
+import suite.concurrent.Backoff;
+import suite.net.nio.NioDispatch;
+import suite.net.nio.NioDispatch.AsyncRw;
 import suite.os.Listen;
 import suite.os.Listen.Io;
 import suite.util.Copy;
@@ -22,10 +29,69 @@ public class LoadBalancer {
 
 	private int port = 80;
 
+	private class Server {
+		private InetSocketAddress address;
+		private int nOutstandings;
+		private long downUntil;
+		private Backoff backoff = new Backoff();
+
+		private Server(String server) {
+			address = new InetSocketAddress(server, port);
+		}
+	}
+
 	public LoadBalancer(List<String> servers) {
 		this.servers = servers;
 	}
 
+	/**
+	 * Balances connections on a single selector thread, without any probing.
+	 * Each connection goes to the server with the fewest outstanding connections;
+	 * a server that fails to connect is skipped for a backing-off period.
+	 */
+	public void runNio() {
+		var servers_ = Read.from(servers).map(Server::new).toList();
+
+		try (var dispatch = new NioDispatch()) {
+			dispatch.asyncListen(port, rw -> connect(dispatch, servers_, rw, servers_.size()));
+			dispatch.run();
+		} catch (IOException ex) {
+			fail(ex);
+		}
+	}
+
+	private void connect(NioDispatch dispatch, List<Server> servers_, AsyncRw rw0, int nRetries) {
+		var now = System.currentTimeMillis();
+		Server server = null;
+
+		for (var server_ : servers_)
+			if (server == null || isPreferred(server_, server, now))
+				server = server_;
+
+		var server_ = server;
+		server_.nOutstandings++;
+
+		dispatch.asyncConnect(server_.address, rw1 -> {
+			server_.backoff = new Backoff();
+			dispatch.splice(rw0, rw1, () -> server_.nOutstandings--);
+		}, ex -> {
+			Log_.error(ex);
+			server_.nOutstandings--;
+			server_.downUntil = System.currentTimeMillis() + server_.backoff.duration();
+
+			if (0 < nRetries)
+				connect(dispatch, servers_, rw0, nRetries - 1);
+			else
+				rw0.close();
+		});
+	}
+
+	private boolean isPreferred(Server server0, Server server1, long now) {
+		var isUp0 = server0.downUntil <= now;
+		var isUp1 = server1.downUntil <= now;
+		return isUp0 != isUp1 ? isUp0 : server0.nOutstandings < server1.nOutstandings;
+	}
+
 	public void run() {
 		var running = BooMutable.true_();
 
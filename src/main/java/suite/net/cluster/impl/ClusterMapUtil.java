@@ -1,29 +1,24 @@
 package suite.net.cluster.impl;
 
-import java.io.Serializable;
-
 public class ClusterMapUtil {
 
 	public static class GetQuery {
-		public static class Request implements Serializable {
-			private static final long serialVersionUID = 1l;
+		public static class Request {
 			public Object key;
 		}
 
-		public static class Response implements Serializable {
-			private static final long serialVersionUID = 1l;
+		public static class Response {
 			public Object value;
 		}
 	}
 
 	public static class PutQuery {
-		public static class Request implements Serializable {
-			private static final long serialVersionUID = 1l;
+		public static class Request {
 			public Object key, value;
+			public long version;
 		}
 
-		public static class Response implements Serializable {
-			private static final long serialVersionUID = 1l;
+		public static class Response {
 			public Object value;
 		}
 	}
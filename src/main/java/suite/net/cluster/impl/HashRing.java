@@ -0,0 +1,85 @@
+package suite.net.cluster.impl;
+
+import static java.lang.Math.min;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing of keys onto peers. Each peer is placed on the ring as a
+ * number of virtual nodes, so that a join or a leave moves only the keys
+ * adjacent to the virtual nodes of that peer.
+ *
+ * @author ywsing
+ */
+public class HashRing {
+
+	private int nVirtualNodes;
+	private TreeMap<Integer, String> ring = new TreeMap<>();
+	private int nPeers;
+
+	public HashRing(Collection<String> peers, int nVirtualNodes) {
+		this.nVirtualNodes = nVirtualNodes;
+
+		for (var peer : peers)
+			for (var i = 0; i < nVirtualNodes; i++)
+				ring.put(hash(Objects.hash(peer, i)), peer);
+
+		nPeers = getPeers().size();
+	}
+
+	public HashRing add(String peer) {
+		var peers = getPeers();
+		peers.add(peer);
+		return new HashRing(peers, nVirtualNodes);
+	}
+
+	public HashRing remove(String peer) {
+		var peers = getPeers();
+		peers.remove(peer);
+		return new HashRing(peers, nVirtualNodes);
+	}
+
+	/**
+	 * @return the first n distinct peers clockwise from the key; the first of them
+	 *         is the primary owner, the others hold the replicas.
+	 */
+	public List<String> getPeers(Object key, int n) {
+		var peers = new ArrayList<String>();
+		var n_ = min(n, nPeers);
+		var entry = ring.ceilingEntry(hash(Objects.hashCode(key)));
+
+		while (peers.size() < n_) {
+			if (entry == null)
+				entry = ring.firstEntry();
+			if (!peers.contains(entry.getValue()))
+				peers.add(entry.getValue());
+			entry = ring.higherEntry(entry.getKey());
+		}
+
+		return peers;
+	}
+
+	public List<String> getPeers() {
+		return new ArrayList<>(new TreeSet<>(ring.values()));
+	}
+
+	public boolean contains(String peer) {
+		return ring.containsValue(peer);
+	}
+
+	// spreads poor hash codes, e.g. of small integers, around the ring
+	private static int hash(int h) {
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+}
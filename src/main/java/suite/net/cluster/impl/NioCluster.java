@@ -1,29 +1,44 @@
 package suite.net.cluster.impl;
 
+import static primal.statics.Rethrow.ex;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import primal.MoreVerbs.Read;
 import primal.Verbs.Close;
+import primal.adt.BooMutable;
 import primal.fp.Funs.Fun;
 import primal.fp.Funs.Sink;
 import primal.os.Log_;
-import suite.net.NetUtil;
+import primal.primitive.adt.Bytes;
 import suite.net.cluster.ClusterProbe;
 import suite.net.nio.NioDispatch;
 import suite.net.nio.NioDispatch.AsyncRw;
+import suite.net.nio.NioDispatch.Requester;
+import suite.node.util.Singleton;
+import suite.serialize.SerInput;
+import suite.serialize.Serialize;
+import suite.serialize.Serialize.Serializer;
+import suite.streamlet.As;
 import suite.streamlet.Pusher;
+import suite.util.To;
 
 public class NioCluster implements Closeable {
 
+	private Serialize ser = Singleton.me.serialize;
 	private String me;
 	private Map<String, InetSocketAddress> peers;
 	private ClusterProbe probe;
 
-	private NioDispatch nd = new NioDispatch();
+	private NioDispatch nd;
 	private Sink<IOException> f = Log_::error;
 	private Closeable unlisten;
 
@@ -35,11 +50,153 @@ public class NioCluster implements Closeable {
 	private Pusher<String> onJoined;
 	private Pusher<String> onLeft;
 	private Map<Class<?>, Fun<Object, Object>> onReceive = new HashMap<>();
+	private long requestTimeout = 30000l;
+
+	/**
+	 * Classes that could be sent to and received from peers, by name. Other
+	 * classes are refused rather than loaded by a name from the network.
+	 */
+	private Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+	private Serializer<List<Object>> frameSerializer = ser.list(ser.dynamic(classes::get));
+
+	/**
+	 * Requests to peers, accessed by the selector thread only.
+	 */
+	private Map<String, Batch> batches = new HashMap<>();
+
+	/**
+	 * Requests queued for a peer. While a frame is in flight, further requests
+	 * are coalesced into the next frame.
+	 *
+	 * When a frame fails or times out, or the peer leaves, every request in the
+	 * batch is failed and the batch is dropped; the next request to the peer
+	 * starts a new one, over a new connection.
+	 *
+	 * A batch keeps a single timer while frames are in flight, which checks the
+	 * time the current frame was sent and sets itself again.
+	 */
+	private class Batch {
+		private String peer;
+		private Requester requester;
+		private List<Object> requests = new ArrayList<>();
+		private List<Sink<Object>> okays = new ArrayList<>();
+		private List<Sink<IOException>> fails = new ArrayList<>();
+		private Sink<IOException> failInFlight; // set while a frame is in flight
+		private long sentTime;
+		private boolean isTimed;
+
+		private Batch(String peer) {
+			this.peer = peer;
+			requester = nd.new Requester(peers.get(peer));
+		}
+
+		private void request(Object request, Sink<Object> okay, Sink<IOException> fail) {
+			requests.add(request);
+			okays.add(okay);
+			fails.add(fail);
+			if (failInFlight == null)
+				send();
+		}
+
+		private void send() {
+			var requests_ = requests;
+			var okays_ = okays;
+			var fails_ = fails;
+			var isDone = BooMutable.false_();
+
+			requests = new ArrayList<>();
+			okays = new ArrayList<>();
+			fails = new ArrayList<>();
+
+			Sink<IOException> fail = ex -> {
+				if (isDone.isFalse()) {
+					isDone.setTrue();
+					for (var fail_ : fails_)
+						fail_.f(ex);
+					drop(ex);
+				}
+			};
+
+			failInFlight = fail;
+
+			Bytes frame;
+
+			try {
+				frame = serialize(requests_);
+			} catch (RuntimeException ex) {
+				fail.f(new IOException(ex));
+				return;
+			}
+
+			sentTime = System.currentTimeMillis();
+
+			if (!isTimed) {
+				isTimed = true;
+				nd.sleep(requestTimeout, this::timeout);
+			}
+
+			requester.request(frame, rsp -> {
+				if (isDone.isFalse()) {
+					isDone.setTrue();
+
+					var responses = deserialize(rsp);
+
+					for (var i = 0; i < okays_.size(); i++)
+						okays_.get(i).f(responses.get(i));
+
+					if (!requests.isEmpty())
+						send();
+					else
+						failInFlight = null;
+				}
+			}, fail);
+		}
+
+		private void timeout() {
+			var wait = sentTime + requestTimeout - System.currentTimeMillis();
+
+			if (failInFlight == null)
+				isTimed = false;
+			else if (0 < wait)
+				nd.sleep(wait, this::timeout);
+			else {
+				isTimed = false;
+				failInFlight.f(new IOException("request to " + peer + " timed out"));
+			}
+		}
+
+		private void drop(IOException ex) {
+			var failInFlight_ = failInFlight;
+			var fails_ = fails;
+
+			batches.remove(peer, this);
+			requests = new ArrayList<>();
+			okays = new ArrayList<>();
+			fails = new ArrayList<>();
+			failInFlight = null;
+			requester.close();
+
+			if (failInFlight_ != null)
+				failInFlight_.f(ex);
+			for (var fail : fails_)
+				fail.f(ex);
+		}
+	}
 
 	public NioCluster(String me, Map<String, InetSocketAddress> peers) throws IOException {
+		this(me, peers, 0);
+	}
+
+	/**
+	 * Serves requests from peers by the given number of reactor threads.
+	 */
+	public NioCluster(String me, Map<String, InetSocketAddress> peers, int nReactors) throws IOException {
 		this.me = me;
 		this.peers = peers;
+		nd = new NioDispatch(nReactors);
 		probe = new ClusterProbeImpl(me, peers);
+		allow(Boolean.class, Bytes.class, Double.class, Float.class, Integer.class, Long.class, String.class);
 	}
 
 	@Override
@@ -49,9 +206,12 @@ public class NioCluster implements Closeable {
 
 	public void start() throws IOException {
 		unlisten = nd.new Responder().listen(peers.get(me).getPort(), req -> {
-			var request = NetUtil.deserialize(req);
-			var handler = onReceive.get(request.getClass());
-			return NetUtil.serialize(handler.apply(request));
+			var responses = Read //
+					.from(deserialize(req)) //
+					.map(request -> onReceive.get(request.getClass()).apply(request)) //
+					.toList();
+
+			return serialize(responses);
 		}, f);
 
 		onJoined = probe.getOnJoined();
@@ -60,6 +220,11 @@ public class NioCluster implements Closeable {
 			var rw = rws.get(node);
 			if (rw != null)
 				rw.close();
+			nd.execute(() -> {
+				var batch = batches.get(node);
+				if (batch != null)
+					batch.drop(new IOException("peer " + node + " left"));
+			});
 			return node;
 		});
 
@@ -76,13 +241,9 @@ public class NioCluster implements Closeable {
 	}
 
 	public void requestForResponse(String peer, Object request, Sink<Object> okay, Sink<IOException> fail) {
-		if (probe.isActive(peer)) {
-			var req = NetUtil.serialize(request);
-			nd.new Requester(peers.get(peer)).request(req, rsp -> {
-				var response = NetUtil.deserialize(rsp);
-				okay.f(response);
-			});
-		} else
+		if (probe.isActive(peer))
+			nd.execute(() -> batches.computeIfAbsent(peer, Batch::new).request(request, okay, fail));
+		else
 			fail.f(new IOException("peer " + peer + " is not active"));
 	}
 
@@ -90,8 +251,18 @@ public class NioCluster implements Closeable {
 		nd.run();
 	}
 
+	/**
+	 * Allows instances of the classes to be sent in requests and responses,
+	 * besides nulls, collections, maps, strings and boxed primitives.
+	 */
+	public void allow(Class<?>... classes) {
+		for (var clazz : classes)
+			this.classes.put(clazz.getName(), clazz);
+	}
+
 	@SuppressWarnings("unchecked")
 	public <I, O> void setOnReceive(Class<I> clazz, Fun<I, O> onReceive) {
+		allow(clazz);
 		this.onReceive.put(clazz, (Fun<Object, Object>) onReceive);
 	}
 
@@ -99,6 +270,10 @@ public class NioCluster implements Closeable {
 		return probe.getActivePeers();
 	}
 
+	public void setRequestTimeout(long requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+
 	public Pusher<String> getOnJoined() {
 		return onJoined;
 	}
@@ -111,4 +286,12 @@ public class NioCluster implements Closeable {
 		return me;
 	}
 
+	private Bytes serialize(List<Object> objects) {
+		return To.bytes(so -> frameSerializer.write(so, objects));
+	}
+
+	private List<Object> deserialize(Bytes bytes) {
+		return ex(() -> frameSerializer.read(SerInput.of(bytes.collect(As::inputStream))));
+	}
+
 }
@@ -1,50 +1,190 @@
 package suite.net.cluster.impl;
 
+import static java.lang.Math.floorMod;
+
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import primal.Verbs.Equals;
+import primal.Verbs.Start;
 import primal.fp.Funs.Fun;
+import primal.fp.Funs.Iterate;
 import primal.fp.Funs.Sink;
+import primal.os.Log_;
 import suite.net.cluster.impl.ClusterMapUtil.GetQuery;
 import suite.net.cluster.impl.ClusterMapUtil.PutQuery;
 
+/**
+ * A map distributed by consistent hashing over the cluster. Each entry is
+ * kept on a number of replicas; reads are spread over them.
+ *
+ * Keys and values shall be nulls, collections, maps, strings, boxed primitives
+ * or of classes allowed by the cluster.
+ *
+ * Every write carries a version from a Lamport clock, and a replica keeps the
+ * entry with the highest version it has seen. Removals are kept as entries
+ * with null values, so that an entry handed off late could not bring back a
+ * removed value, or overwrite a newer one.
+ *
+ * @author ywsing
+ */
 public class NioClusterMap<K, V> {
 
 	private NioCluster cluster;
-	private List<String> peers = new ArrayList<>();
-	private Map<K, V> localMap = new HashMap<>();
+	private int nReplicas;
+	private int nVirtualNodes = 64;
+	private long handoffTimeout = 30000l;
+	private volatile HashRing ring;
+	private Map<K, Versioned<V>> localMap = new ConcurrentHashMap<>();
+	private AtomicInteger counter = new AtomicInteger();
+	private AtomicLong clock = new AtomicLong();
+
+	private HashRing handedRing; // the ring the local entries were handed off to
+	private boolean isHandingOff;
+
+	private static class Versioned<V> {
+		private long version;
+		private V value;
+
+		private Versioned(long version, V value) {
+			this.version = version;
+			this.value = value;
+		}
+	}
 
 	public NioClusterMap(NioCluster cluster) {
+		this(cluster, 1);
+	}
+
+	public NioClusterMap(NioCluster cluster, int nReplicas) {
+		this.nReplicas = nReplicas;
+
 		synchronized (this.cluster = cluster) { // avoid missed cluster events
-			peers.addAll(cluster.getActivePeers());
-			Collections.sort(peers);
+			handedRing = ring = new HashRing(cluster.getActivePeers(), nVirtualNodes);
 
 			cluster.getOnJoined().wire(this, onJoined);
 			cluster.getOnLeft().wire(this, onLeft);
+			cluster.allow(GetQuery.Response.class, PutQuery.Response.class);
 			cluster.setOnReceive(GetQuery.Request.class, onGet);
 			cluster.setOnReceive(PutQuery.Request.class, onPut);
 		}
 	}
 
-	private Sink<String> onJoined = peer -> onChangePeers(() -> peers.add(peer));
-	private Sink<String> onLeft = peer -> onChangePeers(() -> peers.remove(peer));
+	private Sink<String> onJoined = peer -> onChangePeers(ring_ -> ring_.add(peer));
+	private Sink<String> onLeft = peer -> onChangePeers(ring_ -> ring_.remove(peer));
 
-	private void onChangePeers(Runnable runnable) {
+	private void onChangePeers(Iterate<HashRing> fun) {
 		synchronized (NioClusterMap.this) {
-			runnable.run();
-			Collections.sort(peers);
+			ring = fun.apply(ring);
+
+			if (!isHandingOff) {
+				isHandingOff = true;
+				Start.thread(this::handoffs);
+			}
+		}
+	}
+
+	/**
+	 * Hands off on one thread at a time, from the ring last handed off to the
+	 * current one. Peer changes during a handoff are caught up in the next round.
+	 */
+	private void handoffs() {
+		while (true) {
+			HashRing ring0, ring1;
+
+			synchronized (NioClusterMap.this) {
+				ring0 = handedRing;
+				ring1 = ring;
+
+				if (ring0 == ring1) {
+					isHandingOff = false;
+					return;
+				}
+			}
+
+			handoff(ring0, ring1);
+
+			synchronized (NioClusterMap.this) {
+				handedRing = ring1;
+			}
+		}
+	}
+
+	/**
+	 * Pushes the local entries whose replicas moved to their new peers, then drops
+	 * those no longer replicated here. Of the old replicas of an entry, only the
+	 * first one remaining in the ring pushes it. Returns when all pushes are
+	 * answered, or after a timeout.
+	 */
+	private void handoff(HashRing ring0, HashRing ring1) {
+		var me = cluster.getMe();
+		var pushes = new ArrayList<Sink<Runnable>>();
+
+		for (var e : localMap.entrySet()) {
+			var key = e.getKey();
+			var versioned = e.getValue();
+			var peers0 = ring0.getPeers(key, nReplicas);
+			var peers1 = ring1.getPeers(key, nReplicas);
+
+			if (!peers0.equals(peers1)) {
+				String pusher = null;
+
+				for (var peer : peers0)
+					if (pusher == null && ring1.contains(peer))
+						pusher = peer;
+
+				var targets = new ArrayList<>(peers1);
+				targets.removeAll(peers0);
+				targets.remove(me);
+
+				// keeps the entry if it was written again since
+				Runnable drop = () -> {
+					if (!peers1.contains(me))
+						localMap.remove(key, versioned);
+				};
+
+				if ((pusher == null || Equals.string(pusher, me)) && !targets.isEmpty())
+					pushes.add(done -> putToPeers(targets, key, versioned, v -> {
+						drop.run();
+						done.run();
+					}, ex -> {
+						Log_.error(ex);
+						done.run();
+					}));
+				else
+					drop.run();
+			}
+		}
+
+		var latch = new CountDownLatch(pushes.size());
+
+		for (var push : pushes)
+			push.f(latch::countDown);
+
+		try {
+			if (!latch.await(handoffTimeout, TimeUnit.MILLISECONDS))
+				Log_.warn("handoff timed out");
+		} catch (InterruptedException ex) {
+			Log_.error(ex);
 		}
 	}
 
 	private Fun<GetQuery.Request, GetQuery.Response> onGet = request -> {
+		var versioned = localMap.get(request.key);
 		var response = new GetQuery.Response();
-		response.value = localMap.get(request.key);
+		response.value = versioned != null ? versioned.value : null;
 		return response;
 	};
 
@@ -54,17 +194,110 @@ public class NioClusterMap<K, V> {
 		@SuppressWarnings("unchecked")
 		var value = (V) request.value;
 
+		var versioned = new Versioned<>(request.version, value);
 		var response = new PutQuery.Response();
-		response.value = localMap.put(key, value);
+
+		clock.accumulateAndGet(request.version >>> 10, Math::max);
+
+		localMap.compute(key, (key_, versioned0) -> {
+			response.value = versioned0 != null ? versioned0.value : null;
+			return versioned0 == null || versioned0.version < versioned.version ? versioned : versioned0;
+		});
+
 		return response;
 	};
 
 	public void get(K key, Sink<V> okay, Sink<IOException> fail) {
-		getFromPeer(getPeerByHash(key), key, okay, fail);
+		var peers = ring.getPeers(key, nReplicas);
+
+		if (!peers.isEmpty()) {
+			Collections.rotate(peers, floorMod(counter.getAndIncrement(), peers.size()));
+			getFromPeers(peers, key, okay, fail);
+		} else
+			fail.f(new IOException("no active peers"));
 	}
 
 	public void set(K key, V value, Sink<V> okay, Sink<IOException> fail) {
-		putToPeer(getPeerByHash(key), key, value, okay, fail);
+		putToPeers(ring.getPeers(key, nReplicas), key, new Versioned<>(nextVersion(), value), okay, fail);
+	}
+
+	/**
+	 * Gets many keys at once. Requests to the same peer are sent in the same
+	 * frames.
+	 */
+	public void getAll(Collection<K> keys, Sink<Map<K, V>> okay, Sink<IOException> fail) {
+		var map = new HashMap<K, V>();
+
+		all(keys, (key, okay_, fail_) -> get(key, value -> {
+			synchronized (map) {
+				map.put(key, value);
+			}
+			okay_.run();
+		}, fail_), () -> okay.f(map), fail);
+	}
+
+	public void setAll(Map<K, V> map, Runnable okay, Sink<IOException> fail) {
+		all(map.keySet(), (key, okay_, fail_) -> set(key, map.get(key), value0 -> okay_.run(), fail_), okay, fail);
+	}
+
+	private interface Each<K> {
+		public void f(K key, Runnable okay, Sink<IOException> fail);
+	}
+
+	private void all(Collection<K> keys, Each<K> each, Runnable okay, Sink<IOException> fail) {
+		var nPendings = new AtomicInteger(keys.size());
+		var isFailed = new AtomicBoolean();
+
+		if (keys.isEmpty())
+			okay.run();
+		else
+			for (var key : keys)
+				each.f(key, () -> {
+					if (nPendings.decrementAndGet() == 0 && !isFailed.get())
+						okay.run();
+				}, ex -> {
+					if (isFailed.compareAndSet(false, true))
+						fail.f(ex);
+				});
+	}
+
+	/**
+	 * Reads from the first peer, falling back to the next one upon failure.
+	 */
+	private void getFromPeers(List<String> peers, K key, Sink<V> okay, Sink<IOException> fail) {
+		getFromPeer(peers.get(0), key, okay, ex -> {
+			if (1 < peers.size())
+				getFromPeers(peers.subList(1, peers.size()), key, okay, fail);
+			else
+				fail.f(ex);
+		});
+	}
+
+	/**
+	 * Writes to all the peers, and calls back with the value replaced at the first
+	 * one after all of them succeeded.
+	 */
+	private void putToPeers(List<String> peers, K key, Versioned<V> versioned, Sink<V> okay, Sink<IOException> fail) {
+		var nPendings = new AtomicInteger(peers.size());
+		var isFailed = new AtomicBoolean();
+		var value0 = new AtomicReference<V>();
+
+		if (peers.isEmpty())
+			fail.f(new IOException("no active peers"));
+		else
+			for (var i = 0; i < peers.size(); i++) {
+				var isPrimary = i == 0;
+
+				putToPeer(peers.get(i), key, versioned, v -> {
+					if (isPrimary)
+						value0.set(v);
+					if (nPendings.decrementAndGet() == 0 && !isFailed.get())
+						okay.f(value0.get());
+				}, ex -> {
+					if (isFailed.compareAndSet(false, true))
+						fail.f(ex);
+				});
+			}
 	}
 
 	private void getFromPeer(String peer, K key, Sink<V> okay, Sink<IOException> fail) {
@@ -80,10 +313,11 @@ public class NioClusterMap<K, V> {
 		}, fail);
 	}
 
-	private void putToPeer(String peer, K key, V value, Sink<V> okay, Sink<IOException> fail) {
+	private void putToPeer(String peer, K key, Versioned<V> versioned, Sink<V> okay, Sink<IOException> fail) {
 		var request = new PutQuery.Request();
 		request.key = key;
-		request.value = value;
+		request.value = versioned.value;
+		request.version = versioned.version;
 
 		requestForResponse(peer, request, object -> {
 			var response = (PutQuery.Response) object;
@@ -94,13 +328,16 @@ public class NioClusterMap<K, V> {
 		}, fail);
 	}
 
-	private void requestForResponse(String peer, Serializable request, Sink<Serializable> okay, Sink<IOException> fail) {
-		cluster.requestForResponse(peer, request, object -> okay.f((Serializable) object), fail);
+	/**
+	 * A Lamport timestamp in the upper bits, and bits of the peer name in the
+	 * lower ones to break ties between peers.
+	 */
+	private long nextVersion() {
+		return clock.incrementAndGet() << 10 | cluster.getMe().hashCode() & 1023;
 	}
 
-	private String getPeerByHash(K key) {
-		var hash = Objects.hashCode(key);
-		return peers.get(hash % peers.size());
+	private void requestForResponse(String peer, Object request, Sink<Object> okay, Sink<IOException> fail) {
+		cluster.requestForResponse(peer, request, okay, fail);
 	}
 
 }
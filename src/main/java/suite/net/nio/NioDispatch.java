@@ -1,6 +1,5 @@
 package suite.net.nio;
 
-import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static primal.statics.Rethrow.ex;
 import static suite.util.Streamlet_.forInt;
@@ -10,18 +9,27 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import primal.MoreVerbs.Read;
 import primal.Nouns.Buffer;
 import primal.Verbs.Close;
 import primal.Verbs.Get;
+import primal.Verbs.Start;
+import primal.adt.BooMutable;
 import primal.fp.Funs.Iterate;
 import primal.fp.Funs.Sink;
 import primal.fp.Funs2.Sink2;
@@ -35,10 +43,14 @@ import suite.net.NetUtil;
 
 public class NioDispatch implements Closeable {
 
-	private boolean isRunning = true;
+	private volatile boolean isRunning = true;
 	private Selector selector = Selector.open();
 	private ThreadLocal<byte[]> threadBuffer = ThreadLocal.withInitial(() -> new byte[Buffer.size]);
 
+	private NioDispatch[] reactors = new NioDispatch[0];
+	private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private AtomicInteger nConnections = new AtomicInteger();
+
 	private PriorityQueue<TimeDispatch> timeDispatches = new PriorityQueue<>( //
 			TimeDispatch.class, //
 			256, //
@@ -58,18 +70,40 @@ public class NioDispatch implements Closeable {
 		timeDispatches.add(new TimeDispatch(Long.MAX_VALUE, null));
 	}
 
+	/**
+	 * Creates a dispatcher with the given number of reactors. Accepted sockets are
+	 * handed to the reactor with the fewest connections, which runs their
+	 * callbacks and timers on its own selector thread.
+	 */
+	public NioDispatch(int nReactors) throws IOException {
+		this();
+		reactors = new NioDispatch[nReactors];
+		for (var i = 0; i < nReactors; i++)
+			reactors[i] = new NioDispatch();
+	}
+
 	@Override
 	public void close() throws IOException {
 		stop();
+		for (var reactor : reactors)
+			reactor.close();
 		selector.close();
 	}
 
 	public void stop() {
 		isRunning = false;
+		for (var reactor : reactors)
+			reactor.stop();
+		selector.wakeup();
 	}
 
+	/**
+	 * Sends requests over a connection, which is re-established when broken.
+	 * Requests pending when the connection breaks are failed.
+	 */
 	public class Requester {
 		private Map<Integer, Sink<Bytes>> handlers = new HashMap<>();
+		private Map<Integer, Sink<IOException>> fails = new HashMap<>();
 		private Reconnect reconnect;
 		private PacketId packetId;
 		private Runnable reader;
@@ -81,18 +115,44 @@ public class NioDispatch implements Closeable {
 				reader = new Runnable() {
 					public void run() {
 						packetId.read((id_, bs) -> {
-							handlers.remove(id_).f(bs);
+							var handler = handlers.remove(id_);
+							fails.remove(id_);
+							if (handler != null)
+								handler.f(bs);
 							run();
-						}, rec.reconnect);
+						}, ex -> fail(rec, ex));
 					}
 				};
 			});
 		}
 
+		public void close() {
+			reconnect.close();
+			failAll(new IOException("requester closed"));
+		}
+
 		public void request(Bytes request, Sink<Bytes> okay) {
+			request(request, okay, Log_::error);
+		}
+
+		public void request(Bytes request, Sink<Bytes> okay, Sink<IOException> fail) {
 			var id = Get.temp();
 			handlers.put(id, okay);
-			reconnect.connect(rec -> packetId.write(id, request, v -> reader.run(), rec.reconnect));
+			fails.put(id, fail);
+			reconnect.connect(rec -> packetId.write(id, request, v -> reader.run(), ex -> fail(rec, ex)));
+		}
+
+		private void fail(Reconnectable rec, IOException ex) {
+			rec.reconnect.f(ex);
+			failAll(ex);
+		}
+
+		private void failAll(IOException ex) {
+			var fails_ = new ArrayList<>(fails.values());
+			handlers.clear();
+			fails.clear();
+			for (var fail : fails_)
+				fail.f(ex);
 		}
 	}
 
@@ -140,6 +200,7 @@ public class NioDispatch implements Closeable {
 		private Sink<Reconnectable> connected;
 		private Reconnectable rec;
 		private Backoff backoff = new Backoff();
+		private boolean isClosed;
 
 		public Reconnect(InetSocketAddress address, Sink<Reconnectable> connected) {
 			this.address = address;
@@ -147,7 +208,9 @@ public class NioDispatch implements Closeable {
 		}
 
 		public void connect(Sink<Reconnectable> okay) {
-			if (rec == null)
+			if (isClosed)
+				;
+			else if (rec == null)
 				asyncConnect(address, rw_ -> {
 					var r = new Reconnectable(rw_, this::reset);
 					connected.f(rec = r);
@@ -163,7 +226,18 @@ public class NioDispatch implements Closeable {
 
 		public void reset(Exception ex) {
 			Log_.error(ex);
-			rec.rw.close();
+			if (rec != null)
+				rec.rw.close();
+			rec = null;
+		}
+
+		/**
+		 * Closes the connection, and stops connecting again.
+		 */
+		public void close() {
+			isClosed = true;
+			if (rec != null)
+				rec.rw.close();
 			rec = null;
 		}
 	}
@@ -182,7 +256,7 @@ public class NioDispatch implements Closeable {
 		}
 
 		public void write(int id, Bytes bs, Sink<Void> okay, Sink<IOException> fail) {
-			buffer.writeAll(NetUtil.intToBytes(id), v -> packet.write(bs, okay, fail), fail);
+			buffer.writeAll(List.of(NetUtil.intToBytes(id), NetUtil.intToBytes(bs.size()), bs), okay, fail);
 		}
 	}
 
@@ -198,7 +272,7 @@ public class NioDispatch implements Closeable {
 		}
 
 		public void write(Bytes bs, Sink<Void> okay, Sink<IOException> fail) {
-			buffer.writeAll(NetUtil.intToBytes(bs.size()), v -> buffer.writeAll(bs, okay, fail), fail);
+			buffer.writeAll(List.of(NetUtil.intToBytes(bs.size()), bs), okay, fail);
 		}
 	}
 
@@ -211,14 +285,34 @@ public class NioDispatch implements Closeable {
 		}
 
 		public void writeAll(Bytes bytes, Sink<Void> okay, Sink<IOException> fail) {
+			writeAll(List.of(bytes), okay, fail);
+		}
+
+		/**
+		 * Writes the list in order, gathering as many of them as possible into each
+		 * socket write.
+		 */
+		public void writeAll(List<Bytes> list, Sink<Void> okay, Sink<IOException> fail) {
 			new Object() {
-				public void sink(int start) {
-					if (start < bytes.size())
-						rw.write(bytes.range(start), written -> sink(start + written), fail);
+				public void sink(List<Bytes> list_) {
+					if (!list_.isEmpty())
+						rw.write(list_, written -> sink(skip(list_, written)), fail);
 					else
 						okay.f(null);
 				}
-			}.sink(0);
+			}.sink(Read.from(list).filter(bytes -> !bytes.isEmpty()).toList());
+		}
+
+		private List<Bytes> skip(List<Bytes> list, int n) {
+			var i = 0;
+
+			while (i < list.size() && list.get(i).size() <= n)
+				n -= list.get(i++).size();
+
+			var list1 = new ArrayList<>(list.subList(i, list.size()));
+			if (!list1.isEmpty())
+				list1.set(0, list1.get(0).range(n));
+			return list1;
 		}
 
 		public void readLine(byte delim, Sink<Bytes> okay, Sink<IOException> fail) {
@@ -261,19 +355,30 @@ public class NioDispatch implements Closeable {
 		}
 	}
 
+	/**
+	 * A socket that could be read and written at the same time; each direction
+	 * has at most one pending callback.
+	 *
+	 * Every way a connection ends - by the user, at end of stream, or on a read
+	 * or write error - goes through close(), which counts the connection out of
+	 * its reactor exactly once. A half-closable socket is not closed at end of
+	 * stream; its user shall close it.
+	 */
 	public class AsyncRw {
 		private SocketChannel sc;
+		private Sink<Object> reader, writer;
+		private AtomicBoolean isOpen = new AtomicBoolean(true);
+		private boolean isHalfClosable;
+		private boolean isEof;
 
 		public AsyncRw(SocketChannel sc) {
 			this.sc = sc;
 		}
 
 		public void close() {
-			try {
-				sc.register(selector, 0, null);
-				sc.close();
-			} catch (IOException ex) {
-				Log_.error(ex);
+			if (isOpen.getAndSet(false)) {
+				nConnections.decrementAndGet();
+				Close.quietly(sc); // also cancels the selection key
 			}
 		}
 
@@ -287,26 +392,88 @@ public class NioDispatch implements Closeable {
 					fail.f(null);
 			};
 
-			reg(sc, SelectionKey.OP_READ, okay1, fail);
+			reader = okay1;
+			reg(sc, interestOps(), this, fail);
 		}
 
 		public void write(Bytes bytes, Sink<Integer> okay0, Sink<IOException> fail) {
+			write(List.of(bytes), okay0, fail);
+		}
+
+		public void write(List<Bytes> list, Sink<Integer> okay0, Sink<IOException> fail) {
+			var buffers = Read.from(list).map(Bytes::toByteBuffer).toArray(ByteBuffer.class);
+
 			Sink<Object> okay1 = dummy -> {
+				long n;
 				try {
-					okay0.f(sc.write(bytes.toByteBuffer()));
+					n = sc.write(buffers); // gathering write, in one system call
 				} catch (IOException ex) {
+					close();
 					fail.f(ex);
+					return;
 				}
+				okay0.f((int) n);
 			};
 
-			reg(sc, SelectionKey.OP_WRITE, okay1, fail);
+			writer = okay1;
+			reg(sc, interestOps(), this, fail);
 		}
+
+		private int interestOps() {
+			return (reader != null ? SelectionKey.OP_READ : 0) | (writer != null ? SelectionKey.OP_WRITE : 0);
+		}
+	}
+
+	/**
+	 * Forwards the bytes read from each end to the other. An end is read again
+	 * only after the bytes are written to the other end, so that a slow reader
+	 * throttles the writer.
+	 *
+	 * End of stream from one end shuts down the output to the other, which could
+	 * still answer. Both ends are closed when both directions have ended, or
+	 * when either fails.
+	 */
+	public void splice(AsyncRw rw0, AsyncRw rw1, Runnable closed) {
+		var isOpen = BooMutable.true_();
+
+		Runnable close = () -> {
+			if (isOpen.isTrue()) {
+				isOpen.setFalse();
+				rw0.close();
+				rw1.close();
+				closed.run();
+			}
+		};
+
+		rw0.isHalfClosable = rw1.isHalfClosable = true;
+		forward(rw0, rw1, new BufferRw(rw1), close);
+		forward(rw1, rw0, new BufferRw(rw0), close);
+	}
+
+	private void forward(AsyncRw from, AsyncRw to, BufferRw buffer, Runnable close) {
+		// the bytes read are a view of the reactor's thread buffer, which the next
+		// read on any socket overwrites; a partial write keeps them for longer
+		from.read(bytes -> buffer.writeAll(Bytes.of(bytes.toArray()), v -> forward(from, to, buffer, close), ex -> close.run()), ex -> {
+			if (ex == null) { // end of stream
+				from.isEof = true;
+				try {
+					to.sc.shutdownOutput();
+				} catch (IOException ex1) {
+					close.run();
+				}
+				if (to.isEof)
+					close.run();
+			} else
+				close.run();
+		});
 	}
 
 	public void asyncConnect(InetSocketAddress address, Sink<AsyncRw> okay0, Sink<IOException> fail) {
 		Sink<Object> okay1 = rw -> {
 			if (rw instanceof AsyncRw asyncRw)
 				okay0.f(asyncRw);
+			else if (rw instanceof IOException ex)
+				fail.f(ex);
 			else
 				fail.f(null);
 		};
@@ -339,32 +506,53 @@ public class NioDispatch implements Closeable {
 	}
 
 	public void run() {
+		var threads = Read.from(reactors).map(reactor -> Start.thread(reactor::run)).toList();
 		var now = System.currentTimeMillis();
 
+		Consumer<SelectionKey> process = key -> {
+			try {
+				processKey(key);
+			} catch (Exception ex) {
+				Log_.error(ex);
+				if (key.attachment() instanceof AsyncRw rw)
+					rw.close();
+			}
+		};
+
 		while (isRunning) {
-			var td0 = timeDispatches.min();
-			var tdw = td0.time;
-			var wait = max(0l, min(500l, tdw - now));
+			var wait = min(500l, timeDispatches.min().time - now);
 
-			ex(() -> selector.select(key -> {
-				try {
-					processKey(key);
-				} catch (Exception ex) {
-					Log_.error(ex);
-				}
-			}, wait));
+			// a zero timeout would block, so an overdue timer only polls
+			if (0 < wait)
+				ex(() -> selector.select(process, wait));
+			else
+				ex(() -> selector.selectNow(process));
 
 			now = System.currentTimeMillis();
 
-			if (tdw <= now)
+			while (timeDispatches.min().time <= now)
 				timeDispatches.extractMin().runnable.run();
+
+			Runnable task;
+			while ((task = tasks.poll()) != null)
+				task.run();
 		}
+
+		for (var thread : threads)
+			ex(() -> {
+				thread.join();
+				return thread;
+			});
 	}
 
 	private void processKey(SelectionKey key) throws IOException {
 		// logUtil.info("KEY", dumpKey(key));
 
-		var buffer = threadBuffer.get();
+		if (key.attachment() instanceof AsyncRw rw) {
+			processRw(key, rw);
+			return;
+		}
+
 		@SuppressWarnings("unchecked")
 		var callback = (Sink<Object>) key.attachment();
 		var sc0 = key.channel();
@@ -373,37 +561,93 @@ public class NioDispatch implements Closeable {
 
 		if (key.isAcceptable()) {
 			var sc = ((ServerSocketChannel) sc0).accept().socket().getChannel();
+			var reactor = reactor();
 			sc.configureBlocking(false);
-			callback.f(new AsyncRw(sc));
+			reactor.nConnections.incrementAndGet();
+
+			if (reactor != this)
+				reactor.execute(() -> callback.f(reactor.new AsyncRw(sc)));
+			else
+				callback.f(new AsyncRw(sc));
+
 			reg(sc0, SelectionKey.OP_ACCEPT);
 		}
 
 		if (key.isConnectable()) {
 			var sc = (SocketChannel) sc0;
-			callback.f(sc.finishConnect() ? new AsyncRw(sc) : null);
+			boolean isConnected;
+			try {
+				isConnected = sc.finishConnect();
+			} catch (IOException ex) {
+				sc.close();
+				callback.f(ex);
+				return;
+			}
+			if (isConnected)
+				nConnections.incrementAndGet();
+			callback.f(isConnected ? new AsyncRw(sc) : null);
 		}
+	}
 
-		if (key.isReadable()) {
-			var sc = (SocketChannel) sc0;
+	private void processRw(SelectionKey key, AsyncRw rw) throws IOException {
+		var sc = rw.sc;
+		var reader = key.isReadable() ? rw.reader : null;
+		var writer = key.isWritable() ? rw.writer : null;
+
+		// clears the callbacks to be run, before they register again
+		if (reader != null)
+			rw.reader = null;
+		if (writer != null)
+			rw.writer = null;
+		if (key.isValid())
+			key.interestOps(rw.interestOps());
+
+		if (reader != null) {
+			var buffer = threadBuffer.get();
 			try {
 				var n = sc.read(ByteBuffer.wrap(buffer));
 				if (0 <= n)
-					callback.f(Bytes.of(buffer, 0, n));
+					reader.f(Bytes.of(buffer, 0, n));
 				else {
-					callback.f(null);
-					sc.close();
+					if (!rw.isHalfClosable)
+						rw.close();
+					reader.f(null);
 				}
-			} catch (ClosedChannelException | NotYetConnectedException ex) {
-				callback.f(ex);
-				sc.close();
+			} catch (IOException ex) {
+				rw.close();
+				reader.f(ex);
 			}
 		}
 
-		if (key.isWritable())
-			callback.f(null);
+		if (writer != null && rw.isOpen.get())
+			writer.f(null);
+	}
+
+	private NioDispatch reactor() {
+		var reactor = this;
+		for (var reactor_ : reactors)
+			if (reactor == this || reactor_.nConnections.get() < reactor.nConnections.get())
+				reactor = reactor_;
+		return reactor;
+	}
+
+	/**
+	 * Runs the task in the selector thread after the given time. Shall be called
+	 * from the selector thread.
+	 */
+	public void sleep(long ms, Runnable runnable) {
+		timeDispatches.add(new TimeDispatch(System.currentTimeMillis() + ms, runnable));
+	}
+
+	/**
+	 * Runs the task in the selector thread, waking it up from selection.
+	 */
+	public void execute(Runnable runnable) {
+		tasks.add(runnable);
+		selector.wakeup();
 	}
 
-	private void reg(SelectableChannel sc, int key, Sink<?> attachment, Sink<IOException> fail) {
+	private void reg(SelectableChannel sc, int key, Object attachment, Sink<IOException> fail) {
 		try {
 			sc.register(selector, key, attachment);
 			reg(sc, key);
@@ -1,22 +1,78 @@
 package suite.node.util;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import primal.fp.Funs.Fun;
 import suite.node.Atom;
 
+/**
+ * Interns atoms by name, weakly. Lookups of interned names do not lock;
+ * insertions only lock the hash bin concerned. Cleared references are
+ * expunged when new atoms are interned.
+ *
+ * Each thread keeps a small direct-mapped cache of the atoms it has found
+ * recently, in front of the shared table. These are strong references; at
+ * most that many atoms per thread are kept from being reclaimed.
+ *
+ * @author ywsing
+ */
 public class AtomContext {
 
-	private Map<String, WeakReference<Atom>> atomPool = new WeakHashMap<>();
+	private static int cacheSize = 256;
+
+	private Map<String, Ref> atomPool = new ConcurrentHashMap<>();
+	private ReferenceQueue<Atom> queue = new ReferenceQueue<>();
+	private ThreadLocal<Atom[]> caches = ThreadLocal.withInitial(() -> new Atom[cacheSize]);
+
+	private class Ref extends WeakReference<Atom> {
+		private String key;
+
+		private Ref(String key, Atom atom) {
+			super(atom, queue);
+			this.key = key;
+		}
+	}
+
+	public Atom findAtom(String key, Fun<String, Atom> fun) {
+		var cache = caches.get();
+		var h = key.hashCode();
+		var i = (h ^ h >>> 16) & cacheSize - 1;
+		var atom = cache[i];
+
+		if (atom == null || !atom.name.equals(key)) {
+			var ref = atomPool.get(key);
+			if (ref == null || (atom = ref.get()) == null)
+				atom = intern(key, fun);
+			cache[i] = atom;
+		}
 
-	public synchronized Atom findAtom(String key, Fun<String, Atom> fun) {
-		var ref = atomPool.get(key);
-		Atom atom;
-		if (ref == null || (atom = ref.get()) == null)
-			atomPool.put(key, new WeakReference<>(atom = fun.apply(key)));
 		return atom;
 	}
 
+	private Atom intern(String key, Fun<String, Atom> fun) {
+		var atoms = new Atom[1];
+
+		expunge();
+
+		atomPool.compute(key, (key_, ref) -> {
+			var atom = ref != null ? ref.get() : null;
+			if (atom != null) {
+				atoms[0] = atom;
+				return ref;
+			} else
+				return new Ref(key_, atoms[0] = fun.apply(key_));
+		});
+
+		return atoms[0];
+	}
+
+	private void expunge() {
+		Object ref;
+		while ((ref = queue.poll()) != null)
+			atomPool.remove(((Ref) ref).key, ref);
+	}
+
 }
@@ -1,18 +1,26 @@
 package suite.os;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static primal.statics.Rethrow.ex;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import primal.Nouns.Buffer;
+import primal.Verbs.Close;
+import primal.Verbs.Start;
 import primal.fp.Funs.Sink;
 import primal.fp.Funs.Source;
 import primal.os.Log_;
@@ -23,14 +31,25 @@ import suite.adt.PriorityQueue;
 public class ListenNio {
 
 	private Sink<Reg> accept;
-	private Selector selector;
-	private PriorityQueue<Sleep> sleeps = new PriorityQueue<>(Sleep.class, 256, Comparator.comparingLong(w -> w.k));
+	private Reactor acceptor = new Reactor();
+	private Reactor[] reactors;
 
 	public interface Reg {
 		public Object listen(int key, Sink<Bytes> rd, Source<Bytes> wr, IntSink wrt);
 
 		public void sleep(long ms, Runnable runnable);
 
+		/**
+		 * Closes the connection. Further listens on it are ignored.
+		 */
+		public void close();
+
+		/**
+		 * Transfers a file region to the socket when writable, without copying
+		 * through the user space.
+		 */
+		public Object listenTransfer(FileChannel file, long position, long count, IntSink wrt);
+
 		public default void listenRead(Sink<Bytes> rd) {
 			listen(SelectionKey.OP_READ, rd, null, null);
 		}
@@ -55,6 +74,8 @@ public class ListenNio {
 		private Sink<Bytes> rd;
 		private Source<Bytes> wr;
 		private IntSink wrt;
+		private FileChannel file;
+		private long position, count;
 
 		private Attach(SocketChannel sc, Sink<Bytes> rd, Source<Bytes> wr, IntSink wrt) {
 			this.sc = sc;
@@ -62,40 +83,35 @@ public class ListenNio {
 			this.wr = wr;
 			this.wrt = wrt;
 		}
-	}
 
-	public ListenNio(Sink<Reg> accept) {
-		this.accept = accept;
+		private Attach(SocketChannel sc, FileChannel file, long position, long count, IntSink wrt) {
+			this(sc, null, null, wrt);
+			this.file = file;
+			this.position = position;
+			this.count = count;
+		}
 	}
 
-	public void run(int port) {
-		try {
-			selector = Selector.open();
-
-			// we have to set connection host, port and non-blocking mode
-			var ssc = ServerSocketChannel.open();
-			ssc.configureBlocking(false);
-			ssc.register(selector, SelectionKey.OP_ACCEPT, null);
-
-			var ss = ssc.socket();
-			ss.bind(new InetSocketAddress("localhost", port));
+	/**
+	 * A selector loop, with its own timers. Connections registered to a reactor
+	 * are served by its thread only.
+	 */
+	private class Reactor {
+		private Selector selector = ex(Selector::open);
+		private PriorityQueue<Sleep> sleeps = new PriorityQueue<>(Sleep.class, 256, Comparator.comparingLong(w -> w.k));
+		private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private AtomicInteger nConnections = new AtomicInteger();
+		private ByteBuffer buffer = ByteBuffer.allocate(Buffer.size);
 
+		private void run(ServerSocketChannel ssc) throws IOException {
 			while (true) {
 				var sleep = sleeps.min();
-				long wakeUp, timeout;
-
-				if (sleep != null) {
-					wakeUp = sleep.k;
-					timeout = max(1, wakeUp - System.currentTimeMillis());
-				} else {
-					wakeUp = Long.MAX_VALUE;
-					timeout = 0l;
-				}
+				var timeout = sleep != null ? max(1, sleep.k - System.currentTimeMillis()) : 0l;
 
 				selector.select(key -> {
 					try {
 						if (key.isAcceptable())
-							handleAccept(ssc.accept(), key);
+							handleAccept(ssc.accept());
 						if (key.isConnectable())
 							;
 						if (key.isReadable())
@@ -104,66 +120,177 @@ public class ListenNio {
 							handleWrite((Attach) key.attachment());
 					} catch (Exception ex) {
 						Log_.error(ex);
+						if (key.attachment() instanceof Attach attach) {
+							if (attach.file != null)
+								Close.quietly(attach.file);
+							close(attach.sc);
+						}
 					}
 				}, timeout);
 
-				if (wakeUp < System.currentTimeMillis())
+				var now = System.currentTimeMillis();
+
+				while ((sleep = sleeps.min()) != null && sleep.k <= now)
 					sleeps.extractMin().v.run();
+
+				Runnable task;
+				while ((task = tasks.poll()) != null)
+					task.run();
 			}
-		} catch (IOException ex) {
-			throw new RuntimeException(ex);
 		}
-	}
 
-	public void sleep(long ms, Runnable runnable) {
-		sleep_(ms, runnable);
-	}
+		/**
+		 * Runs the task in the reactor thread, waking it up from selection.
+		 */
+		private void execute(Runnable runnable) {
+			tasks.add(runnable);
+			selector.wakeup();
+		}
 
-	private void handleAccept(SocketChannel sc, SelectionKey key) throws IOException {
-		sc.configureBlocking(false);
+		private void accept(SocketChannel sc) {
+			accept.f(new Reg() {
+				public Object listen(int key, Sink<Bytes> rd, Source<Bytes> wr, IntSink wrt) {
+					return register(key, new Attach(sc, rd, wr, wrt));
+				}
 
-		accept.f(new Reg() {
-			public Object listen(int key, Sink<Bytes> rd, Source<Bytes> wr, IntSink wrt) {
-				var attach = new Attach(sc, rd, wr, wrt);
-				return ex(() -> sc.register(selector, key, attach));
-			}
+				public Object listenTransfer(FileChannel file, long position, long count, IntSink wrt) {
+					return register(SelectionKey.OP_WRITE, new Attach(sc, file, position, count, wrt));
+				}
 
-			public void sleep(long ms, Runnable runnable) {
-				ListenNio.this.sleep_(ms, runnable);
+				public void sleep(long ms, Runnable runnable) {
+					sleep_(ms, runnable);
+				}
+
+				public void close() {
+					Reactor.this.close(sc);
+				}
+
+				private Object register(int key, Attach attach) {
+					return sc.isOpen() ? ex(() -> sc.register(selector, key, attach)) : null;
+				}
+			});
+		}
+
+		/**
+		 * Reads into the reactor's buffer, and hands out a copy of the bytes read,
+		 * since the handlers may keep them.
+		 */
+		private void handleRead(Attach attach) {
+			int n;
+
+			try {
+				n = attach.sc.read(buffer.clear());
+			} catch (IOException ex) {
+				n = -1;
+				close(attach.sc);
 			}
-		});
-	}
 
-	private void handleRead(Attach attach) throws IOException {
-		var bs = new byte[Buffer.size];
-		var n = attach.sc.read(ByteBuffer.wrap(bs));
-		var rd = attach.rd;
+			var rd = attach.rd;
 
-		if (rd != null)
-			rd.f(0 <= n ? Bytes.of(bs, 0, n) : null);
-	}
+			if (rd != null)
+				rd.f(0 <= n ? Bytes.of(Arrays.copyOf(buffer.array(), n)) : null);
+		}
 
-	private void handleWrite(Attach attach) throws IOException {
-		var wr = attach.wr;
+		private void handleWrite(Attach attach) {
+			var wr = attach.wr;
 
-		if (wr != null) {
-			var bytes = wr.g();
-			if (bytes != null) {
-				var bb = ByteBuffer.wrap(bytes.bs, bytes.start, bytes.size());
+			if (attach.file != null) {
 				int n;
 				try {
-					n = attach.sc.write(bb);
+					n = (int) attach.file.transferTo(attach.position, min(attach.count, Integer.MAX_VALUE), attach.sc);
 				} catch (IOException ex) {
 					n = -1;
+					close(attach.sc);
 				}
 				attach.wrt.f(n);
-			} else
-				attach.sc.close();
+			} else if (wr != null) {
+				var bytes = wr.g();
+				if (bytes != null) {
+					var bb = ByteBuffer.wrap(bytes.bs, bytes.start, bytes.size());
+					int n;
+					try {
+						n = attach.sc.write(bb);
+					} catch (IOException ex) {
+						n = -1;
+						close(attach.sc);
+					}
+					attach.wrt.f(n);
+				} else
+					close(attach.sc);
+			}
+		}
+
+		/**
+		 * The only place a connection is closed; counts it out of the reactor
+		 * once, however many paths try to close it. Only called by the reactor
+		 * thread.
+		 */
+		private void close(SocketChannel sc) {
+			if (sc.isOpen()) {
+				Close.quietly(sc);
+				nConnections.decrementAndGet();
+			}
+		}
+
+		private void sleep_(long ms, Runnable runnable) {
+			sleeps.add(new Sleep(System.currentTimeMillis() + ms, runnable));
 		}
 	}
 
-	private void sleep_(long ms, Runnable runnable) {
-		sleeps.add(new Sleep(System.currentTimeMillis() + ms, runnable));
+	public ListenNio(Sink<Reg> accept) {
+		this(accept, 0);
+	}
+
+	/**
+	 * Serves connections by the given number of reactors, each running on its
+	 * own thread. Accepted sockets are handed to the reactor with the fewest
+	 * connections.
+	 */
+	public ListenNio(Sink<Reg> accept, int nReactors) {
+		this.accept = accept;
+		reactors = new Reactor[nReactors];
+		for (var i = 0; i < nReactors; i++)
+			reactors[i] = new Reactor();
+	}
+
+	public void run(int port) {
+		try {
+			for (var reactor : reactors)
+				Start.thread(() -> reactor.run(null));
+
+			// we have to set connection host, port and non-blocking mode
+			var ssc = ServerSocketChannel.open();
+			ssc.configureBlocking(false);
+			ssc.register(acceptor.selector, SelectionKey.OP_ACCEPT, null);
+
+			var ss = ssc.socket();
+			ss.bind(new InetSocketAddress("localhost", port));
+
+			acceptor.run(ssc);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public void sleep(long ms, Runnable runnable) {
+		acceptor.sleep_(ms, runnable);
+	}
+
+	private void handleAccept(SocketChannel sc) throws IOException {
+		var reactor = acceptor;
+
+		for (var reactor_ : reactors)
+			if (reactor == acceptor || reactor_.nConnections.get() < reactor.nConnections.get())
+				reactor = reactor_;
+
+		var reactor1 = reactor;
+		sc.configureBlocking(false);
+		reactor1.nConnections.incrementAndGet();
+
+		if (reactor1 != acceptor)
+			reactor1.execute(() -> reactor1.accept(sc));
+		else
+			reactor1.accept(sc);
 	}
 
 }
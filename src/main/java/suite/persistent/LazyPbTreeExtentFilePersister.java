@@ -1,21 +1,27 @@
 package suite.persistent;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static primal.statics.Fail.fail;
 import static primal.statics.Rethrow.ex;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import primal.MoreVerbs.Read;
 import primal.adt.IdentityKey;
 import primal.adt.Pair;
 import primal.adt.map.BiHashMap;
 import primal.adt.map.BiMap;
-import primal.fp.Funs.Sink;
+import primal.primitive.adt.Bytes;
 import suite.file.ExtentAllocator.Extent;
 import suite.file.ExtentFile;
 import suite.file.PageFile;
@@ -37,12 +43,31 @@ public class LazyPbTreeExtentFilePersister<T> implements LazyPbTreePersister<Ext
 
 	private SerializedPageFile<Integer> nPagesFile;
 	private ExtentFile extentFile;
+	private int pageSize;
 	private Comparator<T> comparator;
 	private Serializer<PersistSlot<T>> serializer;
 
 	private Object writeLock = new Object();
 	private int nPages;
+	private List<Extent> gaps = new ArrayList<>(); // zero-filled, left by compactions
 	private BiMap<Extent, IdentityKey<List<Slot<T>>>> slotsByExtent = new BiHashMap<>();
+	private volatile Generation generation = new Generation();
+	private Compaction_ compaction;
+
+	/**
+	 * Extents relocated by a compaction. Pointers read in an earlier generation are
+	 * resolved through the relocations that happened since.
+	 */
+	private class Generation {
+		private Map<Extent, Extent> map;
+		private volatile Generation next;
+
+		private Extent resolve(Extent extent) {
+			for (var g = this; g.next != null; g = g.next)
+				extent = g.map.getOrDefault(extent, extent);
+			return extent;
+		}
+	}
 
 	public static class PersistSlot<T> {
 		public final List<Pair<T, Extent>> pairs;
@@ -52,7 +77,7 @@ public class LazyPbTreeExtentFilePersister<T> implements LazyPbTreePersister<Ext
 		}
 	}
 
-	public LazyPbTreeExtentFilePersister(PageFile pf, Comparator<T> comparator, Serializer<T> ts) {
+	public LazyPbTreeExtentFilePersister(PageFile pf, int pageSize, Comparator<T> comparator, Serializer<T> ts) {
 		var ts1 = ser.nullable(ts);
 		var es = ser.extent();
 		var ps = ser.pair(ts1, es);
@@ -71,13 +96,24 @@ public class LazyPbTreeExtentFilePersister<T> implements LazyPbTreePersister<Ext
 		var pfs = FileFactory.subPageFiles(pf, 0, 1, Integer.MAX_VALUE);
 
 		this.comparator = comparator;
+		this.pageSize = pageSize;
 		nPagesFile = SerializedFileFactory.serialized(pfs[0], ser.int_);
-		extentFile = FileFactory.extentFile(pfs[1]);
+		extentFile = FileFactory.extentFile(pfs[1], pageSize);
 		nPages = nPagesFile.load(0);
 	}
 
 	@Override
 	public void close() throws IOException {
+		Compaction_ compaction_;
+
+		synchronized (writeLock) {
+			compaction_ = compaction;
+		}
+
+		if (compaction_ != null)
+			while (compaction_.step(Integer.MAX_VALUE))
+				;
+
 		synchronized (writeLock) {
 			nPagesFile.save(0, nPages);
 			nPagesFile.close();
@@ -86,69 +122,209 @@ public class LazyPbTreeExtentFilePersister<T> implements LazyPbTreePersister<Ext
 
 	@Override
 	public LazyPbTree<T> load(Extent extent) {
-		return new LazyPbTree<>(comparator, load_(extent));
+		return new LazyPbTree<>(comparator, load_(generation, extent));
 	}
 
 	@Override
 	public Extent save(LazyPbTree<T> tree) {
 		synchronized (writeLock) {
-			return save_(tree.root);
+			var extent = save_(tree.root);
+			nPagesFile.save(0, nPages);
+			return extent;
 		}
 	}
 
 	@Override
 	public Map<Extent, Extent> gc(List<Extent> roots, int back) {
+		var compaction = compact(roots, back);
+		while (compaction.step(Integer.MAX_VALUE))
+			;
+		return compaction.relocations();
+	}
+
+	/**
+	 * Compacts the trailing pages in slices. Live extents are marked without
+	 * holding the write lock; the relocation map is then published at once, and
+	 * extents are moved one at a time. Saves may proceed between the slices.
+	 */
+	@Override
+	public Compaction<Extent> compact(List<Extent> roots, int back) {
 		synchronized (writeLock) {
-			var end = nPages;
-			var start = max(0, end - back);
-			var isInUse = new HashSet<>();
+			return compaction == null ? compaction = new Compaction_(roots, back) : fail("compaction in progress");
+		}
+	}
 
-			Sink<List<Extent>> use = extents_ -> {
-				for (var extent : extents_)
-					if (start <= extent.start)
-						isInUse.add(extent);
-			};
+	private class Compaction_ implements Compaction<Extent> {
+		private int start, end, pointer;
+		private List<Extent> extents;
+		private Set<Extent> isInUse = new HashSet<>();
+		private Deque<Extent> marks = new ArrayDeque<>();
+		private List<Extent> moves = new ArrayList<>();
+		private Map<Extent, Extent> map;
+		private Map<Extent, Extent> sourceByTarget = new HashMap<>();
+		private int nMoved;
+		private boolean isDone;
+
+		private Compaction_(List<Extent> roots, int back) {
+			end = nPages;
+			start = max(0, end - back);
+			for (var root : roots)
+				use(root);
+
+			// gaps within the window are compacted away
+			var gaps1 = new ArrayList<Extent>();
+			for (var gap : gaps)
+				if (gap.start < start)
+					gaps1.add(new Extent(gap.start, min(gap.end, start)));
+			gaps = gaps1;
+		}
 
-			use.f(roots);
+		public synchronized boolean step(int n) {
+			if (isDone)
+				return false;
+			else if (extents == null)
+				extents = extentFile.scan(start, end);
+			else if (map == null)
+				mark(n);
+			else if (nMoved < moves.size())
+				move(n);
+			else
+				synchronized (writeLock) {
+					finish();
+				}
+			return !isDone;
+		}
 
-			var extents = extentFile.scan(start, end);
+		public Map<Extent, Extent> relocations() {
+			synchronized (writeLock) {
+				return map;
+			}
+		}
 
-			for (var extent : Read.from(extents).reverse())
-				if (isInUse.contains(extent))
-					use.f(Read.from(loadSlot(extent).pairs).map(Pair::snd).toList());
+		public boolean isRelocating() {
+			synchronized (writeLock) {
+				return map != null && !isDone;
+			}
+		}
 
-			var map = new HashMap<Extent, Extent>();
+		private void mark(int n) {
+			for (var i = 0; i < n; i++) {
+				Extent extent;
 
-			if (!extents.isEmpty()) {
-				var pointer = extents.get(0).start;
-
-				for (var extent0 : extents)
-					if (isInUse.contains(extent0)) {
-						var ps0 = loadSlot(extent0);
-						var pairs0 = ps0.pairs;
-						var pairsx = Read.from(pairs0).map(Pair.mapSnd(p -> map.getOrDefault(p, p))).toList();
-						var psx = new PersistSlot<>(pairsx);
-						var extentx = saveSlot(pointer, psx);
-						pointer = extentx.end;
-						map.put(extent0, extentx);
+				synchronized (writeLock) {
+					if ((extent = marks.poll()) == null) {
+						publish();
+						return;
 					}
+				}
+
+				// extents within the window are not overwritten before publication
+				var children = Read.from(loadSlot(extent).pairs).map(Pair::snd).toList();
+
+				synchronized (writeLock) {
+					for (var child : children)
+						use(child);
+				}
+			}
+		}
+
+		private void publish() {
+			var map = new HashMap<Extent, Extent>();
+			var p = !extents.isEmpty() ? extents.get(0).start : end;
+
+			for (var extent : extents)
+				if (isInUse.contains(extent)) {
+					var target = new Extent(p, p + extent.end - extent.start);
+					moves.add(extent);
+					map.put(extent, target);
+					sourceByTarget.put(target, extent);
+					p = target.end;
+				}
+
+			var keys = new HashMap<Extent, IdentityKey<List<Slot<T>>>>();
+
+			for (var extent : extents) {
+				var key = slotsByExtent.remove(extent);
+				if (key != null && map.containsKey(extent))
+					keys.put(map.get(extent), key);
+			}
+
+			keys.forEach(slotsByExtent::put);
+
+			var generation0 = generation;
+			generation0.map = map;
+			generation0.next = generation = new Generation();
+
+			this.map = map;
+			pointer = p;
+		}
+
+		private void move(int n) {
+			for (var i = 0; i < n && nMoved < moves.size(); i++)
+				synchronized (writeLock) {
+					var source = moves.get(nMoved++);
+					var target = map.get(source);
+					saveSlot(target.start, relocate(loadSlot(source)));
+					sourceByTarget.remove(target);
+				}
+		}
 
+		private void finish() {
+			if (nPages == end)
 				nPages = pointer;
-				slotsByExtent.clear();
+			else if (pointer < end) { // saves happened meanwhile; leaves a gap for later saves
+				var gap = new Extent(pointer, end);
+				extentFile.free(gap);
+				gaps.add(gap);
 			}
 
-			return map;
+			nPagesFile.save(0, nPages);
+			compaction = null;
+			isDone = true;
+		}
+
+		private PersistSlot<T> load(Extent extent) {
+			var source = sourceByTarget.get(extent);
+			return source != null ? relocate(loadSlot(source)) : loadSlot(extent);
+		}
+
+		private PersistSlot<T> relocate(PersistSlot<T> ps) {
+			return new PersistSlot<>(Read.from(ps.pairs).map(Pair.mapSnd(p -> map.getOrDefault(p, p))).toList());
+		}
+
+		private void use(Extent extent) {
+			if (map == null && start <= extent.start && extent.end <= end && isInUse.add(extent))
+				marks.push(extent);
 		}
 	}
 
-	private List<Slot<T>> load_(Extent extent) {
-		var key = slotsByExtent.get(extent);
-		if (key == null) {
-			var ps = loadSlot(extent);
-			var slots = Read.from2(ps.pairs).map((k, v) -> new Slot<>(() -> load_(v), k)).toList();
-			slotsByExtent.put(extent, key = IdentityKey.of(slots));
+	private List<Slot<T>> load_(Generation g, Extent extent0) {
+		while (true) {
+			Generation g1;
+			Extent extent;
+			PersistSlot<T> ps;
+
+			synchronized (writeLock) {
+				var key = slotsByExtent.get(extent = g.resolve(extent0));
+				if (key != null)
+					return key.key;
+				g1 = generation;
+				ps = compaction != null && compaction.map != null ? compaction.load(extent) : null;
+			}
+
+			var ps_ = ps != null ? ps : loadSlot(extent);
+			var slots = Read.from2(ps_.pairs).map((k, v) -> new Slot<>(() -> load_(g1, v), k)).toList();
+
+			// reads again if a compaction was published while reading
+			synchronized (writeLock) {
+				if (generation == g1) {
+					var key = slotsByExtent.get(extent);
+					if (key == null)
+						slotsByExtent.put(extent, key = IdentityKey.of(slots));
+					return key.key;
+				}
+			}
 		}
-		return key.key;
 	}
 
 	private Extent save_(List<Slot<T>> slots) {
@@ -156,9 +332,10 @@ public class LazyPbTreeExtentFilePersister<T> implements LazyPbTreePersister<Ext
 		var extent = slotsByExtent.inverse().get(key);
 		if (extent == null) {
 			var pairs = Read.from(slots).map(slot -> Pair.of(slot.pivot, save_(slot.readSlots()))).toList();
-			slotsByExtent.put(extent = saveSlot(nPages, new PersistSlot<>(pairs)), key);
-			nPages = extent.end;
+			slotsByExtent.put(extent = saveNewSlot(new PersistSlot<>(pairs)), key);
 		}
+		if (compaction != null)
+			compaction.use(extent);
 		return extent;
 	}
 
@@ -166,12 +343,45 @@ public class LazyPbTreeExtentFilePersister<T> implements LazyPbTreePersister<Ext
 		return ex(() -> serializer.read(SerInput.of(extentFile.load(extent).collect(As::inputStream))));
 	}
 
+	/**
+	 * Saves into the first gap that fits, unless a compaction is running, as it
+	 * may be moving extents over the gaps; otherwise appends. The rest of a gap
+	 * is left as zero-filled pages, which scans step over.
+	 */
+	private Extent saveNewSlot(PersistSlot<T> value) {
+		var bytes = To.bytes(so -> serializer.write(so, value));
+		var n = nBlocks(bytes);
+
+		if (compaction == null)
+			for (var i = 0; i < gaps.size(); i++) {
+				var gap = gaps.get(i);
+
+				if (n <= gap.end - gap.start) {
+					var extent = new Extent(gap.start, gap.start + n);
+					if (extent.end < gap.end)
+						gaps.set(i, new Extent(extent.end, gap.end));
+					else
+						gaps.remove(i);
+					extentFile.save(extent, bytes);
+					return extent;
+				}
+			}
+
+		var extent = new Extent(nPages, nPages + n);
+		extentFile.save(extent, bytes);
+		nPages = extent.end;
+		return extent;
+	}
+
 	private Extent saveSlot(int start, PersistSlot<T> value) {
-		var bs = ExtentFile.blockSize;
 		var bytes = To.bytes(so -> serializer.write(so, value));
-		var extent = new Extent(start, start + (bytes.size() + bs - 1) / bs);
+		var extent = new Extent(start, start + nBlocks(bytes));
 		extentFile.save(extent, bytes);
 		return extent;
 	}
 
+	private int nBlocks(Bytes bytes) {
+		return (ExtentFile.headerSize + bytes.size() + pageSize - 1) / pageSize;
+	}
+
 }
@@ -6,10 +6,53 @@ import java.util.Map;
 
 public interface LazyPbTreePersister<P, T> extends Closeable {
 
+	/**
+	 * A garbage collection performed in slices.
+	 */
+	public interface Compaction<P> {
+
+		/**
+		 * Performs at most the given amount of work.
+		 *
+		 * @return true if there is more work to do.
+		 */
+		public boolean step(int n);
+
+		/**
+		 * @return the relocated pointers, or null if not yet published.
+		 */
+		public Map<P, P> relocations();
+
+		/**
+		 * @return true if pointers are relocated but not all data are moved yet.
+		 */
+		public boolean isRelocating();
+
+	}
+
 	public LazyPbTree<T> load(P pointer);
 
 	public P save(LazyPbTree<T> tree);
 
 	public Map<P, P> gc(List<P> pointers, int back);
 
+	public default Compaction<P> compact(List<P> pointers, int back) {
+		return new Compaction<>() {
+			private Map<P, P> map;
+
+			public boolean step(int n) {
+				map = gc(pointers, back);
+				return false;
+			}
+
+			public Map<P, P> relocations() {
+				return map;
+			}
+
+			public boolean isRelocating() {
+				return false;
+			}
+		};
+	}
+
 }
@@ -1,7 +1,12 @@
 package suite.persistent;
 
+import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import primal.Verbs.Close;
 import primal.adt.Pair;
@@ -13,6 +18,7 @@ import suite.file.impl.SerializedFileFactory;
 import suite.fs.KeyValueMutator;
 import suite.fs.KeyValueStore;
 import suite.node.util.Singleton;
+import suite.persistent.LazyPbTreePersister.Compaction;
 import suite.serialize.Serialize;
 import suite.serialize.Serialize.Serializer;
 
@@ -23,9 +29,142 @@ public class LazyPbTreeStore<Pointer, Key, Value> implements KeyValueStore<Key,
 	private SerializedPageFile<Pointer> superblockFile;
 	private LazyPbTreePersister<Pointer, Pair<Key, Value>> persister;
 	private LazyPbTreeMutator<Key, Value> mutator;
+	private Shared<Pointer, Key, Value> shared;
+	private LazyPbTree<Pair<Key, Value>> tree0;
+
+	/**
+	 * Stores opened from a common superblock and persister, e.g. by the
+	 * transactions of a database. Compactions run in slices in between saves of
+	 * the stores; the relocation map is applied to the superblock and the roots of
+	 * open stores as soon as it is published.
+	 *
+	 * Saves and compaction steps are serialized on this object. The root and the
+	 * open stores are guarded by a separate lock, held only briefly, so that
+	 * opening a store does not wait for another store being saved. It may still
+	 * wait for the persister if it has to read a page while that is written.
+	 */
+	public static class Shared<Pointer, Key, Value> implements Closeable {
+		private SerializedPageFile<Pointer> superblockFile;
+		private LazyPbTreePersister<Pointer, Pair<Key, Value>> persister;
+		private Comparator<Key> kc;
+		private Map<LazyPbTreeStore<Pointer, Key, Value>, Pointer> rootByStore = new IdentityHashMap<>();
+		private ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+		private Object rootLock = new Object();
+		private boolean isModified;
+
+		private Shared( //
+				SerializedPageFile<Pointer> superblockFile, //
+				LazyPbTreePersister<Pointer, Pair<Key, Value>> persister, //
+				Comparator<Key> kc) {
+			this.superblockFile = superblockFile;
+			this.persister = persister;
+			this.kc = kc;
+		}
+
+		@Override
+		public synchronized void close() {
+			Close.quietly(persister, superblockFile);
+		}
+
+		/**
+		 * Runs the commit, unless a compaction is moving extents, in which case the
+		 * underlying file is only committed after all of them are moved.
+		 */
+		public void commit(Runnable commit) {
+			var lock = commitLock.readLock();
+			lock.lock();
+			try {
+				commit.run();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Compacts the trailing pages, performing at most the given amount of work
+		 * each time the stores are locked.
+		 */
+		public void compact(int back, int n) {
+			Compaction<Pointer> compaction;
+
+			synchronized (this) {
+				if (isModified)
+					synchronized (rootLock) {
+						var roots = new ArrayList<>(rootByStore.values());
+						roots.add(root());
+						compaction = persister.compact(roots, back);
+						isModified = false;
+					}
+				else
+					return;
+			}
+
+			var lock = commitLock.writeLock();
+			var isRelocated = false;
+			var isMore = true;
+
+			while (isMore) {
+				if (!lock.isHeldByCurrentThread())
+					lock.lock();
+
+				synchronized (this) {
+					isMore = compaction.step(n);
+
+					var map = compaction.relocations();
+
+					if (!isRelocated && map != null)
+						synchronized (rootLock) {
+							superblockFile.save(0, map.getOrDefault(root(), root()));
+							rootByStore.replaceAll((store, pointer) -> map.getOrDefault(pointer, pointer));
+							isRelocated = true;
+						}
+				}
+
+				if (!compaction.isRelocating())
+					lock.unlock();
+			}
+		}
+
+		public LazyPbTreeStore<Pointer, Key, Value> open() {
+			synchronized (rootLock) {
+				var pointer = root();
+				var store = new LazyPbTreeStore<>(superblockFile, persister, persister.load(pointer));
+				store.shared = this;
+				rootByStore.put(store, pointer);
+				return store;
+			}
+		}
+
+		private void end(LazyPbTreeStore<Pointer, Key, Value> store, boolean isComplete) {
+			var tree = store.mutator.get();
+
+			synchronized (rootLock) {
+				rootByStore.remove(store);
+			}
+
+			// no compaction step could relocate the saved tree before the root is set
+			if (isComplete && tree != store.tree0)
+				synchronized (this) {
+					var pointer = persister.save(tree);
+
+					synchronized (rootLock) {
+						superblockFile.save(0, pointer);
+						isModified = true;
+					}
+				}
+		}
+
+		private Pointer root() {
+			var pointer = superblockFile.load(0);
+			if (pointer == null)
+				superblockFile.save(0, pointer = persister.save(new LazyPbTree<>((p0, p1) -> kc.compare(p0.k, p1.k))));
+			return pointer;
+		}
+	}
 
 	public static <K, V> LazyPbTreeStore<Extent, K, V> ofExtent( //
 			PageFile pageFile, //
+			int pageSize, //
 			Comparator<K> kc, //
 			Serializer<K> ks, //
 			Serializer<V> vs) {
@@ -34,10 +173,25 @@ public class LazyPbTreeStore<Pointer, Key, Value> implements KeyValueStore<Key,
 		var xs = ser.nullable(ser.extent());
 		var pfs = FileFactory.subPageFiles(pageFile, 0, 1, Integer.MAX_VALUE);
 		var superblockFile = SerializedFileFactory.serialized(pfs[0], xs);
-		var persister = new LazyPbTreeExtentFilePersister<>(pfs[1], pc, ps);
+		var persister = new LazyPbTreeExtentFilePersister<>(pfs[1], pageSize, pc, ps);
 		return new LazyPbTreeStore<>(superblockFile, persister, kc);
 	}
 
+	public static <K, V> Shared<Extent, K, V> sharedOfExtent( //
+			PageFile pageFile, //
+			int pageSize, //
+			Comparator<K> kc, //
+			Serializer<K> ks, //
+			Serializer<V> vs) {
+		var pc = Comparator.nullsLast(Comparator.<Pair<K, V>, K> comparing(p -> p.k, kc));
+		var ps = ser.pair(ks, vs);
+		var xs = ser.nullable(ser.extent());
+		var pfs = FileFactory.subPageFiles(pageFile, 0, 1, Integer.MAX_VALUE);
+		var superblockFile = SerializedFileFactory.serialized(pfs[0], xs);
+		var persister = new LazyPbTreeExtentFilePersister<>(pfs[1], pageSize, pc, ps);
+		return new Shared<>(superblockFile, persister, kc);
+	}
+
 	public static <K, V> LazyPbTreeStore<Integer, K, V> ofPage( //
 			PageFile pageFile, //
 			Comparator<K> kc, //
@@ -61,11 +215,25 @@ public class LazyPbTreeStore<Pointer, Key, Value> implements KeyValueStore<Key,
 		var pointer = superblockFile.load(0);
 		if (pointer == null)
 			superblockFile.save(0, pointer = persister.save(new LazyPbTree<>((p0, p1) -> kc.compare(p0.k, p1.k))));
-		mutator = new LazyPbTreeMutator<>(persister.load(pointer));
+		mutator = new LazyPbTreeMutator<>(tree0 = persister.load(pointer));
+	}
+
+	private LazyPbTreeStore( //
+			SerializedPageFile<Pointer> superblockFile, //
+			LazyPbTreePersister<Pointer, Pair<Key, Value>> persister, //
+			LazyPbTree<Pair<Key, Value>> tree) {
+		this.superblockFile = superblockFile;
+		this.persister = persister;
+		mutator = new LazyPbTreeMutator<>(tree0 = tree);
 	}
 
 	@Override
 	public synchronized void end(boolean isComplete) {
+		if (shared != null) {
+			shared.end(this, isComplete);
+			return;
+		}
+
 		if (isComplete) {
 			var pointer1 = persister.save(mutator.get());
 			var pointerx = persister.gc(List.of(pointer1), 9).getOrDefault(pointer1, pointer1);
@@ -14,6 +14,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import primal.MoreVerbs.Read;
 import primal.Nouns.Buffer;
@@ -39,6 +40,7 @@ public class Serialize {
 	public Serializer<Double> double_ = ser(SerInput::readDouble, SerOutput::writeDouble); // 8
 	public Serializer<Float> float_ = ser(SerInput::readFloat, SerOutput::writeFloat); // 4
 	public Serializer<Integer> int_ = ser(SerInput::readInt, SerOutput::writeInt); // 4
+	public Serializer<Long> long_ = ser(SerInput::readLong, SerOutput::writeLong); // 8
 
 	private Inspect inspect;
 	private byte[] zeroes = new byte[Buffer.size];
@@ -97,6 +99,8 @@ public class Serialize {
 				serializer = vector;
 			else if (Equals.ab(clazz, int.class) || Equals.ab(clazz, Integer.class))
 				serializer = int_;
+			else if (Equals.ab(clazz, long.class) || Equals.ab(clazz, Long.class))
+				serializer = long_;
 			else if (Equals.ab(clazz, String.class))
 				serializer = variableLengthString;
 			else if (clazz.isArray()) {
@@ -128,9 +132,13 @@ public class Serialize {
 	}
 
 	public <T> Serializer<T> autoFields(Class<T> clazz) {
+		return autoFields(clazz, this::auto_);
+	}
+
+	private <T> Serializer<T> autoFields(Class<T> clazz, Fun<Type, Serializer<?>> auto) {
 		var pairs = inspect //
 				.fields(clazz) //
-				.map2(field -> auto_(field.getGenericType())) //
+				.map2(field -> auto.apply(field.getGenericType())) //
 				.toArray();
 
 		var ctors = Read.from(clazz.getDeclaredConstructors()).filter(ctor -> ctor.trySetAccessible());
@@ -343,6 +351,68 @@ public class Serialize {
 		};
 	}
 
+	/**
+	 * Serializes dynamically typed values: nulls, collections, maps, or instances
+	 * of the classes the given function allows by name. Fields of type Object in
+	 * those classes are serialized the same way. Class names read from the input
+	 * are only looked up through the function, never loaded.
+	 *
+	 * Collections are read back as lists, maps as hash maps.
+	 */
+	public Serializer<Object> dynamic(Fun<String, Class<?>> classOf) {
+		return new Serializer<>() {
+			private Map<Class<?>, Serializer<?>> serializers = new ConcurrentHashMap<>();
+
+			public Object read(SerInput si) throws IOException {
+				return switch (si.readByte()) {
+				case 0 -> null;
+				case 1 -> collection(this).read(si);
+				case 2 -> map_(this, this).read(si);
+				case 3 -> {
+					var name = si.readUTF();
+					var c = classOf.apply(name);
+					yield c != null ? serializer(c).read(si) : fail("class " + name + " is not allowed");
+				}
+				default -> fail("unknown type");
+				};
+			}
+
+			public void write(SerOutput so, Object object) throws IOException {
+				if (object == null)
+					so.writeByte(0);
+				else if (object instanceof Collection<?> collection) {
+					@SuppressWarnings("unchecked")
+					var collection_ = (Collection<Object>) collection;
+					so.writeByte(1);
+					collection(this).write(so, collection_);
+				} else if (object instanceof Map<?, ?> map) {
+					@SuppressWarnings("unchecked")
+					var map_ = (Map<Object, Object>) map;
+					so.writeByte(2);
+					map_(this, this).write(so, map_);
+				} else {
+					var c = object.getClass();
+					if (classOf.apply(c.getName()) == c) {
+						so.writeByte(3);
+						so.writeUTF(c.getName());
+						serializer(c).write(so, object);
+					} else
+						fail("class " + c.getName() + " is not allowed");
+				}
+			}
+
+			private Serializer<Object> serializer(Class<?> c) {
+				@SuppressWarnings("unchecked")
+				var serializer = (Serializer<Object>) serializers.computeIfAbsent(c, c_ -> inspect //
+						.fields(c_) //
+						.isAny(field -> Equals.ab(field.getType(), Object.class)) //
+								? autoFields(c_, type -> Equals.ab(type, Object.class) ? this : auto_(type)) //
+								: auto_(c_));
+				return serializer;
+			}
+		};
+	}
+
 	public <K, V> Serializer<Map<K, V>> map(Serializer<K> ks, Serializer<V> vs) {
 		return map_(ks, vs);
 	}
@@ -2,21 +2,31 @@ package suite.btree;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static suite.util.Streamlet_.forInt;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Random;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import primal.MoreVerbs.Read;
 import primal.Nouns.Tmp;
 import primal.Verbs.Compare;
 import primal.Verbs.DeleteFile;
+import primal.adt.Pair;
+import primal.fp.Funs.Source;
 import primal.primitive.IntVerbs.NewInt;
 import suite.btree.impl.B_TreeBuilder;
 import suite.file.impl.JournalledFileFactory;
 import suite.node.util.Singleton;
+import suite.os.Stopwatch;
+import suite.streamlet.As;
 import suite.sample.Profiler;
 import suite.serialize.Serialize;
 import suite.util.To;
@@ -35,6 +45,177 @@ public class B_TreeTest {
 		keys = NewInt.array(nKeys, i -> i);
 	}
 
+	@Test
+	public void testCompactLayout() throws IOException {
+		var pageSize = 4096;
+		var path = Tmp.path("b_tree-compact");
+
+		DeleteFile.ifExists(path);
+		var builder = new B_TreeBuilder<>(ser.int_, ser.string(16), 0, 128, true);
+		builder.setBytewiseKeys(true); // keys are non-negative
+
+		shuffleNumbers();
+
+		try (var jpf = JournalledFileFactory.open(path, pageSize);
+				var b_tree = builder.build(jpf, pageSize, cmp)) {
+			b_tree.create();
+			testStep0(b_tree);
+			testStep1(b_tree);
+			testStep2(b_tree);
+			jpf.commit();
+		}
+	}
+
+	@Test
+	public void testCompactLayoutOverflow() throws IOException {
+		var pageSize = 131072;
+		var path = Tmp.path("b_tree-compact-overflow");
+
+		DeleteFile.ifExists(path);
+		var builder = new B_TreeBuilder<>(ser.int_, ser.string(1024), 0, 1024, true);
+
+		try (var jpf = JournalledFileFactory.open(path, pageSize);
+				var b_tree = builder.build(jpf, pageSize, cmp)) {
+			b_tree.create();
+
+			// entries of a kilobyte each overflow the 16-bit offsets
+			assertThrows(RuntimeException.class, () -> {
+				for (var i = 0; i < 1024; i++)
+					b_tree.put(i, "sample");
+			});
+		}
+	}
+
+	@Test // long test
+	public void testConcurrentAccess() throws IOException {
+		var nKeys = 16384;
+		var nOps = 65536;
+		var pageSize = 4096;
+		var path = Tmp.path("b_tree-concurrent");
+
+		DeleteFile.ifExists(path);
+		var builder = new B_TreeBuilder<>(ser.int_, ser.int_);
+		builder.setConcurrent(true);
+
+		try (var jpf = JournalledFileFactory.open(path, pageSize); var b_tree = builder.build(jpf, 9999, cmp)) {
+			b_tree.create();
+			for (var i = 0; i < nKeys; i++)
+				b_tree.put(i, i);
+			jpf.commit();
+
+			for (var nThreads : new int[] { 1, 2, 4, 8, }) {
+				var sw = Stopwatch.of(() -> {
+					forInt(nThreads).collect(As.executeThreadsByInt(t -> {
+						var random = new Random();
+						for (var i = 0; i < nOps / nThreads; i++) {
+							var key = random.nextInt(nKeys);
+							if (random.nextInt(100) < 95)
+								assertEquals(key, b_tree.get(key).intValue());
+							else
+								b_tree.put(key, key);
+						}
+					}));
+					return true;
+				});
+
+				System.out.println(nThreads + " threads: " + sw.duration + " ms");
+			}
+
+			jpf.commit();
+		}
+	}
+
+	@Test // long test
+	public void testConcurrentScan() throws IOException {
+		var nKeys = 8192;
+		var nOps = 16384;
+		var pageSize = 4096;
+		var path = Tmp.path("b_tree-concurrent-scan");
+
+		DeleteFile.ifExists(path);
+		var builder = new B_TreeBuilder<>(ser.int_, ser.int_);
+		builder.setConcurrent(true);
+
+		try (var jpf = JournalledFileFactory.open(path, pageSize); var b_tree = builder.build(jpf, 9999, cmp)) {
+			b_tree.create();
+			for (var i = 0; i < nKeys; i++)
+				b_tree.put(i, i);
+			jpf.commit();
+
+			// odd keys are inserted and deleted, splitting and merging pages under
+			// the scans; even keys stay, and each scan sees them all in order
+			assertTimeoutPreemptively(Duration.ofMinutes(2), () -> forInt(6).collect(As.executeThreadsByInt(t -> {
+				var random = new Random();
+
+				if (t < 2)
+					for (var i = 0; i < nOps; i++) {
+						var key = random.nextInt(nKeys / 2) * 2 + 1;
+						if (random.nextBoolean())
+							b_tree.put(key, key);
+						else
+							b_tree.remove(key);
+					}
+				else
+					for (var i = 0; i < 8; i++) {
+						var isForward = t < 4;
+						var cursor = b_tree.cursor(0);
+						var even = isForward ? 0 : nKeys - 2;
+						Pair<Integer, Integer> pair;
+
+						if (!isForward)
+							cursor.seek(nKeys);
+
+						while ((pair = isForward ? cursor.next() : cursor.prev()) != null)
+							if (pair.k % 2 == 0) {
+								assertEquals(even, pair.k.intValue());
+								even += isForward ? 2 : -2;
+							}
+
+						assertEquals(isForward ? nKeys : -2, even);
+					}
+			})));
+
+			jpf.commit();
+		}
+	}
+
+	@Test
+	public void testCursor() throws IOException {
+		var pageSize = 4096;
+		var path = Tmp.path("b_tree-cursor");
+
+		DeleteFile.ifExists(path);
+		var builder = new B_TreeBuilder<>(ser.int_, ser.string(16));
+
+		shuffleNumbers();
+
+		try (var jpf = JournalledFileFactory.open(path, pageSize);
+				var b_tree = builder.build(jpf, pageSize, cmp)) {
+			b_tree.create();
+
+			for (var i = 0; i < nKeys; i++)
+				b_tree.put(keys[i] * 2, Integer.toString(keys[i]));
+
+			var cursor = b_tree.cursor(4);
+
+			for (var i = 0; i < nKeys; i++)
+				assertEquals(i * 2, cursor.next().k.intValue());
+
+			assertNull(cursor.next());
+
+			for (var i = nKeys - 1; 0 <= i; i--)
+				assertEquals(i * 2, cursor.prev().k.intValue());
+
+			assertNull(cursor.prev());
+
+			cursor.seek(101);
+			assertEquals(102, cursor.next().k.intValue());
+			assertEquals(102, cursor.prev().k.intValue());
+			assertEquals(100, cursor.prev().k.intValue());
+			jpf.commit();
+		}
+	}
+
 	@Test
 	public void testDump() throws IOException {
 		var pageSize = 4096;
@@ -93,6 +274,32 @@ public class B_TreeTest {
 		}
 	}
 
+	@Test
+	public void testBulkLoad() throws IOException {
+		var pageSize = 4096;
+		var path = Tmp.path("b_tree-bulk");
+
+		DeleteFile.ifExists(path);
+		var builder = new B_TreeBuilder<>(ser.int_, ser.string(16));
+		var pairs = new ArrayList<Pair<Integer, String>>();
+
+		for (var i = 0; i < nKeys; i++)
+			pairs.add(Pair.of(i, Integer.toString(i)));
+
+		try (var jpf = JournalledFileFactory.open(path, pageSize);
+				var b_tree = builder.bulkLoad(jpf, pageSize, cmp, Read.from(pairs), .75f)) {
+			for (var i = 0; i < nKeys; i++)
+				assertEquals(Integer.toString(i), b_tree.get(i));
+
+			assertEquals(nKeys / 2, b_tree.keys(0, nKeys / 2).size());
+
+			shuffleNumbers();
+			testStep1(b_tree);
+			testStep2(b_tree);
+			jpf.commit();
+		}
+	}
+
 	@Test // long test
 	public void testInsertPerformance() throws IOException {
 		var nKeys = 16384;
@@ -124,6 +331,36 @@ public class B_TreeTest {
 		}
 	}
 
+	@Test
+	public void testLookupPerformance() throws IOException {
+		var nKeys = 16384;
+		var pageSize = 4096;
+		var path = Tmp.path("b_tree-lookup");
+
+		DeleteFile.ifExists(path);
+		var builder = new B_TreeBuilder<>(ser.int_, ser.int_, 256);
+
+		try (var jpf = JournalledFileFactory.open(path, pageSize); var b_tree = builder.build(jpf, 9999, cmp)) {
+			b_tree.create();
+			for (var i = 0; i < nKeys; i++)
+				b_tree.put(i, i);
+			jpf.commit();
+
+			Source<Stopwatch<Boolean>> trial = () -> Stopwatch.of(() -> {
+				for (var i = 0; i < nKeys; i++) {
+					var key = random.nextInt(nKeys);
+					assertEquals(key, b_tree.get(key).intValue());
+				}
+				return true;
+			});
+
+			for (var i = 0; i < 8; i++)
+				trial.g();
+
+			System.out.println(trial.g().duration);
+		}
+	}
+
 	private void testStep0(B_Tree<Integer, String> b_tree) {
 		for (var i = 0; i < nKeys; i++)
 			b_tree.put(keys[i], Integer.toString(keys[i]));
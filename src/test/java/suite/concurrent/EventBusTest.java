@@ -0,0 +1,71 @@
+package suite.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import primal.statics.Rethrow;
+
+public class EventBusTest {
+
+	private int n = 1 << 16;
+
+	@Test
+	public void testOrder() {
+		var eventBus = new EventBus();
+		var latch = new CountDownLatch(1);
+		var list = new ArrayList<Object>();
+
+		eventBus.subscribe("topic", i -> {
+			list.add(i);
+			if (list.size() == n)
+				latch.countDown();
+		});
+
+		var batch = new ArrayList<Object>();
+
+		for (var i = 0; i < n; i++)
+			if (i % 2 == 0)
+				while (!eventBus.publish("topic", i))
+					Thread.onSpinWait();
+			else {
+				batch.add(i);
+				var batch_ = List.copyOf(batch);
+				while (!eventBus.publishAll("topic", batch_))
+					Thread.onSpinWait();
+				batch.clear();
+			}
+
+		Rethrow.ex(() -> {
+			latch.await();
+			return latch;
+		});
+
+		for (var i = 0; i < n; i++)
+			assertEquals(i, list.get(i));
+	}
+
+	@Test
+	public void testReject() {
+		var eventBus = new EventBus();
+		var latch = new CountDownLatch(1);
+
+		eventBus.subscribe("topic", i -> Rethrow.ex(() -> {
+			latch.await();
+			return latch;
+		}));
+
+		var i = 0;
+		while (eventBus.publish("topic", i) && i < n)
+			i++;
+
+		latch.countDown();
+		assertTrue(i < n);
+	}
+
+}
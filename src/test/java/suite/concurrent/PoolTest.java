@@ -0,0 +1,70 @@
+package suite.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static suite.util.Streamlet_.forInt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import suite.streamlet.As;
+
+public class PoolTest {
+
+	@Test
+	public void test() {
+		var pool = Pool.of("a");
+		var a = pool.get();
+
+		assertNull(pool.get(100));
+		pool.unget(a);
+		assertSame(a, pool.get(100));
+	}
+
+	@Test
+	public void testAffinity() {
+		var pool = Pool.of("a", "b");
+		var a = pool.get();
+		var b = pool.get();
+
+		pool.unget(a);
+		pool.unget(b);
+
+		// the object borrowed last by this thread is lent again, rather than the queue head
+		assertSame(b, pool.get());
+		assertSame(a, pool.get());
+	}
+
+	@Test
+	public void testContention() {
+		var pool = Pool.of(new AtomicInteger(), new AtomicInteger());
+		var nThreads = 8;
+		var n = 1 << 14;
+
+		forInt(nThreads).collect(As.executeThreadsByInt(t -> {
+			for (var i = 0; i < n; i++)
+				pool.get(counter -> {
+					// no one else holds the object meanwhile
+					var c = counter.incrementAndGet();
+					Thread.onSpinWait();
+					assertEquals(c, counter.get());
+					return c;
+				});
+		}));
+
+		assertEquals(nThreads * n, pool.get().get() + pool.get().get());
+	}
+
+	@Test
+	public void testUngetTwice() {
+		var pool = Pool.of("a");
+		var a = pool.get();
+
+		pool.unget(a);
+		assertThrows(RuntimeException.class, () -> pool.unget(a));
+	}
+
+}
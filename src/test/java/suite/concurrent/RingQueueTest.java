@@ -0,0 +1,84 @@
+package suite.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static suite.util.Streamlet_.forInt;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+
+import primal.fp.Funs.Source;
+import suite.os.Stopwatch;
+import suite.streamlet.As;
+
+public class RingQueueTest {
+
+	@Test
+	public void test() {
+		var queue = new RingQueue<Integer>(256);
+		for (var i = 0; i < 256; i++) {
+			for (var j = 0; j < 256; j++)
+				queue.offer(j);
+			assertFalse(queue.offer(256));
+			for (var j = 0; j < 256; j++)
+				assertEquals(j, (int) queue.poll());
+			assertNull(queue.poll());
+		}
+	}
+
+	@Test
+	public void testContention() {
+		var ringQueue = new RingQueue<Integer>(1024);
+		var lockFreeQueue = new LockFreeQueue<Integer>();
+
+		// timings are only reported, as they vary too much between machines
+		contend("lock-free-queue", i -> {
+			lockFreeQueue.enqueue(i);
+			return true;
+		}, lockFreeQueue::dequeue);
+		contend("ring-queue", ringQueue::offer, ringQueue::poll);
+	}
+
+	@Test
+	public void testWaits() {
+		var queue = new RingQueue<Integer>(1024);
+		contend("ring-queue-waits", i -> {
+			queue.put(i);
+			return true;
+		}, queue::take);
+	}
+
+	// runs producers and consumers, spinning while the queue is full or empty
+	private void contend(String name, Predicate<Integer> offer, Source<Integer> poll) {
+		var nThreads = 8;
+		var n = 1 << 16;
+		var sum = new AtomicLong();
+
+		var sw = Stopwatch.of(() -> {
+			forInt(nThreads * 2).collect(As.executeThreadsByInt(t -> {
+				if (t < nThreads)
+					for (var i = 0; i < n; i++)
+						while (!offer.test(i))
+							Thread.onSpinWait();
+				else {
+					var sum_ = 0l;
+					for (var i = 0; i < n; i++) {
+						Integer j;
+						while ((j = poll.g()) == null)
+							Thread.onSpinWait();
+						sum_ += j;
+					}
+					sum.addAndGet(sum_);
+				}
+			}));
+			return true;
+		});
+
+		System.out.println(name + ", " + nThreads + " producers and consumers: " + sw.duration + " ms");
+		assertEquals((long) nThreads * n * (n - 1) / 2, sum.get());
+	}
+
+}
@@ -0,0 +1,103 @@
+package suite.concurrent;
+
+import static java.lang.Math.min;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import primal.statics.Rethrow;
+import suite.os.Stopwatch;
+
+public class ThreadsTest {
+
+	private int nThreads = 8;
+	private int depth = 18;
+
+	@Test
+	public void testDeque() {
+		var deque = new WorkStealingDeque<Integer>();
+
+		for (var i = 0; i < 256; i++)
+			deque.push(i);
+
+		assertEquals(0, (int) deque.steal());
+		assertEquals(255, (int) deque.pop());
+
+		for (var i = 1; i < 255; i++)
+			assertEquals(i, (int) deque.steal());
+
+		assertNull(deque.pop());
+		assertNull(deque.steal());
+	}
+
+	@Test
+	public void testFineGrainedTasks() {
+		try (var threads = new Threads(nThreads)) {
+			var count = run(runnable -> threads.execute(runnable::run));
+			assertEquals(1 << depth, count);
+		}
+	}
+
+	@Test
+	public void testBenchmark() {
+		long duration0 = Long.MAX_VALUE, duration1 = Long.MAX_VALUE;
+
+		for (var i = 0; i < 3; i++) {
+			try (var threads = new LockedThreads(nThreads)) {
+				duration0 = min(duration0, benchmark("locked-threads", runnable -> threads.execute(runnable::run)));
+			}
+
+			try (var threads = new Threads(nThreads)) {
+				duration1 = min(duration1, benchmark("threads", runnable -> threads.execute(runnable::run)));
+			}
+
+			var fjp = new ForkJoinPool(nThreads);
+			benchmark("fork-join", fjp);
+			fjp.shutdown();
+		}
+
+		// timings are only reported, as they vary too much between machines
+		System.out.println("best of locked-threads: " + duration0 + " ms, threads: " + duration1 + " ms");
+	}
+
+	private long benchmark(String name, Executor executor) {
+		var sw = Stopwatch.of(() -> run(executor));
+		System.out.println(name + ": " + sw.duration + " ms");
+		assertEquals(1 << depth, (int) sw.result);
+		return sw.duration;
+	}
+
+	// spawns a binary tree of tiny tasks, counting the leaves
+	private int run(Executor executor) {
+		var count = new AtomicInteger();
+		var latch = new CountDownLatch(1 << depth);
+
+		new Object() {
+			private void spawn(int d) {
+				executor.execute(() -> {
+					if (0 < d) {
+						spawn(d - 1);
+						spawn(d - 1);
+					} else {
+						count.incrementAndGet();
+						latch.countDown();
+					}
+				});
+			}
+		}.spawn(depth);
+
+		Rethrow.ex(() -> {
+			latch.await();
+			return latch;
+		});
+
+		return count.get();
+	}
+
+}
@@ -0,0 +1,76 @@
+package suite.file;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import primal.Nouns.Tmp;
+import suite.file.ExtentAllocator.Extent;
+import suite.file.impl.AllocatorImpl;
+import suite.file.impl.FileFactory;
+import suite.file.impl.SerializedFileFactory;
+import suite.node.util.Singleton;
+
+public class AllocatorTest {
+
+	private int pageSize = PageFile.defaultPageSize;
+
+	@Test
+	public void testBitmap() throws IOException {
+		var pf = FileFactory.pageFile(Tmp.path("allocator-bitmap"), true, pageSize);
+		var capacity = pageSize * 8;
+
+		try (var allocator = new AllocatorImpl(SerializedFileFactory.serialized(pf, Singleton.me.serialize.bytes(pageSize)), 1)) {
+			allocator.create();
+
+			// fills the initial range of 4096 pages, in order
+			for (var i = 0; i < 4096; i++)
+				assertEquals(i, allocator.allocate());
+
+			// freed bits are found again by wrapping around
+			allocator.deallocate(5);
+			allocator.deallocate(new Extent(128, 192));
+			assertEquals(5, allocator.allocate());
+			assertEquals(128, allocator.allocate(64).start);
+
+			// the scanned range then doubles
+			assertEquals(4096, allocator.allocate());
+
+			for (var i = 4097; i < capacity; i++)
+				assertEquals(i, allocator.allocate());
+
+			assertThrows(RuntimeException.class, allocator::allocate);
+		}
+	}
+
+	@Test
+	public void test() throws IOException {
+		var pf = FileFactory.pageFile(Tmp.path("allocator"), true, pageSize);
+		var nPages = 3 * pageSize * 8;
+		var pointers = new HashSet<Integer>();
+
+		try (var allocator = new AllocatorImpl(SerializedFileFactory.serialized(pf, Singleton.me.serialize.bytes(pageSize)), 3)) {
+			allocator.create();
+
+			// grows beyond the initial size of the map
+			for (var i = 0; i < nPages - 64; i++)
+				assertTrue(pointers.add(allocator.allocate()));
+
+			for (var pointer = 100; pointer < 200; pointer++)
+				allocator.deallocate(pointer);
+
+			var extent = allocator.allocate(80);
+			assertEquals(extent.start + 80, extent.end);
+			assertTrue(extent.end <= 200 || nPages - 64 <= extent.start);
+
+			allocator.deallocate(extent);
+			assertEquals(100, allocator.allocate(100).start);
+		}
+	}
+
+}
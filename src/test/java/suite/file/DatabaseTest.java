@@ -2,19 +2,95 @@ package suite.file;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static primal.statics.Fail.fail;
+import static suite.util.Streamlet_.forInt;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
 import primal.Nouns.Tmp;
+import suite.concurrent.stm.Concurrent.AbortException;
 import suite.file.impl.Database;
+import suite.streamlet.As;
 
 public class DatabaseTest {
 
 	private int nRecords = 1000;
 
+	@Test
+	public void testGroupCommit() throws IOException {
+		var nThreads = 8;
+
+		try (var database = Database.openNew(Tmp.path("database"))) {
+		}
+
+		try (var database = Database.open(Tmp.path("database"), 1)) {
+			forInt(nThreads).collect(As.executeThreadsByInt(t -> {
+				for (var i = t; i < nRecords; i += nThreads) {
+					var key = i;
+					database.transact(tx -> {
+						tx.put(key, "sample-" + key);
+						return true;
+					});
+				}
+			}));
+		}
+
+		try (var database = Database.open(Tmp.path("database"))) {
+			for (var i = 0; i < nRecords; i++) {
+				var key = i;
+				assertEquals("sample-" + key, database.transact(tx -> tx.get(key)));
+			}
+		}
+	}
+
+	@Test
+	public void testSnapshotIsolation() throws IOException {
+		try (var database = Database.openNew(Tmp.path("database"))) {
+			assertThrows(AbortException.class, () -> database.transact(tx -> {
+				assertNull(tx.get(0));
+
+				database.transact(tx_ -> {
+					tx_.put(0, "concurrent");
+					return true;
+				});
+
+				// still reads from its snapshot, and fails to commit the conflicting write
+				assertNull(tx.get(0));
+				tx.put(0, "sample");
+				return true;
+			}));
+
+			assertEquals("concurrent", database.transact(tx -> tx.get(0)));
+		}
+	}
+
+	@Test
+	public void testReadOwnWrites() throws IOException {
+		try (var database = Database.openNew(Tmp.path("database"))) {
+			database.transact(tx -> {
+				for (var i = 0; i < 10; i += 2)
+					tx.put(i, "sample");
+				return true;
+			});
+
+			database.transact(tx -> {
+				tx.put(3, "sample");
+				tx.put(9, "sample");
+				tx.remove(4);
+				tx.remove(5); // not there
+				assertEquals(List.of(0, 2, 3, 6, 8, 9), tx.keys(null, null).toList());
+				assertEquals(List.of(2, 3, 6), tx.keys(1, 7).toList());
+				return true;
+			});
+
+			assertEquals(List.of(0, 2, 3, 6, 8, 9), database.transact(tx -> tx.keys(null, null).toList()));
+		}
+	}
+
 	@Test
 	public void testRollback() throws IOException {
 		try (var database = Database.openNew(Tmp.path("database"))) {
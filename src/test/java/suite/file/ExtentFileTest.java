@@ -0,0 +1,91 @@
+package suite.file;
+
+import static java.lang.Math.max;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import primal.Nouns.Tmp;
+import primal.primitive.adt.Bytes;
+import suite.file.ExtentAllocator.Extent;
+import suite.file.impl.FileFactory;
+
+public class ExtentFileTest {
+
+	@Test
+	public void test() throws IOException {
+		test(PageFile.defaultPageSize);
+		test(4096);
+	}
+
+	@Test
+	public void testFree() throws IOException {
+		var pageSize = PageFile.defaultPageSize;
+
+		try (var pf = FileFactory.mappedPageFile(Tmp.path("extentFile"), true, pageSize)) {
+			var extentFile = FileFactory.extentFile(pf, pageSize);
+			var extent0 = new Extent(0, 4);
+			var extent1 = new Extent(4, 5);
+
+			extentFile.save(extent0, Bytes.of(new byte[pageSize * 3]));
+			extentFile.save(extent1, Bytes.of(new byte[] { 1, }));
+			extentFile.free(extent0);
+
+			assertEquals(List.of(extent1), extentFile.scan(0, 5));
+
+			// a part of the freed pages is taken again
+			var extent2 = new Extent(0, 1);
+			extentFile.save(extent2, Bytes.of(new byte[] { 2, }));
+
+			assertEquals(List.of(extent2, extent1), extentFile.scan(0, 5));
+		}
+	}
+
+	@Test
+	public void testUnknownFormat() throws IOException {
+		var pageSize = PageFile.defaultPageSize;
+
+		try (var pf = FileFactory.mappedPageFile(Tmp.path("extentFile"), true, pageSize)) {
+			var extentFile = FileFactory.extentFile(pf, pageSize);
+
+			// a page beginning with an extent (0, 1), as written by the earlier format
+			pf.save(0, Bytes.of(new byte[] { 0, 0, 0, 0, 0, 0, 0, 1, }));
+
+			assertThrows(RuntimeException.class, () -> extentFile.load(new Extent(0, 1)));
+			assertEquals(List.of(), extentFile.scan(0, 1));
+		}
+	}
+
+	private void test(int pageSize) throws IOException {
+		var random = new Random(0);
+		var blockSize = pageSize - ExtentFile.headerSize;
+
+		try (var pf = FileFactory.mappedPageFile(Tmp.path("extentFile"), true, pageSize)) {
+			var extentFile = FileFactory.extentFile(FileFactory.subPageFiles(pf, 0, 1, Integer.MAX_VALUE)[1], pageSize);
+			var pointer = 0;
+
+			for (var size : new int[] { 0, 1, blockSize, blockSize + 1, 9999, }) {
+				var bs = new byte[size];
+				random.nextBytes(bs);
+
+				var bytes = Bytes.of(bs);
+				var nPages = max(1, (ExtentFile.headerSize + size + pageSize - 1) / pageSize);
+				var extent = new Extent(pointer, pointer + nPages);
+				pointer = extent.end;
+				extentFile.save(extent, bytes);
+
+				assertEquals(bytes, extentFile.load(extent));
+				assertEquals(extent, extentFile.scan(extent.start, extent.end).get(0));
+
+				// data pages are stepped over
+				assertEquals(List.of(), extentFile.scan(extent.start + 1, extent.end));
+			}
+		}
+	}
+
+}
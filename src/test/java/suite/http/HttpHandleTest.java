@@ -0,0 +1,208 @@
+package suite.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.jupiter.api.Test;
+
+import primal.Nouns.Utf8;
+import primal.Verbs.Sleep;
+import primal.Verbs.Start;
+import suite.http.Http.Handler;
+
+public class HttpHandleTest {
+
+	private HttpHandle handle = new HttpHandle();
+
+	@Test
+	public void testRange() throws IOException {
+		var port = 5181;
+		var bs = serve(port, 1 << 20);
+
+		try (var socket = new Socket("localhost", port)) {
+			var reply = request(socket, "Range: bytes=100-199\r\n");
+
+			assertEquals("HTTP/1.1 206 Partial Content", reply.status);
+			assertEquals("bytes 100-199/" + bs.length, reply.headers.get("Content-Range"));
+			assertArrayEquals(Arrays.copyOfRange(bs, 100, 200), reply.body);
+		}
+	}
+
+	@Test
+	public void testMultipart() throws IOException {
+		var port = 5182;
+		var bs = serve(port, 1 << 20);
+		var size = bs.length;
+
+		try (var socket = new Socket("localhost", port)) {
+			var reply = request(socket, "Range: bytes=0-9, -10\r\n");
+			var body = new String(reply.body, Utf8.charset);
+			var contentType = reply.headers.get("Content-Type");
+			var boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+
+			assertEquals("HTTP/1.1 206 Partial Content", reply.status);
+			assertTrue(contentType.startsWith("multipart/byteranges"));
+			assertTrue(body.contains("Content-Range: bytes 0-9/" + size + "\r\n\r\n" + text(bs, 0, 10) + "\r\n"));
+			assertTrue(body.contains("Content-Range: bytes " + (size - 10) + "-" + (size - 1) + "/" + size + "\r\n\r\n"
+					+ text(bs, size - 10, size) + "\r\n"));
+			assertTrue(body.endsWith("\r\n--" + boundary + "--\r\n"));
+		}
+	}
+
+	@Test
+	public void testUnsatisfiable() throws IOException {
+		var port = 5183;
+		var bs = serve(port, 1 << 10);
+
+		try (var socket = new Socket("localhost", port)) {
+			var reply = request(socket, "Range: bytes=" + bs.length + "-\r\n");
+
+			assertEquals("HTTP/1.1 416 Range Not Satisfiable", reply.status);
+			assertEquals("bytes */" + bs.length, reply.headers.get("Content-Range"));
+		}
+	}
+
+	@Test
+	public void testNotModified() throws IOException {
+		var port = 5184;
+		serve(port, 1 << 10);
+
+		try (var socket = new Socket("localhost", port)) {
+			var reply0 = request(socket, "");
+			var etag = reply0.headers.get("ETag");
+			var lastModified = reply0.headers.get("Last-Modified");
+			assertEquals("HTTP/1.1 200 OK", reply0.status);
+
+			var reply1 = request(socket, "If-None-Match: " + etag + "\r\n");
+			assertEquals("HTTP/1.1 304 Not Modified", reply1.status);
+			assertEquals(0, reply1.body.length);
+
+			var reply2 = request(socket, "If-Modified-Since: " + lastModified + "\r\n");
+			assertEquals("HTTP/1.1 304 Not Modified", reply2.status);
+
+			var reply3 = request(socket, "If-None-Match: \"0-0\"\r\n");
+			assertEquals("HTTP/1.1 200 OK", reply3.status);
+		}
+	}
+
+	@Test
+	public void testDisconnect() throws IOException {
+		var port = 5185;
+		var files = new ConcurrentLinkedQueue<FileChannel>();
+		var serveDir = handle.serveDir(dir(1 << 26));
+
+		run(request -> {
+			var response = serveDir.handle(request);
+			files.add(response.file);
+			return response;
+		}, port);
+
+		try (var socket = new Socket("localhost", port)) {
+			var os = socket.getOutputStream();
+			os.write(get("").getBytes(Utf8.charset));
+			os.flush();
+
+			assertEquals("HTTP/1.1 200 OK", readLine(socket.getInputStream()));
+
+			// resets the connection while the file is being transferred
+			socket.setSoLinger(true, 0);
+		}
+
+		Sleep.quietly(1000);
+
+		var file = files.remove();
+		assertFalse(file.isOpen());
+	}
+
+	private class Reply {
+		private String status;
+		private Map<String, String> headers = new HashMap<>();
+		private byte[] body;
+	}
+
+	private byte[] serve(int port, int size) throws IOException {
+		var dir = dir(size);
+		run(handle.serveDir(dir), port);
+		return Files.readAllBytes(dir.resolve("file"));
+	}
+
+	private Path dir(int size) throws IOException {
+		var random = new Random();
+		var bs = new byte[size];
+
+		for (var i = 0; i < size; i++)
+			bs[i] = (byte) ('A' + random.nextInt(26));
+
+		var dir = Files.createTempDirectory("http");
+		Files.write(dir.resolve("file"), bs);
+		return dir;
+	}
+
+	private void run(Handler handler, int port) {
+		Start.thread(() -> new HttpNio(handler).run(port));
+		Sleep.quietly(500);
+	}
+
+	private Reply request(Socket socket, String headers) throws IOException {
+		var os = socket.getOutputStream();
+		os.write(get(headers).getBytes(Utf8.charset));
+		os.flush();
+
+		var is = socket.getInputStream();
+		var reply = new Reply();
+		reply.status = readLine(is);
+
+		String line;
+
+		while (!(line = readLine(is)).isEmpty()) {
+			var index = line.indexOf(":");
+			reply.headers.put(line.substring(0, index), line.substring(index + 1).trim());
+		}
+
+		var length = reply.headers.get("Content-Length");
+
+		if (reply.status.endsWith(Http.S304.line))
+			reply.body = new byte[0];
+		else if (length != null)
+			reply.body = is.readNBytes(Integer.parseInt(length));
+		else // till the connection closes
+			reply.body = is.readAllBytes();
+
+		return reply;
+	}
+
+	private String get(String headers) {
+		return "GET /file HTTP/1.1\r\nHost: localhost\r\n" + headers + "\r\n";
+	}
+
+	private String readLine(InputStream is) throws IOException {
+		var baos = new ByteArrayOutputStream();
+		int c;
+
+		while (0 <= (c = is.read()) && c != 10)
+			if (c != 13)
+				baos.write(c);
+
+		return new String(baos.toByteArray(), Utf8.charset);
+	}
+
+	private String text(byte[] bs, int start, int end) {
+		return new String(bs, start, end - start, Utf8.charset);
+	}
+
+}
@@ -0,0 +1,172 @@
+package suite.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import primal.Verbs.Sleep;
+import primal.Verbs.Start;
+import primal.primitive.adt.Bytes;
+import primal.puller.Puller;
+import suite.http.Http.Handler;
+import suite.http.Http.Header;
+import suite.http.Http.Response;
+
+public class HttpNioTest {
+
+	private Handler echoPath = request -> Response.of(Http.S200, request.path());
+
+	@Test
+	public void testPipelined() throws IOException {
+		var port = 5171;
+		run(new HttpNio(echoPath), port);
+
+		try (var socket = new Socket("localhost", port);
+				var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				var pw = new PrintWriter(socket.getOutputStream())) {
+
+			// both requests arrive in one read, the second waits in the buffer
+			pw.print(get("/a") + get("/b"));
+			pw.flush();
+
+			assertEquals("/a", readBody(br));
+			assertEquals("/b", readBody(br));
+
+			// the connection is kept for more
+			pw.print(get("/c"));
+			pw.flush();
+
+			assertEquals("/c", readBody(br));
+		}
+	}
+
+	@Test
+	public void testConnectionClose() throws IOException {
+		var port = 5172;
+		run(new HttpNio(echoPath), port);
+
+		try (var socket = new Socket("localhost", port);
+				var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				var pw = new PrintWriter(socket.getOutputStream())) {
+			pw.print("GET /a HTTP/1.1\r\nConnection: close\r\n\r\n");
+			pw.flush();
+
+			assertEquals("/a", readBody(br));
+			assertNull(br.readLine());
+		}
+	}
+
+	@Test
+	public void testMaxRequestsPerConnection() throws IOException {
+		var port = 5173;
+		var httpNio = new HttpNio(echoPath);
+		httpNio.setMaxRequestsPerConnection(2);
+		run(httpNio, port);
+
+		try (var socket = new Socket("localhost", port);
+				var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				var pw = new PrintWriter(socket.getOutputStream())) {
+			pw.print(get("/a") + get("/b") + get("/c"));
+			pw.flush();
+
+			// the third request is never answered
+			assertEquals("/a", readBody(br));
+			assertEquals("/b", readBody(br));
+			assertNull(br.readLine());
+		}
+	}
+
+	@Test
+	public void testIdleTimeout() throws IOException {
+		var port = 5174;
+		var httpNio = new HttpNio(echoPath);
+		httpNio.setIdleTimeout(500l);
+		run(httpNio, port);
+
+		try (var socket = new Socket("localhost", port);
+				var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				var pw = new PrintWriter(socket.getOutputStream())) {
+			pw.print(get("/a"));
+			pw.flush();
+
+			assertEquals("/a", readBody(br));
+
+			// nothing more is sent; the server closes after the idle timeout
+			assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertNull(br.readLine()));
+		}
+	}
+
+	@Test
+	public void testWriteFailed() throws IOException {
+		var port = 5175;
+		var size = 1 << 16;
+		var count = 1 << 14; // 1 GB in total
+		var nPulls = new AtomicInteger();
+
+		Handler handler = request -> Response.of( //
+				Http.S200, //
+				new Header().put("Content-Length", Long.toString((long) size * count)), //
+				Puller.of(() -> nPulls.getAndIncrement() < count ? Bytes.of(new byte[size]) : null));
+
+		run(new HttpNio(handler), port);
+
+		try (var socket = new Socket("localhost", port);
+				var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				var pw = new PrintWriter(socket.getOutputStream())) {
+			pw.print(get("/a"));
+			pw.flush();
+
+			assertEquals("HTTP/1.1 200 OK", br.readLine());
+
+			// resets the connection while the body is being written
+			socket.setSoLinger(true, 0);
+		}
+
+		// the server stops pulling the body once the write has failed
+		Sleep.quietly(1000);
+		var n = nPulls.get();
+		Sleep.quietly(1000);
+		assertEquals(n, nPulls.get());
+		assertTrue(n < count);
+	}
+
+	private void run(HttpNio httpNio, int port) {
+		Start.thread(() -> httpNio.run(port));
+		Sleep.quietly(500);
+	}
+
+	private String get(String path) {
+		return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+	}
+
+	private String readBody(BufferedReader br) throws IOException {
+		assertEquals("HTTP/1.1 200 OK", br.readLine());
+
+		var length = 0;
+		String line;
+
+		while (!(line = br.readLine()).isEmpty())
+			if (line.startsWith("Content-Length:"))
+				length = Integer.parseInt(line.substring(15).trim());
+
+		var cs = new char[length];
+		var n = 0;
+
+		while (n < length)
+			n += br.read(cs, n, length - n);
+
+		return new String(cs);
+	}
+
+}
@@ -0,0 +1,83 @@
+package suite.lp.doer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static primal.statics.Fail.fail;
+
+import org.junit.jupiter.api.Test;
+
+import suite.Suite;
+import suite.lp.Configuration.ProverCfg;
+import suite.lp.kb.RuleSet;
+import suite.lp.search.InterpretedProverBuilder;
+import suite.lp.search.SewingProverBuilder2;
+import suite.os.Stopwatch;
+
+public class TablingTest {
+
+	private String reach = "" //
+			+ ":- table reach/2 #" //
+			+ "reach .x .y :- reach .x .z, edge .z .y #" //
+			+ "reach .x .y :- edge .x .y #";
+
+	@Test
+	public void testLeftRecursion() {
+		var rs = Suite.getRuleSet(Suite.parse(reach + "edge 0 1 # edge 1 2 # edge 2 0 # edge 2 3 #"));
+
+		assertTrue(test(rs, "reach 0 3"));
+		assertTrue(test(rs, "reach 1 1"));
+		assertTrue(test(rs, "find.all .y (reach 2 .y) .ys, .ys = (_, _, _, _,)"));
+		assertFalse(test(rs, "reach 3 0"));
+	}
+
+	@Test
+	public void testAssert() {
+		var rs = Suite.getRuleSet(Suite.parse(reach + "edge 0 1 # edge 1 2 # edge 2 3 #"));
+		var prover = new Prover(rs);
+
+		assertFalse(prover.prove(Suite.parse("reach 3 0")));
+		assertTrue(prover.prove(Suite.parse("assert (edge 3 0), reach 3 0")));
+	}
+
+	@Test
+	public void testMutualRecursion() {
+		var rs = Suite.getRuleSet(Suite.parse("" //
+				+ ":- table even/1 #" //
+				+ ":- table odd/1 #" //
+				+ "even 0 #" //
+				+ "even .n :- odd .m, succ .m .n #" //
+				+ "odd .n :- even .m, succ .m .n #" //
+				+ "succ 0 1 # succ 1 2 # succ 2 3 # succ 3 4 # succ 4 0 #"));
+
+		// the cycle of five makes every number both even and odd
+		assertTrue(test(rs, "even 3"));
+		assertTrue(test(rs, "odd 4"));
+	}
+
+	@Test
+	public void testTransitiveClosure() {
+		for (var n = 32; n <= 256; n *= 2) {
+			var sb = new StringBuilder(reach);
+			for (var i = 0; i < n; i++)
+				sb.append("edge " + i + " " + (i + 1) % n + " #");
+
+			var rs = Suite.getRuleSet(Suite.parse(sb.toString()));
+			var lp = "find.all .y (reach 0 .y) .ys, length .ys " + n;
+			var sw = Stopwatch.of(() -> Suite.proveLogic(rs, lp));
+
+			System.out.println("transitive closure of " + n + " nodes: " + sw.duration + " ms");
+			assertTrue(sw.result);
+		}
+	}
+
+	private boolean test(RuleSet rs, String lp) {
+		var pc = new ProverCfg();
+		var b0 = Suite.proveLogic(new InterpretedProverBuilder(pc), rs, lp);
+		var b1 = Suite.proveLogic(new SewingProverBuilder2(pc), rs, lp);
+		if (b0 == b1)
+			return b0;
+		else
+			return fail("different prove result");
+	}
+
+}
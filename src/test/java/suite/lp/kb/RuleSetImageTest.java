@@ -0,0 +1,81 @@
+package suite.lp.kb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static primal.statics.Rethrow.ex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import primal.Nouns.Tmp;
+import suite.Suite;
+import suite.os.Stopwatch;
+
+public class RuleSetImageTest {
+
+	private List<String> toImports = List.of("auto.sl", "fc/fc.sl");
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		var rs0 = Suite.getRuleSet(Suite.parse("" //
+				+ "mem (.e, _) .e #" //
+				+ "mem (_, .tail) .e :- mem .tail .e #" //
+				+ "name \"hello\" 1 #"));
+
+		var path = Tmp.path("rule-set-image-test.rsi");
+		RuleSetImage.save(path, 1, rs0.getRules());
+		assertNull(RuleSetImage.load(path, 2));
+
+		var rs1 = new ImageRuleSet(RuleSetImage.load(path, 1));
+		assertTrue(Suite.proveLogic(rs1, "mem (1, 2, 3,) 2"));
+		assertTrue(Suite.proveLogic(rs1, "name \"hello\" 1"));
+
+		Suite.addRule(rs1, "name \"world\" 2");
+		assertTrue(Suite.proveLogic(rs1, "name \"world\" 2"));
+		assertEquals(rs0.getRules(), rs1.getRules().subList(0, 3));
+	}
+
+	@Test
+	public void testCorrupt() throws IOException {
+		var rs0 = Suite.getRuleSet(Suite.parse("name \"hello\" 1 #"));
+		var path = Tmp.path("rule-set-image-corrupt.rsi");
+		RuleSetImage.save(path, 1, rs0.getRules());
+
+		// cuts off the last rule
+		var bs = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bs, bs.length - 4));
+
+		var rs1 = RuleSetImage.cached(path, 1, () -> rs0);
+		assertSame(rs0, rs1);
+
+		// the image is written again
+		var rs2 = new ImageRuleSet(RuleSetImage.load(path, 1));
+		assertTrue(Suite.proveLogic(rs2, "name \"hello\" 1"));
+	}
+
+	@Test
+	public void testStartup() throws IOException {
+		var path = Tmp.path("rule-set-image-fc.rsi");
+
+		var sw0 = Stopwatch.of(() -> ex(() -> {
+			var rs = Suite.newRuleSet();
+			for (var toImport : toImports)
+				rs.importPath(toImport);
+			return rs;
+		}));
+		RuleSetImage.save(path, 0, sw0.result.getRules());
+
+		var sw1 = Stopwatch.of(() -> new ImageRuleSet(ex(() -> RuleSetImage.load(path, 0))));
+		assertEquals(sw0.result.getRules(), sw1.result.getRules());
+		assertEquals(sw0.result, sw1.result); // same keys for memoized compilers
+
+		System.out.println("import: " + sw0.duration + " ms, image: " + sw1.duration + " ms");
+	}
+
+}
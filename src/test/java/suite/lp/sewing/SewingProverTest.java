@@ -1,12 +1,18 @@
 package suite.lp.sewing;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.Test;
 
 import primal.fp.Funs.Source;
 import suite.Suite;
+import suite.concurrent.Threads;
 import suite.lp.Configuration.ProverCfg;
 import suite.lp.doer.Generalizer;
 import suite.lp.kb.Rule;
@@ -90,6 +96,81 @@ public class SewingProverTest {
 		assertFalse(sp.prover(Suite.parse("if fail () fail")).test(pc));
 	}
 
+	@Test
+	public void testIndex() {
+		var rs = Suite.newRuleSet();
+		for (var i = 0; i < 1024; i++)
+			Suite.addRule(rs, "edge " + i + " " + (i + 1));
+		Suite.addRule(rs, "edge .i .i");
+
+		var sp = new SewingProverImpl(rs);
+		var pc = new ProverCfg(rs);
+		assertTrue(sp.prover(Suite.parse("edge 512 513")).test(pc));
+		assertTrue(sp.prover(new Generalizer().generalize(Suite.parse("edge .i 513, .i = 512"))).test(pc));
+		assertTrue(sp.prover(new Generalizer().generalize(Suite.parse("edge 3 .j, .j = 3"))).test(pc));
+		assertTrue(sp.prover(Suite.parse("edge 2048 2048")).test(pc));
+		assertFalse(sp.prover(Suite.parse("edge 2048 2049")).test(pc));
+	}
+
+	@Test
+	public void testParallel() {
+		var rs = Suite.newRuleSet();
+		for (var i = 0; i < 256; i++)
+			Suite.addRule(rs, "n " + i);
+		Suite.addRule(rs, "s .x .y .z :- n .y, n .z, let .x (.y + .z)");
+
+		var lp = new Generalizer().generalize(Suite.parse("" //
+				+ "find.all .y/.z (n .y, s 255 .y .z) .l0, length .l0 256, .l0 = (0/255, 1/254, _), " //
+				+ "find.all .v (.v = a; .v = b; n .v, .v < 2) .l1, .l1 = (a, b, 0, 1,)"));
+
+		var pc = new ProverCfg(rs);
+		var sw0 = Stopwatch.of(() -> new SewingProverImpl(rs).prover(lp).test(pc));
+
+		try (var threads = new Threads(8)) {
+			var sw1 = Stopwatch.of(() -> new SewingProverImpl(rs, threads).prover(lp).test(pc));
+
+			System.out.println("sequential: " + sw0.duration + " ms, parallel: " + sw1.duration + " ms");
+			assertTrue(sw0.result);
+			assertTrue(sw1.result);
+		}
+	}
+
+	@Test
+	public void testParallelTabled() {
+		var rs = Suite.getRuleSet(Suite.parse("" //
+				+ ":- table reach/2 #" //
+				+ ":- table reaches/2 #" //
+				+ "reach .x .y :- edge .x .y #" //
+				+ "reach .x .y :- edge .x .z, reach .z .y #" //
+				+ "reaches .x .ys :- find.all .y (reach .x .y; .y = .x) .ys #" //
+				+ "edge 0 1 # edge 1 2 #"));
+
+		var lp = new Generalizer().generalize(Suite.parse("reaches 0 .ys, .ys = (1, 2, 0,)"));
+		var pc = new ProverCfg(rs);
+
+		// the tabled solve holds the table lock, so must not fork
+		try (var threads = new Threads(8)) {
+			assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+				assertTrue(new SewingProverImpl(rs, threads).prover(lp).test(pc));
+			});
+		}
+	}
+
+	@Test
+	public void testParallelInWorker() throws Exception {
+		var rs = Suite.newRuleSet();
+		var lp = new Generalizer().generalize(Suite.parse("find.all .v (.v = a; .v = b) .l, .l = (a, b,)"));
+		var pc = new ProverCfg(rs);
+		var result = new CompletableFuture<Boolean>();
+
+		// a single worker would wait for the branches queued behind itself
+		try (var threads = new Threads(1)) {
+			var sp = new SewingProverImpl(rs, threads);
+			threads.execute(() -> result.complete(sp.prover(lp).test(pc)));
+			assertTrue(result.get(10, TimeUnit.SECONDS));
+		}
+	}
+
 	@Test
 	public void testPerformance() {
 		var rs = Suite.newRuleSet();
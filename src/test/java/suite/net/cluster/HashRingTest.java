@@ -0,0 +1,47 @@
+package suite.net.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import suite.net.cluster.impl.HashRing;
+
+public class HashRingTest {
+
+	private int nKeys = 10000;
+
+	@Test
+	public void testJoin() {
+		var ring0 = new HashRing(List.of("NODE0", "NODE1", "NODE2", "NODE3"), 64);
+		var ring1 = ring0.add("NODE4");
+		var nMoved = 0;
+
+		for (var key = 0; key < nKeys; key++) {
+			var peer0 = ring0.getPeers(key, 1).get(0);
+			var peer1 = ring1.getPeers(key, 1).get(0);
+
+			// keys only move to the new peer
+			if (!peer0.equals(peer1)) {
+				assertEquals("NODE4", peer1);
+				nMoved++;
+			}
+		}
+
+		// about one fifth of the keys
+		assertTrue(nKeys / 10 < nMoved && nMoved < nKeys * 3 / 10);
+	}
+
+	@Test
+	public void testReplicas() {
+		var ring = new HashRing(List.of("NODE0", "NODE1", "NODE2"), 64);
+
+		for (var key = 0; key < nKeys; key++)
+			assertEquals(2l, ring.getPeers(key, 2).stream().distinct().count());
+
+		assertEquals(3, ring.getPeers(0, 5).size());
+	}
+
+}
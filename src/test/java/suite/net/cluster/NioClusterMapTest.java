@@ -10,7 +10,11 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.jupiter.api.Test;
 
@@ -21,6 +25,7 @@ import primal.Verbs.Start;
 import primal.fp.Funs.Fun;
 import primal.fp.Funs.Sink;
 import primal.fp.Funs.Source;
+import primal.fp.Funs2.Sink2;
 import primal.os.Log_;
 import primal.primitive.IntPrim.Int_Obj;
 import primal.statics.Rethrow;
@@ -71,6 +76,15 @@ public class NioClusterMapTest {
 			cont.run();
 		}, fail);
 
+		var map = forInt(9, 18).map2(i -> i, i -> Integer.toString(i)).toMap();
+
+		Sink<Runnable> setAllf = cont -> peerf.g().setAll(map, cont, fail);
+
+		Sink<Runnable> getAllf = cont -> peerf.g().getAll(map.keySet(), map1 -> {
+			assertEquals(map, map1);
+			cont.run();
+		}, fail);
+
 		Fun<NioCluster, Sink<Runnable>> closef = cluster -> cont -> {
 			try {
 				cluster.stop();
@@ -84,6 +98,7 @@ public class NioClusterMapTest {
 		var sinks = Streamlet.concat( //
 				forInt(9).map(setf), //
 				forInt(9).map(getf), //
+				Read.each(setAllf, getAllf), //
 				Read.from2(clusters).values().map(closef)).toList();
 
 		new Object() {
@@ -99,4 +114,128 @@ public class NioClusterMapTest {
 			cluster.close();
 	}
 
+	@Test
+	public void testReplicas() throws IOException {
+		var peers = peers(3, 3100);
+		var clusters = clusters(peers);
+		var clMap = new HashMap<String, NioClusterMap<Integer, String>>();
+		var threads = new ArrayList<Thread>();
+
+		for (var name : peers.keySet())
+			start(clusters.get(name), clMap, threads);
+
+		Sleep.quietly(5 * 1000);
+
+		for (var i = 0; i < 9; i++) {
+			var i_ = i;
+			await((okay, fail) -> clMap.get("NODE0").set(i_, Integer.toString(i_), okay, fail));
+		}
+
+		// rotates over both replicas of each key
+		for (var map : clMap.values())
+			for (var i = 0; i < 18; i++) {
+				var i_ = i / 2;
+				assertEquals(Integer.toString(i_), this.<String> await((okay, fail) -> map.get(i_, okay, fail)));
+			}
+
+		// the other replica answers after a peer leaves
+		clusters.get("NODE2").stop();
+
+		Sleep.quietly(10 * 1000);
+
+		for (var i = 0; i < 9; i++) {
+			var i_ = i;
+			assertEquals(Integer.toString(i_), this.<String> await((okay, fail) -> clMap.get("NODE0").get(i_, okay, fail)));
+		}
+
+		stop(clusters, threads, "NODE2");
+	}
+
+	@Test
+	public void testHandoff() throws IOException {
+		var peers = peers(3, 3200);
+		var clusters = clusters(peers);
+		var clMap = new HashMap<String, NioClusterMap<Integer, String>>();
+		var threads = new ArrayList<Thread>();
+
+		start(clusters.get("NODE0"), clMap, threads);
+		start(clusters.get("NODE1"), clMap, threads);
+
+		Sleep.quietly(5 * 1000);
+
+		for (var i = 0; i < 18; i++) {
+			var i_ = i;
+			await((okay, fail) -> clMap.get("NODE0").set(i_, Integer.toString(i_), okay, fail));
+		}
+
+		// entries now replicated on the new peer are handed off to it
+		start(clusters.get("NODE2"), clMap, threads);
+
+		Sleep.quietly(10 * 1000);
+
+		for (var map : clMap.values())
+			for (var i = 0; i < 36; i++) {
+				var i_ = i / 2;
+				assertEquals(Integer.toString(i_), this.<String> await((okay, fail) -> map.get(i_, okay, fail)));
+			}
+
+		stop(clusters, threads);
+	}
+
+	@Test
+	public void testCollectionValue() throws IOException {
+		var peers = peers(1, 3300);
+		var clusters = clusters(peers);
+		var clMap = new HashMap<String, NioClusterMap<Integer, List<Object>>>();
+		var threads = new ArrayList<Thread>();
+
+		start(clusters.get("NODE0"), clMap, threads);
+
+		var map = clMap.get("NODE0");
+		var value = List.<Object> of("a", 1, List.of(2l, 3d), Map.of("b", List.of()));
+
+		await((okay, fail) -> map.set(0, value, okay, fail));
+		assertEquals(value, this.<List<Object>> await((okay, fail) -> map.get(0, okay, fail)));
+
+		stop(clusters, threads);
+	}
+
+	private Map<String, InetSocketAddress> peers(int nNodes, int port) {
+		return forInt(nNodes).map2(i -> "NODE" + i, i -> new InetSocketAddress(localHost, port + i)).toMap();
+	}
+
+	private Map<String, NioCluster> clusters(Map<String, InetSocketAddress> peers) {
+		return Read.from2(peers).keys().map2(name -> name, name -> ex(() -> new NioCluster(name, peers))).toMap();
+	}
+
+	private <V> void start(NioCluster cluster, Map<String, NioClusterMap<Integer, V>> clMap, List<Thread> threads) {
+		ex(() -> {
+			cluster.start();
+			return cluster;
+		});
+		clMap.put(cluster.getMe(), new NioClusterMap<>(cluster, 2));
+		threads.add(Start.thread(cluster::run));
+	}
+
+	private void stop(Map<String, NioCluster> clusters, List<Thread> threads, String... stopped) throws IOException {
+		for (var cluster : clusters.values())
+			if (!List.of(stopped).contains(cluster.getMe()))
+				cluster.stop();
+
+		for (var thread : threads)
+			ex(() -> {
+				thread.join();
+				return thread;
+			});
+
+		for (var cluster : clusters.values())
+			cluster.close();
+	}
+
+	private <T> T await(Sink2<Sink<T>, Sink<IOException>> request) {
+		var future = new CompletableFuture<T>();
+		request.sink2(future::complete, future::completeExceptionally);
+		return future.join();
+	}
+
 }
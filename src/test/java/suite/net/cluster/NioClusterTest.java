@@ -2,12 +2,17 @@ package suite.net.cluster;
 
 import static java.util.Map.entry;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static primal.statics.Fail.fail;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.Test;
 
@@ -57,4 +62,46 @@ public class NioClusterTest {
 		}
 	}
 
+	@Test
+	public void testTimeout() throws IOException {
+		var peers = Map.ofEntries( //
+				entry("NODE0", new InetSocketAddress(localHost, 3010)), //
+				entry("NODE1", new InetSocketAddress(localHost, 3011)));
+
+		var exception = new AtomicReference<IOException>();
+
+		try ( //
+				var cluster0 = new NioCluster("NODE0", peers); //
+				var cluster1 = new NioCluster("NODE1", peers);) {
+			cluster0.setRequestTimeout(500);
+
+			// holds the request for longer than the requester waits
+			cluster1.setOnReceive(String.class, s -> {
+				Sleep.quietly(3 * 1000);
+				return s;
+			});
+
+			cluster0.start();
+			cluster1.start();
+
+			Sleep.quietly(2 * 1000);
+
+			cluster0.requestForResponse("NODE1", "hello", response -> fail("answered"), ex -> {
+				exception.set(ex);
+
+				try {
+					cluster0.stop();
+					cluster1.stop();
+				} catch (IOException ex1) {
+					throw new RuntimeException(ex1);
+				}
+			});
+
+			assertTimeoutPreemptively(Duration.ofSeconds(30), () -> Start.thenJoin(cluster0::run, cluster1::run));
+		}
+
+		assertNotNull(exception.get());
+		System.out.println(exception.get());
+	}
+
 }
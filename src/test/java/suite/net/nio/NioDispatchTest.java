@@ -1,6 +1,7 @@
 package suite.net.nio;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
@@ -11,6 +12,8 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
@@ -78,6 +81,137 @@ public class NioDispatchTest {
 		}
 	}
 
+	@Test
+	public void testReactors() throws IOException {
+		try (var dispatch = new NioDispatch(2); var listen = listen(dispatch)) {
+			Start.thread(() -> {
+				var sockets = new ArrayList<Socket>();
+
+				// connections are spread over the reactors
+				for (var i = 0; i < 4; i++)
+					sockets.add(new Socket(localHost, port));
+
+				for (var i = 0; i < sockets.size(); i++) {
+					var socket = sockets.get(i);
+					var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+					var pw = new PrintWriter(socket.getOutputStream());
+					pw.print(hello + i + lineFeed);
+					pw.flush();
+					assertEquals(hello + i, br.readLine());
+				}
+
+				for (var socket : sockets)
+					socket.close();
+
+				System.out.println("OK");
+				dispatch.stop();
+			});
+
+			dispatch.run();
+		}
+	}
+
+	@Test
+	public void testSplice() throws IOException {
+		var port1 = port + 1;
+
+		try (var dispatch = new NioDispatch();
+				var listen = listen(dispatch);
+				var splice = dispatch.asyncListen(port1, rw0 -> dispatch.asyncConnect( //
+						new InetSocketAddress(localHost, port), //
+						rw1 -> dispatch.splice(rw0, rw1, () -> {
+						}), //
+						fail))) {
+			Start.thread(() -> {
+				try (var socket = new Socket(localHost, port1);
+						var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+						var pw = new PrintWriter(socket.getOutputStream())) {
+					for (var i = 0; i < 3; i++) {
+						pw.print(hello + i + lineFeed);
+						pw.flush();
+						assertEquals(hello + i, br.readLine());
+					}
+				}
+
+				System.out.println("OK");
+				dispatch.stop();
+			});
+
+			dispatch.run();
+		}
+	}
+
+	@Test
+	public void testSpliceHalfClose() throws IOException {
+		var port1 = port + 2;
+
+		try (var dispatch = new NioDispatch();
+				var listen = listen(dispatch);
+				var splice = dispatch.asyncListen(port1, rw0 -> dispatch.asyncConnect( //
+						new InetSocketAddress(localHost, port), //
+						rw1 -> dispatch.splice(rw0, rw1, () -> {
+						}), //
+						fail))) {
+			Start.thread(() -> {
+				try (var socket = new Socket(localHost, port1);
+						var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+						var pw = new PrintWriter(socket.getOutputStream())) {
+					pw.print(hello + lineFeed);
+					pw.flush();
+					socket.shutdownOutput();
+
+					// the answer still comes back after our end of stream
+					assertEquals(hello, br.readLine());
+					assertNull(br.readLine());
+				}
+
+				System.out.println("OK");
+				dispatch.stop();
+			});
+
+			dispatch.run();
+		}
+	}
+
+	@Test
+	public void testSpliceLarge() throws IOException {
+		var port1 = port + 3;
+		var random = new Random();
+		var sb = new StringBuilder();
+
+		// larger than the socket send buffers, so that writes are partial
+		for (var i = 0; i < 1 << 22; i++)
+			sb.append((char) ('A' + random.nextInt(26)));
+
+		var payload = sb.toString();
+
+		try (var dispatch = new NioDispatch();
+				var listen = listen(dispatch);
+				var splice = dispatch.asyncListen(port1, rw0 -> dispatch.asyncConnect( //
+						new InetSocketAddress(localHost, port), //
+						rw1 -> dispatch.splice(rw0, rw1, () -> {
+						}), //
+						fail))) {
+			Start.thread(() -> {
+				try (var socket = new Socket(localHost, port1);
+						var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+						var pw = new PrintWriter(socket.getOutputStream())) {
+					Start.thread(() -> {
+						pw.print(payload + lineFeed);
+						pw.flush();
+					});
+
+					assertEquals(payload, br.readLine());
+				}
+
+				System.out.println("OK");
+				dispatch.stop();
+			});
+
+			dispatch.run();
+		}
+	}
+
 	private Closeable listen(NioDispatch dispatch) throws IOException {
 		return dispatch.asyncListen(port, new Sink<>() {
 			public void f(AsyncRw rw) {
@@ -0,0 +1,52 @@
+package suite.node.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static suite.util.Streamlet_.forInt;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import suite.node.Atom;
+import suite.os.Stopwatch;
+import suite.streamlet.As;
+
+public class AtomContextTest {
+
+	private int nNames = 4096;
+
+	@Test
+	public void testIdentity() {
+		var atoms = new ConcurrentHashMap<String, Atom>();
+
+		forInt(8).collect(As.executeThreadsByInt(t -> {
+			for (var i = 0; i < nNames; i++) {
+				var name = "atom-" + (i * 7 + t) % nNames;
+				var atom = Atom.of(name);
+				assertSame(atom, atoms.computeIfAbsent(name, name_ -> atom));
+			}
+		}));
+
+		assertEquals(nNames, atoms.size());
+		assertSame(atoms.get("atom-0"), Atom.of("atom-0"));
+	}
+
+	@Test
+	public void testBenchmark() {
+		for (var nThreads = 1; nThreads <= 8; nThreads *= 2) {
+			var nThreads_ = nThreads;
+
+			var sw = Stopwatch.of(() -> {
+				forInt(nThreads_).collect(As.executeThreadsByInt(t -> {
+					for (var i = 0; i < 1 << 20; i++)
+						Atom.of("bench-" + i % nNames);
+				}));
+				return true;
+			});
+
+			System.out.println(nThreads + " threads: " + sw.duration + " ms");
+		}
+	}
+
+}
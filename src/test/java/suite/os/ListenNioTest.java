@@ -0,0 +1,94 @@
+package suite.os;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import primal.Verbs.Sleep;
+import primal.Verbs.Start;
+import primal.primitive.adt.Bytes;
+import suite.os.ListenNio.Reg;
+
+public class ListenNioTest {
+
+	private int port = 5161;
+	private char lineFeed = (char) 10;
+
+	@Test
+	public void testEchoLarge() throws IOException {
+		var random = new Random();
+		var sb = new StringBuilder();
+
+		// larger than the socket buffers, so that reads and writes are partial
+		for (var i = 0; i < 1 << 22; i++)
+			sb.append((char) ('A' + random.nextInt(26)));
+
+		var payload = sb.toString();
+
+		Start.thread(() -> new ListenNio(this::echo).run(port));
+		Sleep.quietly(500);
+
+		try (var socket = new Socket("localhost", port);
+				var br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				var pw = new PrintWriter(socket.getOutputStream())) {
+			Start.thread(() -> {
+				pw.print(payload + lineFeed);
+				pw.flush();
+			});
+
+			assertEquals(payload, br.readLine());
+		}
+
+		System.out.println("OK");
+	}
+
+	/**
+	 * Keeps every chunk read till the line feed, then writes them all back; the
+	 * chunks must survive the reads after them.
+	 */
+	private void echo(Reg reg) {
+		var rw = new Object() {
+			private ArrayDeque<Bytes> chunks = new ArrayDeque<>();
+			private boolean isRead;
+
+			private void listen() {
+				if (!isRead)
+					reg.listenRead(this::read);
+				else if (!chunks.isEmpty())
+					reg.listenWrite(chunks::peek, this::written);
+				else
+					reg.close();
+			}
+
+			private void read(Bytes in) {
+				if (in != null) {
+					chunks.add(in);
+					isRead = !in.isEmpty() && in.get(in.size() - 1) == lineFeed;
+					listen();
+				} else
+					reg.close();
+			}
+
+			private void written(int n) {
+				if (0 <= n) {
+					var bytes = chunks.remove().range(n);
+					if (!bytes.isEmpty())
+						chunks.push(bytes);
+					listen();
+				} else
+					reg.close();
+			}
+		};
+
+		rw.listen();
+	}
+
+}
@@ -0,0 +1,107 @@
+package suite.persistent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import primal.Nouns.Tmp;
+import primal.Verbs.Compare;
+import primal.Verbs.Start;
+import suite.file.PageFile;
+import suite.file.impl.FileFactory;
+import suite.node.util.Singleton;
+import suite.serialize.Serialize;
+
+public class LazyPbTreeStoreTest {
+
+	private Serialize ser = Singleton.me.serialize;
+	private int nKeys = 32;
+
+	@Test
+	public void testCompaction() throws InterruptedException, IOException {
+		var path = Tmp.path("lazyPbTreeStore");
+		var pageSize = PageFile.defaultPageSize;
+		var pf = FileFactory.pageFile(path, true, pageSize);
+
+		try (var shared = LazyPbTreeStore.sharedOfExtent(pf, pageSize, Compare::objects, ser.int_, ser.int_)) {
+			for (var i = 0; i < 256; i++)
+				put(shared, i);
+
+			// saves continue while the compaction runs in slices
+			var compactor = Start.thread(() -> shared.compact(4096, 1));
+
+			for (var i = 256; i < 512; i++)
+				put(shared, i);
+
+			compactor.join();
+
+			// later saves go into the reclaimed space, rather than extending the file
+			var size = Files.size(path);
+
+			for (var i = 512; i < 512 + nKeys; i++)
+				put(shared, i);
+
+			assertEquals(size, Files.size(path));
+
+			var store = shared.open();
+			var mutator = store.mutate();
+
+			for (var key = 0; key < nKeys; key++)
+				assertEquals(512 + key, mutator.get(key).intValue());
+
+			store.end(false);
+		}
+	}
+
+	@Test
+	public void testReopen() throws InterruptedException, IOException {
+		var path = Tmp.path("lazyPbTreeStore");
+		var pageSize = PageFile.defaultPageSize;
+
+		try (var pf = FileFactory.pageFile(path, true, pageSize);
+				var shared = LazyPbTreeStore.sharedOfExtent(pf, pageSize, Compare::objects, ser.int_, ser.int_)) {
+			for (var i = 0; i < 256; i++)
+				put(shared, i);
+
+			// saves during the compaction leave a gap behind
+			var compactor = Start.thread(() -> shared.compact(4096, 1));
+
+			for (var i = 256; i < 512; i++)
+				put(shared, i);
+
+			compactor.join();
+		}
+
+		// the gap is not taken for an extent when the file is scanned again
+		try (var pf = FileFactory.pageFile(path, false, pageSize);
+				var shared = LazyPbTreeStore.sharedOfExtent(pf, pageSize, Compare::objects, ser.int_, ser.int_)) {
+			verify(shared, 512 - nKeys);
+
+			for (var i = 512; i < 512 + nKeys; i++)
+				put(shared, i);
+
+			shared.compact(4096, Integer.MAX_VALUE);
+			verify(shared, 512);
+		}
+	}
+
+	private void verify(LazyPbTreeStore.Shared<?, Integer, Integer> shared, int base) {
+		var store = shared.open();
+		var mutator = store.mutate();
+
+		for (var key = 0; key < nKeys; key++)
+			assertEquals(base + key, mutator.get(key).intValue());
+
+		store.end(false);
+	}
+
+	private void put(LazyPbTreeStore.Shared<?, Integer, Integer> shared, int i) {
+		var store = shared.open();
+		store.mutate().put(i % nKeys, i);
+		store.end(true);
+	}
+
+}